@@ -173,6 +173,44 @@ public class Agent {
         velocity_y += y_V/hypotenus;
         checkRep();
     }
+    /**
+     * Set the velocity directly, for steering that has already chosen where to go.
+     * 
+     * @param x new x velocity
+     * @param y new y velocity
+     * @spec.modifies this
+     * @throws IllegalArgumentException NaN input
+    */
+    public void setVelocity(double x, double y)throws ExecutionException, IllegalArgumentException{
+        if(Double.isNaN(x) || Double.isNaN(y)){
+            throw new IllegalArgumentException("NaN velocity!");
+        }
+        velocity_x = x;
+        velocity_y = y;
+        checkRep();
+    }
+    public double velocityX(){
+        return velocity_x;
+    }
+    public double velocityY(){
+        return velocity_y;
+    }
+    /**
+     * Returns how far the next move goes per unit of velocity.
+     * 
+     * @return distance moved per unit of velocity
+    */
+    public double stride(){
+        return (1-friction)*speed;
+    }
+    /**
+     * Returns the distance moved per move when aiming steadily in one direction.
+     * 
+     * @return top speed
+    */
+    public double speed(){
+        return speed;
+    }
     public double x(){
         return position_x;
     }
@@ -0,0 +1,477 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CompactGraph is an immutable PathEngine that stores node coordinates, wall end points and edge
+ * lengths as float[] and edges as int[] offsets and targets. It holds about twice as many nodes as a
+ * double based layout in the same heap. Line of sight uses orientation tests with a tolerance, so
+ * the rounding to float does not open gaps at walls: segments that nearly touch a wall count as
+ * blocked. The tolerance grows with distance from the origin as float spacing does. Nodes are found
+ * by their float coordinates in an int[] hash table, so points that round to the same float are
+ * the same node. Path lengths are added up in double.
+*/
+public class CompactGraph implements PathEngine{
+    /** Relative tolerance of orientation tests. Several float roundings wide. */
+    private static final double EPSILON = 1e-6;
+    /** Most a float moves a coordinate in rounding, as a fraction of its magnitude, with margin. */
+    private static final double ROUNDING = 0x1p-22;
+    private final float[] nodeX;
+    private final float[] nodeY;
+    private final float[] wallX1;
+    private final float[] wallY1;
+    private final float[] wallX2;
+    private final float[] wallY2;
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] weights;
+    /** Node number plus one at each slot, 0 if empty. Keys are the node's float coordinates. */
+    private final int[] index;
+    private final ThreadLocal<Workspace> workspaces;
+    /**
+     * Construct a CompactGraph with an edge between every two nodes with line of sight.
+     *
+     * @param lines the coordinates of the walls. Coordinates come in pairs for each LineSegment.
+     * @param nodes the coordinates of the nodes.
+     * @throws IllegalArgumentException iff lines.size()%2 == 1 || nodes.size() < 2 || there are
+     * more than Integer.MAX_VALUE-8 edges
+     * @spec.requires no null values and Coordinates have length 2
+    */
+    public CompactGraph(ArrayList<ArrayList<Double>> lines, ArrayList<ArrayList<Double>> nodes){
+        if(lines.size()%2 != 0){
+            throw new IllegalArgumentException("Odd number of coordinates input");
+        }
+        if(nodes.size() < 2){
+            throw new IllegalArgumentException("Must have two or more nodes in ArrayList");
+        }
+        int walls = lines.size()/2;
+        wallX1 = new float[walls];
+        wallY1 = new float[walls];
+        wallX2 = new float[walls];
+        wallY2 = new float[walls];
+        for(int i = 0; i != walls; i++){
+            wallX1[i] = lines.get(2*i).get(0).floatValue();
+            wallY1[i] = lines.get(2*i).get(1).floatValue();
+            wallX2[i] = lines.get(2*i+1).get(0).floatValue();
+            wallY2[i] = lines.get(2*i+1).get(1).floatValue();
+        }
+        float[] x = new float[nodes.size()];
+        float[] y = new float[nodes.size()];
+        for(int i = 0; i != nodes.size(); i++){
+            x[i] = nodes.get(i).get(0).floatValue();
+            y[i] = nodes.get(i).get(1).floatValue();
+        }
+        index = new int[tableSize(nodes.size())];
+        int n = 0;
+        for(int i = 0; i != nodes.size(); i++){
+            if(insert(x, y, i, n)){
+                x[n] = x[i];
+                y[n] = y[i];
+                n++;
+            }
+        }
+        nodeX = Arrays.copyOf(x, n);
+        nodeY = Arrays.copyOf(y, n);
+        // Count then fill so the edge arrays are allocated once. Pairs are numbered in long since
+        // there are more than Integer.MAX_VALUE of them past about 65k nodes.
+        long pairs = (long) n*(n-1)/2;
+        if((pairs+63)/64 > Integer.MAX_VALUE-8){
+            throw new IllegalArgumentException("Too many nodes: "+n);
+        }
+        long[] clear = new long[(int) ((pairs+63)/64)];
+        long[] degree = new long[n+1];
+        long pair = 0;
+        for(int a = 0; a != n; a++){
+            for(int b = a+1; b != n; b++){
+                if(visible(nodeX[a], nodeY[a], nodeX[b], nodeY[b])){
+                    clear[(int) (pair >>> 6)] |= 1L << pair;
+                    degree[a+1]++;
+                    degree[b+1]++;
+                }
+                pair++;
+            }
+        }
+        offsets = offsets(degree);
+        targets = new int[offsets[n]];
+        weights = new float[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        pair = 0;
+        for(int a = 0; a != n; a++){
+            for(int b = a+1; b != n; b++){
+                if((clear[(int) (pair >>> 6)] & 1L << pair) != 0){
+                    link(fill, a, b);
+                    link(fill, b, a);
+                }
+                pair++;
+            }
+        }
+        workspaces = ThreadLocal.withInitial(() -> new Workspace(nodeX.length+2));
+    }
+    /**
+     * Copy an existing graph's nodes and edges without testing line of sight again.
+     *
+     * @param obstacles walls of the graph
+     * @param nodes nodes of the graph
+     * @param edges children of each node
+     * @throws IllegalArgumentException iff there are more than Integer.MAX_VALUE-8 edges
+     * @spec.requires no null values, every child is in 'nodes'
+    */
+    CompactGraph(ObstacleCourse obstacles, ArrayList<ArrayList<Double>> nodes,
+     Map<ArrayList<Double>, Set<ArrayList<Double>>> edges){
+        int walls = obstacles.wallCount();
+        wallX1 = new float[walls];
+        wallY1 = new float[walls];
+        wallX2 = new float[walls];
+        wallY2 = new float[walls];
+        for(int i = 0; i != walls; i++){
+            LineSegment wall = obstacles.getWall(i);
+            wallX1[i] = (float) wall.headX();
+            wallY1[i] = (float) wall.headY();
+            wallX2[i] = (float) wall.tailX();
+            wallY2[i] = (float) wall.tailY();
+        }
+        int n = nodes.size();
+        index = new int[tableSize(n)];
+        nodeX = new float[n];
+        nodeY = new float[n];
+        long[] degree = new long[n+1];
+        for(int i = 0; i != n; i++){
+            nodeX[i] = nodes.get(i).get(0).floatValue();
+            nodeY[i] = nodes.get(i).get(1).floatValue();
+            // Nodes that round to the same float as an earlier one are only found as that one
+            insert(nodeX, nodeY, i, i);
+            degree[i+1] = edges.get(nodes.get(i)).size();
+        }
+        offsets = offsets(degree);
+        targets = new int[offsets[n]];
+        weights = new float[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for(int i = 0; i != n; i++){
+            for(ArrayList<Double> child: edges.get(nodes.get(i))){
+                link(fill, i, find(child.get(0).floatValue(), child.get(1).floatValue()));
+            }
+        }
+        workspaces = ThreadLocal.withInitial(() -> new Workspace(nodeX.length+2));
+    }
+    /**
+     * Returns the number of nodes.
+     *
+     * @return number of nodes
+    */
+    public int nodeCount(){
+        return nodeX.length;
+    }
+    /**
+     * Returns the number of directed edges.
+     *
+     * @return number of directed edges
+    */
+    public int edgeCount(){
+        return targets.length;
+    }
+    /**
+     * Find quickest path from 'start' to 'end'. 'start' and 'end' do not have to be in graph.
+     * Points in the path other than 'start' and 'end' are rounded to float.
+     *
+     * @param start node to start at
+     * @param end node to end at
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @return quickest path from 'start' to 'end' or null if none exists
+    */
+    @Override
+    public ArrayList<ArrayList<Double>> PathFind(ArrayList<Double> start, ArrayList<Double> end){
+        if(start.equals(end)){
+            return null;
+        }
+        int n = nodeX.length;
+        int from = find(start.get(0).floatValue(), start.get(1).floatValue());
+        if(from < 0){
+            from = n;
+        }
+        int to = find(end.get(0).floatValue(), end.get(1).floatValue());
+        if(to < 0){
+            to = n+1;
+        }
+        if(from == to){
+            return null;
+        }
+        double sx = start.get(0);
+        double sy = start.get(1);
+        double ex = end.get(0);
+        double ey = end.get(1);
+        Workspace work = workspaces.get();
+        work.reset();
+        // Points outside the graph are linked in for this query only
+        if(to == n+1){
+            for(int i = 0; i != n; i++){
+                if(visible((float) ex, (float) ey, nodeX[i], nodeY[i])){
+                    work.markEnd(i);
+                }
+            }
+            if(from == n && visible((float) sx, (float) sy, (float) ex, (float) ey)){
+                work.markEnd(n);
+            }
+        }
+        work.open(from, 0, -1, heuristic(sx, sy, ex, ey));
+        while(!work.heap.isEmpty()){
+            int current = work.heap.pop();
+            if(current == to){
+                return trace(work, from, to, start, end);
+            }
+            work.close(current);
+            double cx = current == n ? sx : nodeX[current];
+            double cy = current == n ? sy : nodeY[current];
+            double length = work.length[current];
+            if(current == n){
+                for(int i = 0; i != n; i++){
+                    if(!work.closed(i) && visible((float) sx, (float) sy, nodeX[i], nodeY[i])){
+                        double step = distance(sx, sy, nodeX[i], nodeY[i]);
+                        work.open(i, length+step, current, heuristic(nodeX[i], nodeY[i], ex, ey));
+                    }
+                }
+            }else{
+                for(int k = offsets[current]; k != offsets[current+1]; k++){
+                    int child = targets[k];
+                    if(!work.closed(child)){
+                        work.open(child, length+weights[k], current,
+                         heuristic(nodeX[child], nodeY[child], ex, ey));
+                    }
+                }
+            }
+            if(to == n+1 && work.endMarked(current)){
+                work.open(n+1, length+distance(cx, cy, ex, ey), current, 0);
+            }
+        }
+        return null;
+    }
+    /**
+     * Indicate if the two points have line of sight after rounding to float.
+     *
+     * @param point1 the first point
+     * @param point2 the second point
+     * @spec.requires no null inputs, point1.size() == 2, point2.size() == 2
+     * @return true iff no wall crosses or nearly touches the segment between the points
+    */
+    @Override
+    public boolean lineOfSight(ArrayList<Double> point1, ArrayList<Double> point2){
+        if(point1.size() != 2 || point2.size() != 2){
+            throw new IllegalArgumentException("All coordinates must be 2d.");
+        }
+        return visible(point1.get(0).floatValue(), point1.get(1).floatValue(),
+         point2.get(0).floatValue(), point2.get(1).floatValue());
+    }
+    /**
+     * Draw the walls. They are only kept as float, so an ObstacleCourse is built from them here.
+    */
+    @Override
+    public void draw(){
+        ArrayList<Double[]> coordinates = new ArrayList<>();
+        for(int i = 0; i != wallX1.length; i++){
+            coordinates.add(new Double[]{(double) wallX1[i], (double) wallY1[i]});
+            coordinates.add(new Double[]{(double) wallX2[i], (double) wallY2[i]});
+        }
+        new ObstacleCourse(coordinates).draw();
+    }
+    /**
+     * Returns the number of the node at float coordinates ('x', 'y').
+     *
+     * @return node number or -1 if there is none
+    */
+    private int find(float x, float y){
+        int mask = index.length-1;
+        for(int slot = slot(x, y, mask); index[slot] != 0; slot = (slot+1)&mask){
+            int node = index[slot]-1;
+            if(nodeX[node] == x && nodeY[node] == y){
+                return node;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Add node 'node' at (x[i], y[i]) to the index unless a node is already there.
+     *
+     * @return true iff it was added
+    */
+    private boolean insert(float[] x, float[] y, int i, int node){
+        int mask = index.length-1;
+        int slot = slot(x[i], y[i], mask);
+        for(; index[slot] != 0; slot = (slot+1)&mask){
+            int other = index[slot]-1;
+            if(x[other] == x[i] && y[other] == y[i]){
+                return false;
+            }
+        }
+        index[slot] = node+1;
+        return true;
+    }
+    /**
+     * Hash of a point's float coordinates. Adding 0 turns -0.0 into 0.0 so they hash alike, as
+     * they compare equal.
+    */
+    private static int slot(float x, float y, int mask){
+        long h = ((long) Float.floatToIntBits(x+0f) << 32 | (Float.floatToIntBits(y+0f) & 0xffffffffL))
+         *0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32))&mask;
+    }
+    /**
+     * Returns a power of two at least twice 'n'.
+    */
+    private static int tableSize(int n){
+        return Integer.highestOneBit(Math.max(2*n, 2)-1)*2;
+    }
+    /**
+     * Returns the start of each node's edges given the degree of node i at i+1.
+    */
+    private static int[] offsets(long[] degree){
+        int[] offsets = new int[degree.length];
+        long total = 0;
+        for(int i = 1; i != degree.length; i++){
+            total += degree[i];
+            if(total > Integer.MAX_VALUE-8){
+                throw new IllegalArgumentException("Too many edges: more than "+(Integer.MAX_VALUE-8));
+            }
+            offsets[i] = (int) total;
+        }
+        return offsets;
+    }
+    private void link(int[] fill, int from, int to){
+        targets[fill[from]] = to;
+        weights[fill[from]] = (float) distance(nodeX[from], nodeY[from], nodeX[to], nodeY[to]);
+        fill[from]++;
+    }
+    /**
+     * Indicate if no wall crosses the segment. Walls parallel to the segment are ignored as
+     * LineSegment.collision does. Orientations within the tolerance count as touching. Rounding a
+     * coordinate to float moves it by up to its magnitude times 2^-24, which moves an orientation
+     * by that times the lengths of the two vectors in it, so the tolerance grows with both.
+    */
+    private boolean visible(float ax, float ay, float bx, float by){
+        double dx = (double) bx-ax;
+        double dy = (double) by-ay;
+        double length = Math.abs(dx)+Math.abs(dy);
+        double magnitude = Math.max(Math.max(Math.abs(ax), Math.abs(ay)),
+         Math.max(Math.abs(bx), Math.abs(by)));
+        for(int i = 0; i != wallX1.length; i++){
+            double wx = (double) wallX2[i]-wallX1[i];
+            double wy = (double) wallY2[i]-wallY1[i];
+            double wallLength = Math.abs(wx)+Math.abs(wy);
+            double cross = dx*wy-dy*wx;
+            if(Math.abs(cross) <= EPSILON*EPSILON*length*wallLength){
+                continue;
+            }
+            double moved = ROUNDING*Math.max(magnitude, Math.max(Math.max(Math.abs(wallX1[i]),
+             Math.abs(wallY1[i])), Math.max(Math.abs(wallX2[i]), Math.abs(wallY2[i]))));
+            // Apart boxes, needed when both nearly lie on one line and every side is in tolerance
+            if(Math.max(ax, bx)+2*moved < Math.min(wallX1[i], wallX2[i])
+             || Math.min(ax, bx)-2*moved > Math.max(wallX1[i], wallX2[i])
+             || Math.max(ay, by)+2*moved < Math.min(wallY1[i], wallY2[i])
+             || Math.min(ay, by)-2*moved > Math.max(wallY1[i], wallY2[i])){
+                continue;
+            }
+            // Sides of the wall's end points relative to the segment
+            double scale = EPSILON*length*wallLength;
+            double o1 = dx*((double) wallY1[i]-ay)-dy*((double) wallX1[i]-ax);
+            double o2 = dx*((double) wallY2[i]-ay)-dy*((double) wallX2[i]-ax);
+            double t1 = scale+moved*(length+Math.abs((double) wallX1[i]-ax)+Math.abs((double) wallY1[i]-ay));
+            double t2 = scale+moved*(length+Math.abs((double) wallX2[i]-ax)+Math.abs((double) wallY2[i]-ay));
+            if((o1 > t1 && o2 > t2) || (o1 < -t1 && o2 < -t2)){
+                continue;
+            }
+            // Sides of the segment's end points relative to the wall
+            double o3 = wx*((double) ay-wallY1[i])-wy*((double) ax-wallX1[i]);
+            double o4 = wx*((double) by-wallY1[i])-wy*((double) bx-wallX1[i]);
+            double t3 = scale+moved*(wallLength+Math.abs((double) ax-wallX1[i])+Math.abs((double) ay-wallY1[i]));
+            double t4 = scale+moved*(wallLength+Math.abs((double) bx-wallX1[i])+Math.abs((double) by-wallY1[i]));
+            if((o3 > t3 && o4 > t4) || (o3 < -t3 && o4 < -t4)){
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+    private ArrayList<ArrayList<Double>> trace(Workspace work, int from, int to, ArrayList<Double> start,
+     ArrayList<Double> end){
+        ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+        int place = to;
+        while(place != -1){
+            if(place == from){
+                goal.add(start);
+            }else if(place == to){
+                goal.add(end);
+            }else{
+                ArrayList<Double> point = new ArrayList<>();
+                point.add((double) nodeX[place]);
+                point.add((double) nodeY[place]);
+                goal.add(point);
+            }
+            place = work.parent[place];
+        }
+        Collections.reverse(goal);
+        return goal;
+    }
+    /**
+     * Straight line distance shrunk slightly so float edge lengths never undercut it.
+    */
+    private static double heuristic(double x, double y, double ex, double ey){
+        return distance(x, y, ex, ey)*(1-EPSILON);
+    }
+    private static double distance(double ax, double ay, double bx, double by){
+        double x = ax-bx;
+        double y = ay-by;
+        return Math.sqrt(x*x+y*y);
+    }
+    /**
+     * Per thread search state. Nodes are only valid when their stamp matches the generation.
+    */
+    private static class Workspace{
+        final NodeHeap heap;
+        final double[] length;
+        final int[] parent;
+        final int[] stamp;
+        final int[] endStamp;
+        int generation;
+        Workspace(int size){
+            heap = new NodeHeap(size);
+            length = new double[size];
+            parent = new int[size];
+            stamp = new int[size];
+            endStamp = new int[size];
+            generation = 0;
+        }
+        void reset(){
+            heap.clear();
+            generation += 2;
+            if(generation <= 0){
+                Arrays.fill(stamp, 0);
+                Arrays.fill(endStamp, 0);
+                generation = 2;
+            }
+        }
+        void markEnd(int node){
+            endStamp[node] = generation;
+        }
+        boolean endMarked(int node){
+            return endStamp[node] == generation;
+        }
+        boolean closed(int node){
+            return stamp[node] == generation+1;
+        }
+        void close(int node){
+            stamp[node] = generation+1;
+        }
+        void open(int node, double length, int parent, double heuristic){
+            if(stamp[node] == generation+1){
+                return;
+            }
+            if(stamp[node] == generation && this.length[node] <= length){
+                return;
+            }
+            stamp[node] = generation;
+            this.length[node] = length;
+            this.parent[node] = parent;
+            heap.push(node, length+heuristic);
+        }
+    }
+}
@@ -0,0 +1,634 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * A CooperativePlanner is a mutable planner that keeps many agents on one TwoWayGraph out of each
+ * other's way. Time is cut into windows of 'window' moves and every plan reserves the nodes it
+ * stands on and the edges it travels in each window it uses them. An agent stays at its end, so the
+ * end node is held from arrival to the last window of the horizon. An end point outside the graph
+ * is not a node, so nothing holds it and later plans may pass through it. Agents are planned in
+ * priority order with A* over (node, window) states, so a later agent waits or goes around instead
+ * of using a node or edge an earlier one holds. Reservations are kept in a ReservationTable.
+ * Plans cover the graph as it was when the planner was built, so a new planner is needed after
+ * nodes are added or removed. The planner is meant for one thread; planAll uses others itself.
+*/
+public class CooperativePlanner{
+    /** Most plans searched in parallel before their reservations are taken in priority order. */
+    private static final int BATCH = 64;
+    private final TwoWayGraph graph;
+    private final GraphIndex nodes;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] edge;
+    private final double window;
+    private final int horizon;
+    private final ReservationTable table;
+    private final ThreadLocal<Workspace> workspaces;
+    private double now;
+    private int replanned;
+    /**
+     * Constructs a planner over 'graph' as it is now with no reservations.
+     *
+     * @param graph graph to plan through
+     * @param window moves in each time window
+     * @param horizon most windows a plan may take
+     * @spec.requires graph != null
+     * @throws IllegalArgumentException window <= 0 or horizon < 1
+    */
+    public CooperativePlanner(TwoWayGraph graph, double window, int horizon){
+        if(!(window > 0) || horizon < 1){
+            throw new IllegalArgumentException("Invalid planner parameters!");
+        }
+        this.graph = graph;
+        this.window = window;
+        this.horizon = horizon;
+        int[] kept;
+        graph.queryLock().lock();
+        try{
+            nodes = graph.index();
+            int n = nodes.size();
+            offsets = new int[n+1];
+            kept = new int[nodes.targets.length];
+            int count = 0;
+            for(int i = 0; i != n; i++){
+                for(int k = nodes.offsets[i]; k != nodes.offsets[i+1]; k++){
+                    if(graph.edgeClear(nodes.nodes[i], nodes.nodes[nodes.targets[k]])){
+                        kept[count++] = k;
+                    }
+                }
+                offsets[i+1] = count;
+            }
+            kept = Arrays.copyOf(kept, count);
+        }finally{
+            graph.queryLock().unlock();
+        }
+        int n = nodes.size();
+        targets = new int[kept.length];
+        weights = new double[kept.length];
+        for(int k = 0; k != kept.length; k++){
+            targets[k] = nodes.targets[kept[k]];
+            weights[k] = nodes.weights[kept[k]];
+        }
+        // Both ways along an edge are one resource, numbered after the nodes by the lower end's edge
+        edge = new int[targets.length];
+        for(int i = 0; i != n; i++){
+            for(int k = offsets[i]; k != offsets[i+1]; k++){
+                int back = i < targets[k] ? -1 : find(targets[k], i);
+                edge[k] = n+(back < 0 ? k : back);
+            }
+        }
+        table = new ReservationTable();
+        workspaces = ThreadLocal.withInitial(Workspace::new);
+        now = 0;
+        replanned = 0;
+    }
+    /**
+     * Plan a path from 'start' to 'end' that keeps clear of every plan made so far and reserve it.
+     *
+     * @param start point to start at
+     * @param end point to end at
+     * @param speed distance the agent covers per move
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @spec.modifies this
+     * @throws IllegalArgumentException speed <= 0
+     * @return plan from 'start' to 'end', null if they are equal or no plan within the horizon
+     * keeps clear of the reservations
+    */
+    public Plan plan(ArrayList<Double> start, ArrayList<Double> end, double speed){
+        if(!(speed > 0)){
+            throw new IllegalArgumentException("Speed must be positive!");
+        }
+        Plan found = start.equals(end) ? null : search(start, end, speed, now);
+        if(found != null){
+            hold(found);
+        }
+        return found;
+    }
+    /**
+     * Plan for many agents, each keeping clear of those before it. Agents are searched in parallel
+     * batches against the reservations made so far, then their reservations are taken in order.
+     * A plan that clashes with an earlier one of its batch is searched again. A plan that does not
+     * clash is as quick as one searched after the earlier ones, since their reservations only take
+     * choices away. Batches shrink while most of their plans clash and grow again when few do.
+     *
+     * @param starts points to start at, highest priority first
+     * @param ends points to end at
+     * @param speeds distance each agent covers per move
+     * @spec.requires no null values, points have length 2
+     * @spec.modifies this
+     * @throws IllegalArgumentException the three sizes differ or a speed <= 0
+     * @return plan of each agent in the order given, null where plan would return null
+    */
+    public ArrayList<Plan> planAll(List<ArrayList<Double>> starts, List<ArrayList<Double>> ends,
+     double[] speeds){
+        int count = starts.size();
+        if(ends.size() != count || speeds.length != count){
+            throw new IllegalArgumentException("Mismatched agent lists!");
+        }
+        for(double speed: speeds){
+            if(!(speed > 0)){
+                throw new IllegalArgumentException("Speed must be positive!");
+            }
+        }
+        Plan[] found = new Plan[count];
+        double begin = now;
+        int batch = BATCH;
+        for(int done = 0; done < count; ){
+            int first = done;
+            int last = Math.min(count, done+batch);
+            // Nothing is reserved while the batch is searched, so the table is only read
+            IntStream.range(first, last).parallel().forEach(i -> found[i] = starts.get(i).equals(ends.get(i))
+             ? null : search(starts.get(i), ends.get(i), speeds[i], begin));
+            int clashes = 0;
+            for(int i = first; i != last; i++){
+                if(found[i] != null && !free(found[i])){
+                    clashes++;
+                    found[i] = search(starts.get(i), ends.get(i), speeds[i], begin);
+                }
+                if(found[i] != null){
+                    hold(found[i]);
+                }
+            }
+            replanned += clashes;
+            // Agents crowding the same place clash often, so search fewer of them at once
+            if(2*clashes > last-first){
+                batch = Math.max(1, batch/2);
+            }else if(4*clashes < last-first){
+                batch = Math.min(BATCH, batch*2);
+            }
+            done = last;
+        }
+        return new ArrayList<>(Arrays.asList(found));
+    }
+    /**
+     * Plan for every agent in 'agents' to go to its target and have it follow the plan. Plans the
+     * agents made before are released first. An agent with no plan within the horizon is sent
+     * along the graph's quickest path instead, without reservations.
+     *
+     * @param agents agents to plan for, highest priority first
+     * @param targets point each agent goes to
+     * @spec.requires no null values, targets have length 2
+     * @spec.modifies this and every agent in 'agents'
+     * @throws IllegalArgumentException the sizes differ
+     * @return number of agents that got a plan
+    */
+    public int assign(List<SuperAgent> agents, List<ArrayList<Double>> targets){
+        if(agents.size() != targets.size()){
+            throw new IllegalArgumentException("Mismatched agent lists!");
+        }
+        ArrayList<ArrayList<Double>> starts = new ArrayList<>();
+        double[] speeds = new double[agents.size()];
+        for(int i = 0; i != agents.size(); i++){
+            SuperAgent agent = agents.get(i);
+            if(agent.plan != null && agent.plan.owner == this){
+                release(agent.plan);
+            }
+            ArrayList<Double> start = new ArrayList<>();
+            start.add(agent.agent.x());
+            start.add(agent.agent.y());
+            starts.add(start);
+            speeds[i] = agent.agent.speed();
+        }
+        ArrayList<Plan> plans = planAll(starts, targets, speeds);
+        int planned = 0;
+        for(int i = 0; i != agents.size(); i++){
+            if(plans.get(i) != null){
+                agents.get(i).follow(plans.get(i));
+                planned++;
+            }else{
+                agents.get(i).follow(graph.PathFindWaypoints(starts.get(i), targets.get(i)));
+            }
+        }
+        return planned;
+    }
+    /**
+     * Give up the reservations of 'plan'.
+     *
+     * @param plan plan made by this planner
+     * @spec.requires plan != null
+     * @spec.modifies this
+     * @throws IllegalArgumentException plan was made by another planner
+    */
+    public void release(Plan plan){
+        if(plan.owner != this){
+            throw new IllegalArgumentException("Plan not made by this planner!");
+        }
+        for(int i = 0; i != plan.resources.length; i++){
+            if(plan.held[i]){
+                table.remove(plan.resources[i], plan.windows[i]);
+                plan.held[i] = false;
+            }
+        }
+    }
+    /**
+     * Move the planner's clock on by 'moves'. New plans start at the new time and reservations in
+     * windows that have passed are dropped.
+     *
+     * @param moves number of moves made since the last call
+     * @spec.modifies this
+     * @throws IllegalArgumentException moves < 0
+    */
+    public void advance(double moves){
+        if(!(moves >= 0)){
+            throw new IllegalArgumentException("Cannot move the clock back!");
+        }
+        int before = window(now);
+        now += moves;
+        if(window(now) != before){
+            table.expire(window(now));
+        }
+    }
+    /**
+     * Drop every reservation.
+     *
+     * @spec.modifies this
+    */
+    public void clear(){
+        table.clear();
+    }
+    /**
+     * Returns the number of node and edge windows reserved.
+     *
+     * @return number of reservations
+    */
+    public int reservations(){
+        return table.size();
+    }
+    /**
+     * Returns the number of plans planAll searched again because an earlier plan of the same batch
+     * took a node or edge they used.
+     *
+     * @return number of plans searched twice
+    */
+    public int replanned(){
+        return replanned;
+    }
+    /**
+     * A* over (node, window) states from 'start' at time 'begin'. Each state keeps the earliest
+     * time it is reached. From a state an agent may wait for the next window or take an edge whose
+     * windows are free and arrive at a free node. Points outside the graph are linked in as nodes
+     * n and n+1 and their links are not reserved. An end node only counts as reached once it stays
+     * free until the end of the horizon.
+     *
+     * @return plan found, not yet reserved, or null if none within the horizon
+    */
+    private Plan search(ArrayList<Double> start, ArrayList<Double> end, double speed, double begin){
+        int n = nodes.size();
+        int stride = n+2;
+        int from = nodes.find(start);
+        int to = nodes.find(end);
+        int first = from < 0 ? n : from;
+        int last = to < 0 ? n+1 : to;
+        double sx = start.get(0);
+        double sy = start.get(1);
+        double ex = end.get(0);
+        double ey = end.get(1);
+        Workspace work = workspaces.get();
+        work.reset(stride, horizon);
+        if(from < 0 || to < 0){
+            graph.queryLock().lock();
+            try{
+                // Links of a lazy graph are unchecked, so edgeClear tests them. Elsewhere it is free.
+                Set<ArrayList<Double>> near = from < 0 ? graph.links(start) : null;
+                if(near != null){
+                    for(ArrayList<Double> node: near){
+                        int i = nodes.find(node);
+                        if(i >= 0 && graph.edgeClear(start, node)){
+                            work.link(i);
+                        }
+                    }
+                }
+                near = to < 0 ? graph.links(end) : null;
+                if(near != null){
+                    for(ArrayList<Double> node: near){
+                        int i = nodes.find(node);
+                        if(i >= 0 && graph.edgeClear(end, node)){
+                            work.mark(i);
+                        }
+                    }
+                }
+                if(from < 0 && to < 0 && graph.linkable(start, end)
+                 && graph.lineOfSight(start, end)){
+                    work.link(n+1);
+                }
+            }finally{
+                graph.queryLock().unlock();
+            }
+        }
+        int base = window(begin);
+        work.open(first, begin, -1, distance(sx, sy, ex, ey)/speed);
+        while(!work.heap.isEmpty()){
+            int state = work.heap.pop();
+            int place = state%stride;
+            int slot = state/stride;
+            if(place == last && (last > n || free(last, base+slot+1, base+horizon-1))){
+                return trace(work, state, stride, start, end, begin);
+            }
+            work.close(state);
+            double time = work.time[state];
+            double px = place == n ? sx : nodes.x[place];
+            double py = place == n ? sy : nodes.y[place];
+            double rest = distance(px, py, ex, ey)/speed;
+            if(slot+1 < horizon && (place == n || !table.contains(place, base+slot+1))){
+                work.open(state+stride, (base+slot+1)*window, state, rest);
+            }
+            if(place == n){
+                for(int k = 0; k != work.linkCount; k++){
+                    int child = work.links[k];
+                    double qx = child == n+1 ? ex : nodes.x[child];
+                    double qy = child == n+1 ? ey : nodes.y[child];
+                    double arrive = time+distance(px, py, qx, qy)/speed;
+                    int at = window(arrive)-base;
+                    if(at < horizon && (child == n+1 || !table.contains(child, base+at))){
+                        work.open(at*stride+child, arrive, state, distance(qx, qy, ex, ey)/speed);
+                    }
+                }
+                continue;
+            }
+            for(int k = offsets[place]; k != offsets[place+1]; k++){
+                int child = targets[k];
+                double arrive = time+weights[k]/speed;
+                int at = window(arrive)-base;
+                if(at >= horizon || table.contains(child, base+at) || !free(edge[k], base+slot, base+at)){
+                    continue;
+                }
+                work.open(at*stride+child, arrive, state, distance(nodes.x[child], nodes.y[child], ex, ey)/speed);
+            }
+            if(to < 0 && work.marked(place)){
+                double arrive = time+rest;
+                int at = window(arrive)-base;
+                if(at < horizon){
+                    work.open(at*stride+n+1, arrive, state, 0);
+                }
+            }
+        }
+        return null;
+    }
+    /**
+     * Follow parents back from 'state' and list the windows the plan must reserve. Waits at one
+     * place are merged into one point held from arrival to departure.
+    */
+    private Plan trace(Workspace work, int state, int stride, ArrayList<Double> start, ArrayList<Double> end,
+     double begin){
+        int n = stride-2;
+        ArrayList<Integer> places = new ArrayList<>();
+        ArrayList<Double> arrivals = new ArrayList<>();
+        ArrayList<Double> departures = new ArrayList<>();
+        ArrayList<Integer> entered = new ArrayList<>();
+        ArrayList<Integer> left = new ArrayList<>();
+        for(int place = state; place != -1; place = work.parent[place]){
+            double time = work.time[place];
+            if(!places.isEmpty() && places.get(places.size()-1) == place%stride){
+                arrivals.set(arrivals.size()-1, time);
+                entered.set(entered.size()-1, place/stride);
+            }else{
+                places.add(place%stride);
+                arrivals.add(time);
+                departures.add(time);
+                entered.add(place/stride);
+                left.add(place/stride);
+            }
+        }
+        Collections.reverse(places);
+        Collections.reverse(arrivals);
+        Collections.reverse(departures);
+        Collections.reverse(entered);
+        Collections.reverse(left);
+        int count = places.size();
+        int base = window(begin);
+        Plan plan = new Plan(this, count);
+        IntList resources = new IntList();
+        IntList windows = new IntList();
+        for(int i = 0; i != count; i++){
+            int place = places.get(i);
+            plan.path.add(place == n ? start : place == n+1 ? end : nodes.nodes[place]);
+            plan.arrival[i] = arrivals.get(i)-begin;
+            plan.departure[i] = departures.get(i)-begin;
+            if(place >= n){
+                continue;
+            }
+            // The same windows the search checked, taken from the states rather than the times
+            int until = i == count-1 ? horizon-1 : left.get(i);
+            for(int w = entered.get(i); w <= until; w++){
+                resources.add(place);
+                windows.add(base+w);
+            }
+            if(i+1 < count && places.get(i+1) < n){
+                int k = find(place, places.get(i+1));
+                for(int w = left.get(i); w <= entered.get(i+1); w++){
+                    resources.add(edge[k]);
+                    windows.add(base+w);
+                }
+            }
+        }
+        plan.resources = resources.toArray();
+        plan.windows = windows.toArray();
+        plan.held = new boolean[plan.resources.length];
+        // Standing on the start node when the plan begins was not checked by the search
+        plan.checked = places.get(0) < n ? 1 : 0;
+        return plan;
+    }
+    /**
+     * Indicate if none of the windows 'plan' was searched against have been reserved since.
+    */
+    private boolean free(Plan plan){
+        for(int i = plan.checked; i != plan.resources.length; i++){
+            if(table.contains(plan.resources[i], plan.windows[i])){
+                return false;
+            }
+        }
+        return true;
+    }
+    private boolean free(int resource, int first, int last){
+        for(int w = first; w <= last; w++){
+            if(table.contains(resource, w)){
+                return false;
+            }
+        }
+        return true;
+    }
+    private void hold(Plan plan){
+        for(int i = 0; i != plan.resources.length; i++){
+            plan.held[i] = table.add(plan.resources[i], plan.windows[i]);
+        }
+    }
+    /**
+     * Number of the edge from 'from' to 'to', or -1 if there is none.
+    */
+    private int find(int from, int to){
+        for(int k = offsets[from]; k != offsets[from+1]; k++){
+            if(targets[k] == to){
+                return k;
+            }
+        }
+        return -1;
+    }
+    private int window(double time){
+        return (int) Math.floor(time/window);
+    }
+    private static double distance(double ax, double ay, double bx, double by){
+        double x = ax-bx;
+        double y = ay-by;
+        return Math.sqrt(x*x+y*y);
+    }
+    /**
+     * A path with the time to reach and leave each of its points, in moves from when it was made.
+     * An agent that follows it waits at a point until its departure time.
+    */
+    public static class Plan{
+        private final CooperativePlanner owner;
+        private final ArrayList<ArrayList<Double>> path;
+        private final double[] arrival;
+        private final double[] departure;
+        private int[] resources;
+        private int[] windows;
+        private boolean[] held;
+        private int checked;
+        private Plan(CooperativePlanner owner, int count){
+            this.owner = owner;
+            path = new ArrayList<>();
+            arrival = new double[count];
+            departure = new double[count];
+        }
+        /**
+         * Returns the points of the plan.
+         *
+         * @return path from the start to the end as 2d coordinates. Must not be modified.
+        */
+        public ArrayList<ArrayList<Double>> path(){
+            return path;
+        }
+        /**
+         * Returns when point 'i' is reached.
+         *
+         * @param i index into path()
+         * @spec.requires 0 <= i < path().size()
+         * @return moves from the start of the plan until point 'i' is reached
+        */
+        public double arrival(int i){
+            return arrival[i];
+        }
+        /**
+         * Returns when point 'i' is left.
+         *
+         * @param i index into path()
+         * @spec.requires 0 <= i < path().size()
+         * @return moves from the start of the plan until point 'i' is left, at least arrival(i)
+        */
+        public double departure(int i){
+            return departure[i];
+        }
+        /**
+         * Returns how long the plan takes.
+         *
+         * @return moves from the start of the plan until the end is reached
+        */
+        public double duration(){
+            return arrival[arrival.length-1];
+        }
+    }
+    /**
+     * Growable list of ints.
+    */
+    private static class IntList{
+        private int[] values = new int[16];
+        private int size = 0;
+        void add(int value){
+            if(size == values.length){
+                values = Arrays.copyOf(values, size*2);
+            }
+            values[size++] = value;
+        }
+        int[] toArray(){
+            return Arrays.copyOf(values, size);
+        }
+    }
+    /**
+     * Per thread search state over (node, window) states numbered window*(n+2)+node.
+     * States are only valid when their stamp matches the generation.
+    */
+    private static class Workspace{
+        final NodeHeap heap;
+        double[] time;
+        int[] parent;
+        int[] links;
+        int linkCount;
+        private int[] stamp;
+        private int[] mark;
+        private int generation;
+        Workspace(){
+            heap = new NodeHeap(0);
+            time = new double[0];
+            parent = new int[0];
+            links = new int[0];
+            stamp = new int[0];
+            mark = new int[0];
+            generation = 0;
+        }
+        void reset(int stride, int horizon){
+            int states = stride*horizon;
+            boolean grown = false;
+            if(states > time.length){
+                heap.ensureCapacity(states);
+                time = new double[states];
+                parent = new int[states];
+                stamp = new int[states];
+                grown = true;
+            }
+            if(stride > links.length){
+                links = new int[stride];
+                mark = new int[stride];
+                grown = true;
+            }
+            if(grown){
+                // Both stamp arrays start again from generation 0
+                Arrays.fill(stamp, 0);
+                Arrays.fill(mark, 0);
+                generation = 0;
+            }
+            heap.clear();
+            linkCount = 0;
+            generation += 2;
+            if(generation <= 0){
+                Arrays.fill(stamp, 0);
+                Arrays.fill(mark, 0);
+                generation = 2;
+            }
+        }
+        boolean closed(int state){
+            return stamp[state] == generation+1;
+        }
+        void close(int state){
+            stamp[state] = generation+1;
+        }
+        void mark(int node){
+            mark[node] = generation;
+        }
+        boolean marked(int node){
+            return mark[node] == generation;
+        }
+        void link(int node){
+            links[linkCount++] = node;
+        }
+        /**
+         * Record a way into 'state' if it arrives earlier than the known one.
+        */
+        void open(int state, double time, int parent, double heuristic){
+            if(stamp[state] == generation+1){
+                return;
+            }
+            if(stamp[state] == generation && this.time[state] <= time){
+                return;
+            }
+            stamp[state] = generation;
+            this.time[state] = time;
+            this.parent[state] = parent;
+            heap.push(state, time+heuristic);
+        }
+    }
+}
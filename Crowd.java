@@ -0,0 +1,470 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+
+/**
+ * A Crowd is a mutable group of SuperAgents that steer around each other. Each move every agent
+ * takes the velocity closest to the one its path asks for that keeps it from touching its nearest
+ * neighbors within 'timeHorizon' moves, using optimal reciprocal collision avoidance (ORCA).
+ * Neighbors are found with a spatial hash rebuilt every move and the velocities are solved in
+ * parallel chunks. Velocities here are distances per move.
+*/
+public class Crowd{
+    /** Agents per parallel chunk. Smaller crowds are solved on the calling thread. */
+    private static final int CHUNK = 256;
+    private static final double EPSILON = 1e-9;
+    private final ArrayList<SuperAgent> members;
+    private final double radius;
+    private final double neighborDistance;
+    private final int maxNeighbors;
+    private final double timeHorizon;
+    private final ThreadLocal<Solver> solvers;
+    private double[] x;
+    private double[] y;
+    private double[] velocityX;
+    private double[] velocityY;
+    private double[] preferredX;
+    private double[] preferredY;
+    private double[] maxSpeed;
+    private double[] newX;
+    private double[] newY;
+    private int[] bucketStart;
+    private int[] bucketAgents;
+    private double[] bucketX;
+    private double[] bucketY;
+    /**
+     * Constructs an empty crowd.
+     *
+     * @param radius radius of every agent
+     * @param neighborDistance agents further apart than this are ignored
+     * @param maxNeighbors most neighbors each agent avoids
+     * @param timeHorizon number of moves ahead collisions are avoided for
+     * @throws IllegalArgumentException radius < 0, neighborDistance <= 0, maxNeighbors < 1 or
+     * timeHorizon <= 0
+    */
+    public Crowd(double radius, double neighborDistance, int maxNeighbors, double timeHorizon){
+        if(!(radius >= 0) || !(neighborDistance > 0) || maxNeighbors < 1 || !(timeHorizon > 0)){
+            throw new IllegalArgumentException("Invalid crowd parameters!");
+        }
+        this.radius = radius;
+        this.neighborDistance = neighborDistance;
+        this.maxNeighbors = maxNeighbors;
+        this.timeHorizon = timeHorizon;
+        members = new ArrayList<>();
+        solvers = ThreadLocal.withInitial(() -> new Solver(maxNeighbors));
+        resize(0);
+    }
+    /**
+     * Add 'agent' to the crowd.
+     *
+     * @param agent agent to add
+     * @spec.requires agent != null, agent is not in the crowd
+     * @spec.modifies this
+    */
+    public void add(SuperAgent agent){
+        members.add(agent);
+    }
+    /**
+     * Remove 'agent' from the crowd.
+     *
+     * @param agent agent to remove
+     * @spec.modifies this
+     * @return true iff 'agent' was in the crowd
+    */
+    public boolean remove(SuperAgent agent){
+        return members.remove(agent);
+    }
+    /**
+     * Returns the number of agents in the crowd.
+     *
+     * @return number of agents
+    */
+    public int size(){
+        return members.size();
+    }
+    /**
+     * Move every agent once. Each agent follows its path as SuperAgent.move does but its velocity
+     * is first adjusted to avoid the others.
+     *
+     * @spec.modifies this and every agent in it
+    */
+    public void move() throws ExecutionException{
+        int n = members.size();
+        if(x.length < n){
+            resize(n);
+        }
+        for(int i = 0; i != n; i++){
+            SuperAgent member = members.get(i);
+            Agent body = member.agent;
+            boolean aiming = member.target();
+            x[i] = body.x();
+            y[i] = body.y();
+            double stride = body.stride();
+            double vx = body.velocityX();
+            double vy = body.velocityY();
+            velocityX[i] = stride*vx;
+            velocityY[i] = stride*vy;
+            // The velocity aimAt would give
+            if(aiming){
+                double dx = member.path.targetX()-x[i];
+                double dy = member.path.targetY()-y[i];
+                double length = Math.sqrt(dx*dx+dy*dy);
+                if(length != 0){
+                    vx += dx/length;
+                    vy += dy/length;
+                }
+            }
+            preferredX[i] = stride*vx;
+            preferredY[i] = stride*vy;
+            maxSpeed[i] = Math.max(Math.hypot(preferredX[i], preferredY[i]), body.speed());
+        }
+        hash(n);
+        IntStream chunks = IntStream.range(0, (n+CHUNK-1)/CHUNK);
+        if(n > CHUNK){
+            chunks = chunks.parallel();
+        }
+        chunks.forEach(chunk -> {
+            Solver solver = solvers.get();
+            for(int i = chunk*CHUNK; i != Math.min(n, chunk*CHUNK+CHUNK); i++){
+                solve(i, solver);
+            }
+        });
+        for(int i = 0; i != n; i++){
+            SuperAgent member = members.get(i);
+            double stride = member.agent.stride();
+            if(stride != 0){
+                member.agent.setVelocity(newX[i]/stride, newY[i]/stride);
+            }
+            member.agent.move();
+            member.arrive();
+        }
+    }
+    private void resize(int n){
+        int size = Math.max(16, n);
+        x = new double[size];
+        y = new double[size];
+        velocityX = new double[size];
+        velocityY = new double[size];
+        preferredX = new double[size];
+        preferredY = new double[size];
+        maxSpeed = new double[size];
+        newX = new double[size];
+        newY = new double[size];
+        bucketAgents = new int[size];
+        bucketX = new double[size];
+        bucketY = new double[size];
+        // Power of two with at least two buckets per agent
+        bucketStart = new int[Integer.highestOneBit(size*2-1)*2+1];
+    }
+    /**
+     * Counting sort the first 'n' agents into hash buckets by the cell of size neighborDistance
+     * they are in.
+    */
+    private void hash(int n){
+        int buckets = bucketStart.length-1;
+        Arrays.fill(bucketStart, 0);
+        for(int i = 0; i != n; i++){
+            bucketStart[bucket(cell(x[i]), cell(y[i]))+1]++;
+        }
+        for(int b = 0; b != buckets; b++){
+            bucketStart[b+1] += bucketStart[b];
+        }
+        int[] fill = new int[buckets];
+        for(int i = 0; i != n; i++){
+            int b = bucket(cell(x[i]), cell(y[i]));
+            int at = bucketStart[b]+fill[b]++;
+            bucketAgents[at] = i;
+            // Positions in bucket order so a bucket is scanned from contiguous memory
+            bucketX[at] = x[i];
+            bucketY[at] = y[i];
+        }
+    }
+    private long cell(double value){
+        return (long) Math.floor(value/neighborDistance);
+    }
+    private int bucket(long cellX, long cellY){
+        long h = cellX*0x9E3779B97F4A7C15L+cellY*0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return (int) (h & (bucketStart.length-2));
+    }
+    /**
+     * Solve the new velocity of agent 'i' into newX[i], newY[i].
+    */
+    private void solve(int i, Solver solver){
+        int count = neighbors(i, solver);
+        double invHorizon = 1/timeHorizon;
+        double combined = 2*radius;
+        double combinedSq = combined*combined;
+        for(int k = 0; k != count; k++){
+            int j = solver.neighbor[k];
+            double relX = x[j]-x[i];
+            double relY = y[j]-y[i];
+            double relVX = velocityX[i]-velocityX[j];
+            double relVY = velocityY[i]-velocityY[j];
+            double distSq = relX*relX+relY*relY;
+            double dirX;
+            double dirY;
+            double uX;
+            double uY;
+            if(distSq > combinedSq){
+                // Velocity obstacle is a cone cut off by a circle at the time horizon
+                double wX = relVX-invHorizon*relX;
+                double wY = relVY-invHorizon*relY;
+                double wLengthSq = wX*wX+wY*wY;
+                double dot = wX*relX+wY*relY;
+                if(dot < 0 && dot*dot > combinedSq*wLengthSq){
+                    double wLength = Math.sqrt(wLengthSq);
+                    double unitX = wX/wLength;
+                    double unitY = wY/wLength;
+                    dirX = unitY;
+                    dirY = -unitX;
+                    uX = (combined*invHorizon-wLength)*unitX;
+                    uY = (combined*invHorizon-wLength)*unitY;
+                }else{
+                    double leg = Math.sqrt(distSq-combinedSq);
+                    if(relX*wY-relY*wX > 0){
+                        dirX = (relX*leg-relY*combined)/distSq;
+                        dirY = (relX*combined+relY*leg)/distSq;
+                    }else{
+                        dirX = -(relX*leg+relY*combined)/distSq;
+                        dirY = -(-relX*combined+relY*leg)/distSq;
+                    }
+                    double along = relVX*dirX+relVY*dirY;
+                    uX = along*dirX-relVX;
+                    uY = along*dirY-relVY;
+                }
+            }else{
+                // Already touching: get apart within one move
+                double wX = relVX-relX;
+                double wY = relVY-relY;
+                double wLength = Math.sqrt(wX*wX+wY*wY);
+                double unitX = wLength == 0 ? 1 : wX/wLength;
+                double unitY = wLength == 0 ? 0 : wY/wLength;
+                dirX = unitY;
+                dirY = -unitX;
+                uX = (combined-wLength)*unitX;
+                uY = (combined-wLength)*unitY;
+            }
+            // Each agent takes half the responsibility
+            solver.pointX[k] = velocityX[i]+0.5*uX;
+            solver.pointY[k] = velocityY[i]+0.5*uY;
+            solver.dirX[k] = dirX;
+            solver.dirY[k] = dirY;
+        }
+        double[] result = solver.result;
+        int failed = program2(solver.pointX, solver.pointY, solver.dirX, solver.dirY, count, maxSpeed[i],
+         preferredX[i], preferredY[i], false, result);
+        if(failed < count){
+            program3(solver, count, failed, maxSpeed[i], result);
+        }
+        newX[i] = result[0];
+        newY[i] = result[1];
+    }
+    /**
+     * Find the nearest neighbors of agent 'i' into solver.neighbor.
+     *
+     * @return number of neighbors found
+    */
+    private int neighbors(int i, Solver solver){
+        long cellX = cell(x[i]);
+        long cellY = cell(y[i]);
+        double ownX = x[i];
+        double ownY = y[i];
+        double rangeSq = neighborDistance*neighborDistance;
+        int count = 0;
+        int[] seen = solver.buckets;
+        int visited = 0;
+        for(long cy = cellY-1; cy <= cellY+1; cy++){
+            for(long cx = cellX-1; cx <= cellX+1; cx++){
+                int b = bucket(cx, cy);
+                // Two cells may share a bucket
+                boolean again = false;
+                for(int v = 0; v != visited; v++){
+                    again |= seen[v] == b;
+                }
+                if(again){
+                    continue;
+                }
+                seen[visited++] = b;
+                for(int k = bucketStart[b]; k != bucketStart[b+1]; k++){
+                    double dx = bucketX[k]-ownX;
+                    double dy = bucketY[k]-ownY;
+                    double distSq = dx*dx+dy*dy;
+                    int j = bucketAgents[k];
+                    if(distSq >= rangeSq || j == i){
+                        continue;
+                    }
+                    if(count == maxNeighbors && distSq >= solver.distance[count-1]){
+                        continue;
+                    }
+                    // Insert keeping the closest first
+                    int at = count == maxNeighbors ? count-1 : count++;
+                    while(at > 0 && solver.distance[at-1] > distSq){
+                        solver.distance[at] = solver.distance[at-1];
+                        solver.neighbor[at] = solver.neighbor[at-1];
+                        at--;
+                    }
+                    solver.distance[at] = distSq;
+                    solver.neighbor[at] = j;
+                }
+            }
+        }
+        return count;
+    }
+    /**
+     * Best velocity on line 'line' within 'speed' that satisfies lines 0 to line-1.
+     *
+     * @return false iff there is none
+    */
+    private static boolean program1(double[] px, double[] py, double[] dx, double[] dy, int line,
+     double speed, double optX, double optY, boolean directionOpt, double[] result){
+        double dot = px[line]*dx[line]+py[line]*dy[line];
+        double discriminant = dot*dot+speed*speed-(px[line]*px[line]+py[line]*py[line]);
+        if(discriminant < 0){
+            return false;
+        }
+        double root = Math.sqrt(discriminant);
+        double left = -dot-root;
+        double right = -dot+root;
+        for(int i = 0; i != line; i++){
+            double denominator = dx[line]*dy[i]-dy[line]*dx[i];
+            double numerator = dx[i]*(py[line]-py[i])-dy[i]*(px[line]-px[i]);
+            if(Math.abs(denominator) <= EPSILON){
+                if(numerator < 0){
+                    return false;
+                }
+                continue;
+            }
+            double t = numerator/denominator;
+            if(denominator >= 0){
+                right = Math.min(right, t);
+            }else{
+                left = Math.max(left, t);
+            }
+            if(left > right){
+                return false;
+            }
+        }
+        double t;
+        if(directionOpt){
+            t = optX*dx[line]+optY*dy[line] > 0 ? right : left;
+        }else{
+            t = dx[line]*(optX-px[line])+dy[line]*(optY-py[line]);
+            t = Math.max(left, Math.min(right, t));
+        }
+        result[0] = px[line]+t*dx[line];
+        result[1] = py[line]+t*dy[line];
+        return true;
+    }
+    /**
+     * Velocity within 'speed' closest to the optimum that satisfies every line.
+     *
+     * @return number of lines satisfied before one could not be, 'count' if all were
+    */
+    private static int program2(double[] px, double[] py, double[] dx, double[] dy, int count,
+     double speed, double optX, double optY, boolean directionOpt, double[] result){
+        double lengthSq = optX*optX+optY*optY;
+        if(directionOpt){
+            result[0] = optX*speed;
+            result[1] = optY*speed;
+        }else if(lengthSq > speed*speed){
+            double length = Math.sqrt(lengthSq);
+            result[0] = optX/length*speed;
+            result[1] = optY/length*speed;
+        }else{
+            result[0] = optX;
+            result[1] = optY;
+        }
+        for(int i = 0; i != count; i++){
+            if(dx[i]*(py[i]-result[1])-dy[i]*(px[i]-result[0]) > 0){
+                double keepX = result[0];
+                double keepY = result[1];
+                if(!program1(px, py, dx, dy, i, speed, optX, optY, directionOpt, result)){
+                    result[0] = keepX;
+                    result[1] = keepY;
+                    return i;
+                }
+            }
+        }
+        return count;
+    }
+    /**
+     * When the lines cannot all be met, the velocity that breaks them by the least.
+    */
+    private static void program3(Solver solver, int count, int begin, double speed, double[] result){
+        double distance = 0;
+        double[] px = solver.pointX;
+        double[] py = solver.pointY;
+        double[] dx = solver.dirX;
+        double[] dy = solver.dirY;
+        for(int i = begin; i != count; i++){
+            if(dx[i]*(py[i]-result[1])-dy[i]*(px[i]-result[0]) <= distance){
+                continue;
+            }
+            int projected = 0;
+            for(int j = 0; j != i; j++){
+                double determinant = dx[i]*dy[j]-dy[i]*dx[j];
+                double pointX;
+                double pointY;
+                if(Math.abs(determinant) <= EPSILON){
+                    if(dx[i]*dx[j]+dy[i]*dy[j] > 0){
+                        continue;
+                    }
+                    pointX = 0.5*(px[i]+px[j]);
+                    pointY = 0.5*(py[i]+py[j]);
+                }else{
+                    double t = (dx[j]*(py[i]-py[j])-dy[j]*(px[i]-px[j]))/determinant;
+                    pointX = px[i]+t*dx[i];
+                    pointY = py[i]+t*dy[i];
+                }
+                double dirX = dx[j]-dx[i];
+                double dirY = dy[j]-dy[i];
+                double length = Math.sqrt(dirX*dirX+dirY*dirY);
+                solver.projPointX[projected] = pointX;
+                solver.projPointY[projected] = pointY;
+                solver.projDirX[projected] = dirX/length;
+                solver.projDirY[projected] = dirY/length;
+                projected++;
+            }
+            double keepX = result[0];
+            double keepY = result[1];
+            if(program2(solver.projPointX, solver.projPointY, solver.projDirX, solver.projDirY, projected,
+             speed, -dy[i], dx[i], true, result) < projected){
+                // Only rounding can get here, keep the last answer
+                result[0] = keepX;
+                result[1] = keepY;
+            }
+            distance = dx[i]*(py[i]-result[1])-dy[i]*(px[i]-result[0]);
+        }
+    }
+    /**
+     * Per thread scratch space for one agent's solve.
+    */
+    private static class Solver{
+        final int[] neighbor;
+        final double[] distance;
+        final int[] buckets = new int[9];
+        final double[] pointX;
+        final double[] pointY;
+        final double[] dirX;
+        final double[] dirY;
+        final double[] projPointX;
+        final double[] projPointY;
+        final double[] projDirX;
+        final double[] projDirY;
+        final double[] result = new double[2];
+        Solver(int size){
+            neighbor = new int[size];
+            distance = new double[size];
+            pointX = new double[size];
+            pointY = new double[size];
+            dirX = new double[size];
+            dirY = new double[size];
+            projPointX = new double[size];
+            projPointY = new double[size];
+            projDirX = new double[size];
+            projDirY = new double[size];
+        }
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A DistanceTable is an immutable snapshot of the quickest distances between every two nodes of a
+ * TwoWayGraph and the first node to go to on each of those paths. Distances are kept in a float[]
+ * and next nodes in an int[], n*n of each, so it is meant for small graphs that do not change.
+ * It is built with one Dijkstra search per node, run in parallel. Paths are read back by following
+ * next nodes, so a path costs its length and a distance costs one lookup.
+*/
+public class DistanceTable{
+    static final int MAGIC = 0x44495354;
+    static final byte VERSION = 1;
+    /** Most entries an array can hold, so at most 46340 nodes. */
+    private static final long MAX_ENTRIES = Integer.MAX_VALUE-8;
+    private final ArrayList<Double>[] nodes;
+    private final Map<ArrayList<Double>, Integer> index;
+    private final float[] distance;
+    private final int[] next;
+    private final long edges;
+    private final int version;
+    /**
+     * Build the table of 'graph' as it is now. In lazy mode every edge is checked.
+     *
+     * @param graph graph to snapshot
+     * @spec.requires caller holds the graph's query lock
+     * @throws IllegalArgumentException !fits(number of nodes)
+    */
+    DistanceTable(TwoWayGraph graph){
+        GraphIndex snapshot = graph.index();
+        int n = snapshot.nodes.length;
+        if(!fits(n)){
+            throw new IllegalArgumentException("Too many nodes for a distance table: "+n);
+        }
+        version = snapshot.version;
+        nodes = snapshot.nodes;
+        index = index(nodes);
+        int[] offsets = new int[n+1];
+        int[] target = clearEdges(graph, snapshot, offsets);
+        double[] weight = new double[target.length];
+        for(int i = 0; i != n; i++){
+            for(int k = offsets[i]; k != offsets[i+1]; k++){
+                weight[k] = length(nodes[i], nodes[target[k]]);
+            }
+        }
+        edges = fingerprint(offsets, target);
+        distance = new float[n*n];
+        next = new int[n*n];
+        ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(n));
+        IntStream.range(0, n).parallel().forEach(source -> searches.get().run(source, offsets, target,
+         weight, distance, next));
+    }
+    private DistanceTable(ArrayList<Double>[] nodes, float[] distance, int[] next, long edges, int version){
+        this.nodes = nodes;
+        this.index = index(nodes);
+        this.distance = distance;
+        this.next = next;
+        this.edges = edges;
+        this.version = version;
+    }
+    /**
+     * Indicate if a table of 'n' nodes fits in arrays.
+     *
+     * @param n number of nodes
+     * @return true iff n*n entries fit in an array
+    */
+    static boolean fits(int n){
+        return n >= 0 && (long) n*n <= MAX_ENTRIES;
+    }
+    /**
+     * Returns the number of nodes in the table.
+     *
+     * @return number of nodes
+    */
+    public int size(){
+        return nodes.length;
+    }
+    /**
+     * Indicate if 'node' is in the table.
+     *
+     * @param node node to look for
+     * @spec.requires node != null
+     * @return true iff 'node' was in the graph when the table was built
+    */
+    public boolean contains(ArrayList<Double> node){
+        return index.containsKey(node);
+    }
+    /**
+     * Returns the length of the quickest path from 'start' to 'end'.
+     *
+     * @param start node to start at
+     * @param end node to end at
+     * @throws IllegalArgumentException start or end are not in the table
+     * @return length of the quickest path rounded to float, Double.POSITIVE_INFINITY if none exists
+    */
+    public double distance(ArrayList<Double> start, ArrayList<Double> end){
+        return distance[find(start)*nodes.length+find(end)];
+    }
+    /**
+     * Returns the quickest path from 'start' to 'end'.
+     *
+     * @param start node to start at
+     * @param end node to end at
+     * @throws IllegalArgumentException start or end are not in the table
+     * @return quickest path from 'start' to 'end' as the graph's nodes, null if start equals end or
+     * no path exists
+    */
+    public ArrayList<ArrayList<Double>> path(ArrayList<Double> start, ArrayList<Double> end){
+        int from = find(start);
+        int to = find(end);
+        int n = nodes.length;
+        if(from == to || next[from*n+to] < 0){
+            return null;
+        }
+        ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+        goal.add(nodes[from]);
+        for(int place = from; place != to; ){
+            place = next[place*n+to];
+            goal.add(nodes[place]);
+        }
+        return goal;
+    }
+    /**
+     * Write the table to 'out'.
+     *
+     * @param out stream to write to
+     * @spec.requires out != null
+     * @throws IOException the table could not be written
+    */
+    public void write(OutputStream out) throws IOException{
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(nodes.length);
+        data.writeLong(edges);
+        for(ArrayList<Double> node: nodes){
+            data.writeDouble(node.get(0));
+            data.writeDouble(node.get(1));
+        }
+        for(float value: distance){
+            data.writeFloat(value);
+        }
+        for(int value: next){
+            data.writeInt(value);
+        }
+        data.flush();
+    }
+    /**
+     * Read a table written by write. It can be used by any TwoWayGraph with the same nodes and edges.
+     *
+     * @param in stream holding the table
+     * @spec.requires in != null
+     * @throws IOException the table could not be read or is not a table
+     * @return the table read
+    */
+    public static DistanceTable read(InputStream in) throws IOException{
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if(data.readInt() != MAGIC){
+            throw new IOException("Not a distance table");
+        }
+        if(data.readByte() != VERSION){
+            throw new IOException("Unknown distance table version");
+        }
+        int n = data.readInt();
+        if(!fits(n)){
+            throw new IOException("Malformed distance table");
+        }
+        long edges = data.readLong();
+        @SuppressWarnings("unchecked")
+        ArrayList<Double>[] nodes = (ArrayList<Double>[]) new ArrayList<?>[n];
+        for(int i = 0; i != n; i++){
+            nodes[i] = point(data.readDouble(), data.readDouble());
+        }
+        float[] distance = new float[n*n];
+        for(int i = 0; i != distance.length; i++){
+            distance[i] = data.readFloat();
+        }
+        int[] next = new int[n*n];
+        for(int i = 0; i != next.length; i++){
+            next[i] = data.readInt();
+            if(next[i] < -1 || next[i] >= n){
+                throw new IOException("Malformed distance table");
+            }
+        }
+        return new DistanceTable(nodes, distance, next, edges, -1);
+    }
+    /**
+     * Returns the graph version the table was built or bound at.
+     *
+     * @return graph version of the table
+    */
+    int version(){
+        return version;
+    }
+    /**
+     * Indicate if the table has the same nodes and edges as 'graph' as it is now.
+     *
+     * @param graph graph to compare with
+     * @spec.requires caller holds the graph's query lock
+     * @return true iff the table describes 'graph'
+    */
+    boolean matches(TwoWayGraph graph){
+        GraphIndex snapshot = graph.index();
+        if(!Arrays.equals(snapshot.nodes, nodes)){
+            return false;
+        }
+        int[] offsets = new int[nodes.length+1];
+        return fingerprint(offsets, clearEdges(graph, snapshot, offsets)) == edges;
+    }
+    /**
+     * Returns this table for 'version' of the graph. The arrays are shared.
+     *
+     * @param version graph version
+     * @return table bound to 'version'
+    */
+    DistanceTable bind(int version){
+        return new DistanceTable(nodes, distance, next, edges, version);
+    }
+    private int find(ArrayList<Double> node){
+        Integer known = index.get(node);
+        if(known == null){
+            throw new IllegalArgumentException("Nodes not present in table!");
+        }
+        return known;
+    }
+    /**
+     * Edges of 'snapshot' that are clear, checking them in lazy mode. Nodes are ordered by x then y,
+     * so a table does not depend on hash order.
+     *
+     * @spec.modifies offsets
+     * @return targets of the clear edges, node i's from offsets[i] to offsets[i+1]-1
+    */
+    private static int[] clearEdges(TwoWayGraph graph, GraphIndex snapshot, int[] offsets){
+        int[] target = new int[snapshot.targets.length];
+        int count = 0;
+        for(int i = 0; i != snapshot.size(); i++){
+            for(int k = snapshot.offsets[i]; k != snapshot.offsets[i+1]; k++){
+                if(graph.edgeClear(snapshot.nodes[i], snapshot.nodes[snapshot.targets[k]])){
+                    target[count++] = snapshot.targets[k];
+                }
+            }
+            offsets[i+1] = count;
+        }
+        return Arrays.copyOf(target, count);
+    }
+    private static Map<ArrayList<Double>, Integer> index(ArrayList<Double>[] nodes){
+        Map<ArrayList<Double>, Integer> index = new HashMap<>();
+        for(int i = 0; i != nodes.length; i++){
+            index.put(nodes[i], i);
+        }
+        return index;
+    }
+    /**
+     * Hash of the edges, order independent within each node's children.
+    */
+    private static long fingerprint(int[] offsets, int[] target){
+        long hash = offsets.length;
+        for(int i = 0; i+1 < offsets.length; i++){
+            long children = 0;
+            for(int k = offsets[i]; k != offsets[i+1]; k++){
+                long h = (i*31L+target[k])*0x9E3779B97F4A7C15L;
+                children += h ^ (h >>> 29);
+            }
+            hash = hash*1000003+children;
+        }
+        return hash;
+    }
+    private static double length(ArrayList<Double> a, ArrayList<Double> b){
+        double x = a.get(0)-b.get(0);
+        double y = a.get(1)-b.get(1);
+        return Math.sqrt(x*x+y*y);
+    }
+    private static ArrayList<Double> point(double x, double y){
+        ArrayList<Double> point = new ArrayList<>();
+        point.add(x);
+        point.add(y);
+        return point;
+    }
+    /**
+     * Per thread Dijkstra state.
+    */
+    private static class Search{
+        final NodeHeap heap;
+        final double[] length;
+        final int[] first;
+        final boolean[] settled;
+        Search(int n){
+            heap = new NodeHeap(n);
+            length = new double[n];
+            first = new int[n];
+            settled = new boolean[n];
+        }
+        /**
+         * Fill row 'source' of 'distance' and 'next'. The first node of the path to each node is
+         * handed down from its parent as nodes are settled.
+        */
+        void run(int source, int[] offsets, int[] target, double[] weight, float[] distance, int[] next){
+            int n = length.length;
+            heap.clear();
+            Arrays.fill(length, Double.POSITIVE_INFINITY);
+            Arrays.fill(first, -1);
+            Arrays.fill(settled, false);
+            length[source] = 0;
+            heap.push(source, 0);
+            while(!heap.isEmpty()){
+                int node = heap.pop();
+                settled[node] = true;
+                for(int k = offsets[node]; k != offsets[node+1]; k++){
+                    int child = target[k];
+                    double through = length[node]+weight[k];
+                    if(!settled[child] && through < length[child]){
+                        length[child] = through;
+                        first[child] = node == source ? child : first[node];
+                        heap.push(child, through);
+                    }
+                }
+            }
+            for(int i = 0; i != n; i++){
+                distance[source*n+i] = (float) length[i];
+                next[source*n+i] = first[i];
+            }
+        }
+    }
+}
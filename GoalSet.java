@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A GoalSet is an immutable set of goal points registered with one TwoWayGraph, so one search can
+ * find the nearest of them instead of one search per goal. The edges that link goals outside the
+ * graph to its nodes are found on first use and kept until nodes are added or removed, so a set
+ * reused for many queries is linked once.
+*/
+public class GoalSet{
+    private final TwoWayGraph graph;
+    private final Set<ArrayList<Double>> goals;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private volatile Links links;
+    /**
+     * Constructs a set of 'goals' for searches through 'graph'.
+     *
+     * @param graph graph the goals are searched in
+     * @param goals goal points, repeats are kept once
+     * @spec.requires no null values
+     * @throws IllegalArgumentException goals is empty or a goal is not 2d
+    */
+    GoalSet(TwoWayGraph graph, Collection<ArrayList<Double>> goals){
+        if(goals.isEmpty()){
+            throw new IllegalArgumentException("Must have one or more goals");
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(ArrayList<Double> goal: goals){
+            if(goal.size() != 2){
+                throw new IllegalArgumentException("All coordinates must be 2d.");
+            }
+            minX = Math.min(minX, goal.get(0));
+            minY = Math.min(minY, goal.get(1));
+            maxX = Math.max(maxX, goal.get(0));
+            maxY = Math.max(maxY, goal.get(1));
+        }
+        this.graph = graph;
+        this.goals = Collections.unmodifiableSet(new LinkedHashSet<>(goals));
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+    /**
+     * Returns the number of goals.
+     *
+     * @return number of goals
+    */
+    public int size(){
+        return goals.size();
+    }
+    /**
+     * Returns the goals.
+     *
+     * @return unmodifiable view of the goals in the order given
+    */
+    public Set<ArrayList<Double>> goals(){
+        return goals;
+    }
+    /**
+     * Indicate if 'point' is a goal.
+     *
+     * @param point point to look for
+     * @spec.requires point != null
+     * @return true iff 'point' is one of the goals
+    */
+    public boolean contains(ArrayList<Double> point){
+        return goals.contains(point);
+    }
+    /**
+     * Returns the graph the goals are registered with.
+     *
+     * @return graph of this set
+    */
+    TwoWayGraph graph(){
+        return graph;
+    }
+    /**
+     * Lower bound of the straight line distance from 'point' to the nearest goal: the distance to
+     * the box around all goals. Exact when there is one goal.
+     *
+     * @param point point to measure from
+     * @spec.requires point != null, point.size() == 2
+     * @return distance from 'point' to the box around the goals
+    */
+    double distance(ArrayList<Double> point){
+        double x = Math.max(0, Math.max(minX-point.get(0), point.get(0)-maxX));
+        double y = Math.max(0, Math.max(minY-point.get(1), point.get(1)-maxY));
+        return Math.sqrt(x*x+y*y);
+    }
+    /**
+     * Returns the goals outside the graph each node has an edge to, for the graph as it is now.
+     *
+     * @spec.requires caller holds the graph's query lock
+     * @return goals reachable from each node by one edge. Must not be modified.
+    */
+    Map<ArrayList<Double>, ArrayList<ArrayList<Double>>> into(){
+        return current().into;
+    }
+    /**
+     * Returns the goals that are not nodes of the graph as it is now.
+     *
+     * @spec.requires caller holds the graph's query lock
+     * @return goals outside the graph. Must not be modified.
+    */
+    ArrayList<ArrayList<Double>> outside(){
+        return current().outside;
+    }
+    /**
+     * Link the goals into the graph unless they were linked at the graph's current version.
+     * Threads racing here link the same way, so the last one to finish is kept.
+    */
+    private Links current(){
+        Links known = links;
+        int version = graph.version();
+        if(known != null && known.version == version){
+            return known;
+        }
+        Map<ArrayList<Double>, ArrayList<ArrayList<Double>>> into = new HashMap<>();
+        ArrayList<ArrayList<Double>> outside = new ArrayList<>();
+        for(ArrayList<Double> goal: goals){
+            Set<ArrayList<Double>> near = graph.links(goal);
+            if(near == null){
+                continue;
+            }
+            outside.add(goal);
+            for(ArrayList<Double> node: near){
+                into.computeIfAbsent(node, key -> new ArrayList<>()).add(goal);
+            }
+        }
+        known = new Links(version, into, outside);
+        links = known;
+        return known;
+    }
+    /**
+     * Edges linking the goals into one version of the graph.
+    */
+    private static class Links{
+        final int version;
+        final Map<ArrayList<Double>, ArrayList<ArrayList<Double>>> into;
+        final ArrayList<ArrayList<Double>> outside;
+        Links(int version, Map<ArrayList<Double>, ArrayList<ArrayList<Double>>> into,
+         ArrayList<ArrayList<Double>> outside){
+            this.version = version;
+            this.into = into;
+            this.outside = outside;
+        }
+    }
+    /**
+     * The goal a search chose and the quickest path to it.
+    */
+    public static class Match{
+        private final ArrayList<Double> goal;
+        private final ArrayList<ArrayList<Double>> path;
+        private final double length;
+        Match(ArrayList<Double> goal, ArrayList<ArrayList<Double>> path){
+            this.goal = goal;
+            this.path = path;
+            double length = 0;
+            for(int i = 1; i < path.size(); i++){
+                double x = path.get(i).get(0)-path.get(i-1).get(0);
+                double y = path.get(i).get(1)-path.get(i-1).get(1);
+                length += Math.sqrt(x*x+y*y);
+            }
+            this.length = length;
+        }
+        /**
+         * Returns the nearest goal.
+         *
+         * @return goal the path ends at
+        */
+        public ArrayList<Double> goal(){
+            return goal;
+        }
+        /**
+         * Returns the quickest path to the goal.
+         *
+         * @return path from the start to goal(), just the start if it is a goal
+        */
+        public ArrayList<ArrayList<Double>> path(){
+            return path;
+        }
+        /**
+         * Returns the length of the path.
+         *
+         * @return length of path()
+        */
+        public double length(){
+            return length;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A GraphIndex is an immutable snapshot of one version of a TwoWayGraph for searches that keep
+ * their state in arrays. Nodes are numbered 0 to n-1 in order of x then y, their coordinates are
+ * kept in double[] and edges as int[] offsets and targets with double[] lengths. In lazy mode the
+ * edges are the unchecked candidate edges. With a 'nearest' limit it also works out, on first
+ * use, how far a new point may be from a node and still count among its nearest nodes.
+*/
+class GraphIndex{
+    final int version;
+    final ArrayList<Double>[] nodes;
+    final double[] x;
+    final double[] y;
+    final int[] offsets;
+    final int[] targets;
+    final double[] weights;
+    private final int nearest;
+    private final double[] reach;
+    private final Map<ArrayList<Double>, Integer> index;
+    /**
+     * Snapshot 'graph' as it is now.
+     *
+     * @param graph graph to snapshot
+     * @spec.requires caller holds the graph's query lock
+    */
+    @SuppressWarnings("unchecked")
+    GraphIndex(TwoWayGraph graph){
+        version = graph.version();
+        nodes = (ArrayList<Double>[]) graph.nodes().toArray(new ArrayList<?>[0]);
+        Arrays.sort(nodes, (a, b) -> a.get(0).equals(b.get(0)) ? Double.compare(a.get(1), b.get(1))
+         : Double.compare(a.get(0), b.get(0)));
+        int n = nodes.length;
+        index = new HashMap<>();
+        x = new double[n];
+        y = new double[n];
+        offsets = new int[n+1];
+        for(int i = 0; i != n; i++){
+            index.put(nodes[i], i);
+            x[i] = nodes[i].get(0);
+            y[i] = nodes[i].get(1);
+            offsets[i+1] = offsets[i]+graph.edges(nodes[i]).size();
+        }
+        targets = new int[offsets[n]];
+        weights = new double[offsets[n]];
+        for(int i = 0; i != n; i++){
+            int k = offsets[i];
+            for(ArrayList<Double> child: graph.edges(nodes[i])){
+                int j = index.get(child);
+                targets[k] = j;
+                weights[k] = Math.sqrt((x[i]-x[j])*(x[i]-x[j])+(y[i]-y[j])*(y[i]-y[j]));
+                k++;
+            }
+        }
+        nearest = graph.nearest();
+        reach = new double[n];
+        Arrays.fill(reach, Double.NaN);
+    }
+    /**
+     * Returns the distance from node 'i' to its 'nearest'-th closest other node, or infinity if it
+     * has fewer others or there is no limit. A new point at most that far away is among the node's
+     * 'nearest' nodes. Worked out for each node on first use, threads that race work out the same.
+     *
+     * @param i number of the node
+     * @return reach of node 'i'
+    */
+    double reach(int i){
+        double known = reach[i];
+        if(Double.isNaN(known)){
+            known = Double.POSITIVE_INFINITY;
+            if(nearest != 0 && nearest < nodes.length){
+                double[] closest = closest();
+                for(int j = 0; j != nodes.length; j++){
+                    if(j != i){
+                        keep(closest, distance(nodes[i], j));
+                    }
+                }
+                known = closest[nearest-1];
+            }
+            reach[i] = known;
+        }
+        return known;
+    }
+    /**
+     * Returns the distance from 'point' to its 'nearest'-th closest node, or infinity if the graph
+     * has fewer nodes or there is no limit. A node at most that far away is among the point's
+     * 'nearest' nodes.
+     *
+     * @param point point outside the graph
+     * @return reach of 'point'
+    */
+    double reach(ArrayList<Double> point){
+        if(nearest == 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        double[] closest = closest();
+        for(int i = 0; i != nodes.length; i++){
+            keep(closest, distance(point, i));
+        }
+        return closest[nearest-1];
+    }
+    /**
+     * Returns room for the 'nearest' shortest distances from one point, none found yet.
+     *
+     * @spec.requires the graph limits edges to its 'nearest' nodes
+     * @return 'nearest' infinities
+    */
+    double[] closest(){
+        double[] closest = new double[nearest];
+        Arrays.fill(closest, Double.POSITIVE_INFINITY);
+        return closest;
+    }
+    /**
+     * Adds 'distance' to the shortest distances in 'closest' if it is short enough.
+     *
+     * @param closest shortest distances so far, in order
+     * @param distance distance to one more node
+     * @spec.modifies closest
+    */
+    static void keep(double[] closest, double distance){
+        int k = closest.length-1;
+        if(distance >= closest[k]){
+            return;
+        }
+        for(; k != 0 && closest[k-1] > distance; k--){
+            closest[k] = closest[k-1];
+        }
+        closest[k] = distance;
+    }
+    /**
+     * Returns the distance from 'point' to node 'i'.
+     *
+     * @param point point to measure from
+     * @param i number of the node
+     * @return straight line distance
+    */
+    double distance(ArrayList<Double> point, int i){
+        double dx = point.get(0)-x[i];
+        double dy = point.get(1)-y[i];
+        return Math.sqrt(dx*dx+dy*dy);
+    }
+    /**
+     * Returns the number of nodes.
+     *
+     * @return number of nodes
+    */
+    int size(){
+        return nodes.length;
+    }
+    /**
+     * Returns the number of 'node'.
+     *
+     * @param node node to look for
+     * @return number of 'node', or -1 if it is not in the graph
+    */
+    int find(ArrayList<Double> node){
+        Integer known = index.get(node);
+        return known == null ? -1 : known;
+    }
+}
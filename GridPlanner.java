@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+/**
+ * GridPlanner is an immutable PathEngine for maps with many short walls. Walls are rasterized into
+ * an occupancy grid kept as a bitset and paths are found with Theta*, so paths may turn at any angle.
+ * Memory and build time depend on the area and cell size, not on the number of walls or nodes.
+ * Every cell a wall touches is blocked so gaps narrower than a cell may be closed.
+*/
+public class GridPlanner implements PathEngine{
+    private static final int[] STEP_X = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] STEP_Y = {0, 0, 1, -1, 1, -1, 1, -1};
+    private final ObstacleCourse obstacles;
+    private final BitSet blocked;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final double pad;
+    private final int columns;
+    private final int rows;
+    private final ThreadLocal<Workspace> workspaces;
+    /**
+     * Construct a grid covering 'minX' to 'maxX' and 'minY' to 'maxY'.
+     *
+     * @param lines the coordinates of the walls. Coordinates come in pairs for each LineSegment.
+     * @param minX smallest x coordinate
+     * @param minY smallest y coordinate
+     * @param maxX largest x coordinate
+     * @param maxY largest y coordinate
+     * @param cellSize width and height of each cell
+     * @throws IllegalArgumentException lines.size()%2 == 1, cellSize <= 0 or the area is empty
+     * @spec.requires no null values and Coordinates have length 2
+    */
+    public GridPlanner(ArrayList<ArrayList<Double>> lines, double minX, double minY, double maxX,
+     double maxY, double cellSize){
+        if(lines.size()%2 != 0){
+            throw new IllegalArgumentException("Odd number of coordinates input");
+        }
+        if(!(cellSize > 0) || !(maxX > minX) || !(maxY > minY)){
+            throw new IllegalArgumentException("Grid must have positive area and cell size");
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        pad = cellSize*1e-9;
+        columns = (int) Math.ceil((maxX-minX)/cellSize);
+        rows = (int) Math.ceil((maxY-minY)/cellSize);
+        if((long) columns*rows > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Too many cells");
+        }
+        blocked = new BitSet(columns*rows);
+        ArrayList<Double[]> coordinates = new ArrayList<>();
+        for(int i = 0; i != lines.size(); i++){
+            coordinates.add(TwoWayGraph.convertArrayListToDoubleArray(lines.get(i)));
+        }
+        obstacles = new ObstacleCourse(coordinates);
+        for(int i = 0; i != lines.size(); i+=2){
+            rasterize(lines.get(i).get(0), lines.get(i).get(1), lines.get(i+1).get(0), lines.get(i+1).get(1));
+        }
+        workspaces = ThreadLocal.withInitial(() -> new Workspace(columns*rows));
+    }
+    /**
+     * Returns the number of blocked cells.
+     *
+     * @return number of blocked cells
+    */
+    public int blockedCells(){
+        return blocked.cardinality();
+    }
+    /**
+     * Find a short any-angle path from 'start' to 'end' through free cells with Theta*.
+     *
+     * @param start point to start at
+     * @param end point to end at
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @return path from 'start' to 'end'. null if either point is outside the grid or blocked,
+     * they are equal or no path exists
+    */
+    @Override
+    public ArrayList<ArrayList<Double>> PathFind(ArrayList<Double> start, ArrayList<Double> end){
+        if(start.equals(end)){
+            return null;
+        }
+        double sx = start.get(0);
+        double sy = start.get(1);
+        double ex = end.get(0);
+        double ey = end.get(1);
+        int from = cell(sx, sy);
+        int to = cell(ex, ey);
+        if(from < 0 || to < 0 || blocked.get(from) || blocked.get(to)){
+            return null;
+        }
+        Workspace work = workspaces.get();
+        work.reset();
+        work.open(from, 0, from, heuristic(sx, sy, ex, ey));
+        while(!work.heap.isEmpty()){
+            int current = work.heap.pop();
+            if(current == to){
+                return trace(work, from, to, start, end);
+            }
+            work.close(current);
+            int cx = current%columns;
+            int cy = current/columns;
+            int parent = work.parent[current];
+            double px = x(parent, from, to, sx, ex);
+            double py = y(parent, from, to, sy, ey);
+            for(int i = 0; i != STEP_X.length; i++){
+                int nx = cx+STEP_X[i];
+                int ny = cy+STEP_Y[i];
+                if(nx < 0 || ny < 0 || nx >= columns || ny >= rows){
+                    continue;
+                }
+                int next = ny*columns+nx;
+                if(blocked.get(next) || work.closed(next)){
+                    continue;
+                }
+                // No cutting corners past a blocked cell
+                if(i >= 4 && (blocked.get(cy*columns+nx) || blocked.get(ny*columns+cx))){
+                    continue;
+                }
+                double qx = x(next, from, to, sx, ex);
+                double qy = y(next, from, to, sy, ey);
+                if(visible(px, py, qx, qy)){
+                    // Theta*: skip 'current' and go straight from its parent
+                    work.open(next, work.length[parent]+distance(px, py, qx, qy), parent,
+                     heuristic(qx, qy, ex, ey));
+                }else{
+                    double cxPos = x(current, from, to, sx, ex);
+                    double cyPos = y(current, from, to, sy, ey);
+                    work.open(next, work.length[current]+distance(cxPos, cyPos, qx, qy), current,
+                     heuristic(qx, qy, ex, ey));
+                }
+            }
+        }
+        return null;
+    }
+    /**
+     * Indicate if the segment between the two points crosses only free cells.
+     *
+     * @param point1 the first point
+     * @param point2 the second point
+     * @spec.requires no null inputs, point1.size() == 2, point2.size() == 2
+     * @return true iff both points are in the grid and every cell between them is free
+    */
+    @Override
+    public boolean lineOfSight(ArrayList<Double> point1, ArrayList<Double> point2){
+        double ax = point1.get(0);
+        double ay = point1.get(1);
+        double bx = point2.get(0);
+        double by = point2.get(1);
+        if(cell(ax, ay) < 0 || cell(bx, by) < 0){
+            return false;
+        }
+        return visible(ax, ay, bx, by);
+    }
+    @Override
+    public void draw(){
+        obstacles.draw();
+    }
+    /**
+     * Mark every cell the segment touches.
+    */
+    private void rasterize(double ax, double ay, double bx, double by){
+        // Parts of walls outside the grid are dropped rather than clamped onto its border
+        int c0 = Math.max(0, column(Math.min(ax, bx)-pad));
+        int c1 = Math.min(columns-1, column(Math.max(ax, bx)+pad));
+        for(int c = c0; c <= c1; c++){
+            double low = Math.min(yAt(ax, ay, bx, by, c), yAt(ax, ay, bx, by, c+1))-pad;
+            double high = Math.max(yAt(ax, ay, bx, by, c), yAt(ax, ay, bx, by, c+1))+pad;
+            int r0 = Math.max(0, row(low));
+            int r1 = Math.min(rows-1, row(high));
+            for(int r = r0; r <= r1; r++){
+                blocked.set(r*columns+c);
+            }
+        }
+    }
+    /**
+     * Indicate if every cell the segment touches is free. Walks the segment one column at a time.
+    */
+    private boolean visible(double ax, double ay, double bx, double by){
+        int c0 = clamp(column(Math.min(ax, bx)-pad), columns);
+        int c1 = clamp(column(Math.max(ax, bx)+pad), columns);
+        for(int c = c0; c <= c1; c++){
+            int r0 = firstRow(ax, ay, bx, by, c);
+            int r1 = lastRow(ax, ay, bx, by, c);
+            for(int r = r0; r <= r1; r++){
+                if(blocked.get(r*columns+c)){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    /**
+     * Lowest row the segment touches inside column 'c'.
+    */
+    private int firstRow(double ax, double ay, double bx, double by, int c){
+        return clamp(row(Math.min(yAt(ax, ay, bx, by, c), yAt(ax, ay, bx, by, c+1))-pad), rows);
+    }
+    /**
+     * Highest row the segment touches inside column 'c'.
+    */
+    private int lastRow(double ax, double ay, double bx, double by, int c){
+        return clamp(row(Math.max(yAt(ax, ay, bx, by, c), yAt(ax, ay, bx, by, c+1))+pad), rows);
+    }
+    /**
+     * y coordinate of the segment at the left edge of column 'c', clipped to the segment.
+    */
+    private double yAt(double ax, double ay, double bx, double by, int c){
+        double x = minX+c*cellSize;
+        if(ax == bx){
+            return x <= ax ? Math.max(ay, by) : Math.min(ay, by);
+        }
+        double t = (x-ax)/(bx-ax);
+        t = Math.max(0, Math.min(1, t));
+        return ay+(by-ay)*t;
+    }
+    /**
+     * Follow parents back from 'to' to 'from'. Cells between use their centers.
+    */
+    private ArrayList<ArrayList<Double>> trace(Workspace work, int from, int to, ArrayList<Double> start,
+     ArrayList<Double> end){
+        ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+        goal.add(end);
+        int place = work.parent[to];
+        while(place != from){
+            ArrayList<Double> point = new ArrayList<>();
+            point.add(minX+(place%columns+0.5)*cellSize);
+            point.add(minY+(place/columns+0.5)*cellSize);
+            goal.add(point);
+            place = work.parent[place];
+        }
+        goal.add(start);
+        Collections.reverse(goal);
+        return goal;
+    }
+    /**
+     * Position of a cell. The start and end cells use the exact start and end points.
+    */
+    private double x(int cell, int from, int to, double sx, double ex){
+        if(cell == from){
+            return sx;
+        }if(cell == to){
+            return ex;
+        }
+        return minX+(cell%columns+0.5)*cellSize;
+    }
+    private double y(int cell, int from, int to, double sy, double ey){
+        if(cell == from){
+            return sy;
+        }if(cell == to){
+            return ey;
+        }
+        return minY+(cell/columns+0.5)*cellSize;
+    }
+    private int cell(double x, double y){
+        int c = column(x);
+        int r = row(y);
+        if(c < 0 || r < 0 || c >= columns || r >= rows){
+            return -1;
+        }
+        return r*columns+c;
+    }
+    private int column(double x){
+        return (int) Math.floor((x-minX)/cellSize);
+    }
+    private int row(double y){
+        return (int) Math.floor((y-minY)/cellSize);
+    }
+    private static int clamp(int value, int size){
+        return Math.max(0, Math.min(value, size-1));
+    }
+    private static double distance(double ax, double ay, double bx, double by){
+        double x = ax-bx;
+        double y = ay-by;
+        return Math.sqrt(x*x+y*y);
+    }
+    private static double heuristic(double x, double y, double ex, double ey){
+        return distance(x, y, ex, ey);
+    }
+    /**
+     * Per thread search state. Cells are only valid when their stamp matches the generation.
+    */
+    private static class Workspace{
+        final NodeHeap heap;
+        final double[] length;
+        final int[] parent;
+        final int[] stamp;
+        int generation;
+        Workspace(int cells){
+            heap = new NodeHeap(cells);
+            length = new double[cells];
+            parent = new int[cells];
+            stamp = new int[cells];
+            generation = 0;
+        }
+        void reset(){
+            heap.clear();
+            generation += 2;
+            if(generation <= 0){
+                Arrays.fill(stamp, 0);
+                generation = 2;
+            }
+        }
+        boolean closed(int cell){
+            return stamp[cell] == generation+1;
+        }
+        void close(int cell){
+            stamp[cell] = generation+1;
+        }
+        /**
+         * Record a way into 'cell' if it is shorter than the known one.
+        */
+        void open(int cell, double length, int parent, double heuristic){
+            if(stamp[cell] == generation+1){
+                return;
+            }
+            if(stamp[cell] == generation && this.length[cell] <= length){
+                return;
+            }
+            stamp[cell] = generation;
+            this.length[cell] = length;
+            this.parent[cell] = parent;
+            heap.push(cell, length+heuristic);
+        }
+    }
+}
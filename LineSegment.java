@@ -248,6 +248,42 @@ public class LineSegment {
         LineSegment new_wall = new LineSegment(pointB, pointA);
         return new_wall;
     }
+    /**
+     * Standard equals method. LineSegments are equal iff they have the same head, tail and
+     * inclusivity. 0.0 and -0.0 are the same coordinate.
+     * 
+     * @param o object to compare to
+     * @return true iff 'o' is an equal LineSegment
+    */
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof LineSegment)){
+            return false;
+        }
+        LineSegment other = (LineSegment) o;
+        return same(headX(), other.headX()) && same(headY(), other.headY()) && same(tailX(), other.tailX())
+         && same(tailY(), other.tailY()) && headInclusive == other.headInclusive
+         && tailInclusive == other.tailInclusive;
+    }
+    /**
+     * Standard hashCode method
+     * 
+     * @return hash code
+    */
+    @Override
+    public int hashCode(){
+        int hash = Double.hashCode(headX()+0.0);
+        hash = 31*hash+Double.hashCode(headY()+0.0);
+        hash = 31*hash+Double.hashCode(tailX()+0.0);
+        hash = 31*hash+Double.hashCode(tailY()+0.0);
+        return 31*hash+(headInclusive ? 2 : 0)+(tailInclusive ? 1 : 0);
+    }
+    /**
+     * Equality matching hashCode. Adding 0.0 turns -0.0 into 0.0.
+    */
+    private static boolean same(double a, double b){
+        return Double.compare(a+0.0, b+0.0) == 0;
+    }
     public void draw(){
         System.out.println("Line drawn");
     }
@@ -0,0 +1,1112 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * NavMesh is an immutable PathEngine for large open maps. The rectangle 'minX' to 'maxX' by 'minY'
+ * to 'maxY' is split into a constrained Delaunay triangulation that has every wall as an edge.
+ * Paths are found with an any-angle A* over the triangles in the manner of Polyanya: each search
+ * node is a part of a triangle edge seen from a root, the start or a wall end point the path turns
+ * at. Paths bend only at wall end points and, before any clearance is kept, are as short as those
+ * TwoWayGraph.fromObstacles finds through every wall corner. Start and end points are found through
+ * a grid of triangles and a short walk, so no line of sight tests attach them.
+ * Memory and build time depend on the number of walls, not on the area.
+*/
+public class NavMesh implements PathEngine{
+    private final ObstacleCourse obstacles;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final Map<ArrayList<Double>, Integer> index;
+    private final double clearance;
+    private final ThreadLocal<Workspace> workspaces;
+    private double[] vertexX;
+    private double[] vertexY;
+    private int vertices;
+    // Triangle t has corners 3t to 3t+2 counter clockwise. Edge 3t+k runs from corner k to corner
+    // k+1, 'across' is the triangle on its other side or -1 and 'wall' marks wall edges.
+    private int[] corner;
+    private int[] across;
+    private boolean[] wall;
+    private int triangles;
+    private int[] vertexTriangle;
+    private int[] pending;
+    private int pendingSize;
+    private int[] grid;
+    private int columns;
+    private int rows;
+    /**
+     * Construct a mesh of the rectangle with the walls as edges.
+     *
+     * @param lines the coordinates of the walls. Coordinates come in pairs for each LineSegment.
+     * @param minX smallest x coordinate
+     * @param minY smallest y coordinate
+     * @param maxX largest x coordinate
+     * @param maxY largest y coordinate
+     * @param clearance distance paths keep from the wall corners they turn at, 0 to turn on them.
+     * Paths turn on a corner where keeping the distance would take a leg through a wall.
+     * @throws IllegalArgumentException lines.size()%2 == 1, the area is empty, clearance < 0, a wall
+     * is outside the area or the walls could not be triangulated
+     * @spec.requires no null values and Coordinates have length 2
+    */
+    public NavMesh(ArrayList<ArrayList<Double>> lines, double minX, double minY, double maxX, double maxY,
+     double clearance){
+        if(lines.size()%2 != 0){
+            throw new IllegalArgumentException("Odd number of coordinates input");
+        }
+        if(!(maxX > minX) || !(maxY > minY) || !(clearance >= 0)){
+            throw new IllegalArgumentException("Mesh must have positive area and clearance >= 0");
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        ArrayList<Double[]> coordinates = new ArrayList<>();
+        for(ArrayList<Double> point: lines){
+            if(!inside(point.get(0), point.get(1))){
+                throw new IllegalArgumentException("Walls must be inside the mesh area");
+            }
+            coordinates.add(TwoWayGraph.convertArrayListToDoubleArray(point));
+        }
+        obstacles = new ObstacleCourse(coordinates);
+        index = new HashMap<>();
+        int capacity = lines.size()+8;
+        vertexX = new double[capacity];
+        vertexY = new double[capacity];
+        vertexTriangle = new int[capacity];
+        corner = new int[6*capacity];
+        across = new int[6*capacity];
+        wall = new boolean[6*capacity];
+        pending = new int[64];
+        vertex(minX, minY);
+        vertex(maxX, minY);
+        vertex(maxX, maxY);
+        vertex(minX, maxY);
+        set(triangle(), 0, 1, 2, -1, -1, 1, false, false, false);
+        set(triangle(), 0, 2, 3, 0, -1, -1, false, false, false);
+        for(ArrayList<Double> point: order(lines)){
+            insert(point.get(0), point.get(1));
+        }
+        for(int i = 0; i != lines.size(); i += 2){
+            constrain(index.get(lines.get(i)), index.get(lines.get(i+1)));
+        }
+        this.clearance = clearance;
+        buildGrid();
+        pending = null;
+        int size = triangles;
+        workspaces = ThreadLocal.withInitial(() -> new Workspace(size));
+    }
+    /**
+     * Returns the number of triangles in the mesh.
+     *
+     * @return number of triangles
+    */
+    public int triangleCount(){
+        return triangles;
+    }
+    /**
+     * Returns the number of triangle corners in the mesh: the area's corners, wall end points and
+     * points where walls cross.
+     *
+     * @return number of vertices
+    */
+    public int vertexCount(){
+        return vertices;
+    }
+    /**
+     * Find the shortest path from 'start' to 'end' that crosses no wall.
+     *
+     * @param start point to start at
+     * @param end point to end at
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @return path from 'start' to 'end'. null if either point is outside the mesh, they are equal
+     * or no path exists
+    */
+    @Override
+    public ArrayList<ArrayList<Double>> PathFind(ArrayList<Double> start, ArrayList<Double> end){
+        if(start.equals(end)){
+            return null;
+        }
+        double sx = start.get(0);
+        double sy = start.get(1);
+        double ex = end.get(0);
+        double ey = end.get(1);
+        int from = find(sx, sy);
+        int to = find(ex, ey);
+        if(from < 0 || to < 0){
+            return null;
+        }
+        if(from == to){
+            return path(new ArrayList<>(), start, end);
+        }
+        Workspace work = workspaces.get();
+        work.reset(sx, sy, ex, ey, to);
+        for(int k = 3*from; k != 3*from+3; k++){
+            open(work, -1, 0, -1, -1, k, 0, 1);
+        }
+        while(!work.heap.isEmpty()){
+            int node = work.heap.pop();
+            if(work.edge[node] < 0){
+                ArrayList<Integer> bends = new ArrayList<>();
+                for(int at = node; work.root[at] >= 0; at = work.up[at]){
+                    bends.add(work.root[at]);
+                }
+                Collections.reverse(bends);
+                return path(bends, start, end);
+            }
+            // The root was turned at again with a shorter path, which sees all this node sees
+            if(work.root[node] >= 0 && work.g[node] > work.best(work.sector[node])){
+                continue;
+            }
+            expand(work, node);
+        }
+        return null;
+    }
+    /**
+     * Indicate if the two points have line of sight.
+     *
+     * @param point1 the first point
+     * @param point2 the second point
+     * @spec.requires no null inputs, point1.size() == 2, point2.size() == 2
+     * @throws IllegalArgumentException iff either point is not of size 2
+     * @return true iff no wall collides with the segment between the points
+    */
+    @Override
+    public boolean lineOfSight(ArrayList<Double> point1, ArrayList<Double> point2){
+        if(point1.size() != 2 || point2.size() != 2){
+            throw new IllegalArgumentException("All coordinates must be 2d.");
+        }
+        LineSegment line = new LineSegment(TwoWayGraph.convertArrayListToDoubleArray(point1),
+         TwoWayGraph.convertArrayListToDoubleArray(point2));
+        return !obstacles.collision(line);
+    }
+    @Override
+    public void draw(){
+        obstacles.draw();
+    }
+    /**
+     * Check that no path crosses a wall. Meshes are built over random walls with clearance 0 and 2
+     * and paths found between random points. Every leg is tested against every wall with a plain
+     * crossing test, not the ObstacleCourse the mesh checks legs with. Prints the paths crossing a
+     * wall for each clearance and exits with status 1 if there are any.
+     * Arguments: number of random maps (default 10).
+    */
+    public static void main(String[] args){
+        int maps = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        boolean failed = false;
+        for(double clearance: new double[]{0, 2}){
+            int paths = 0;
+            int crossing = 0;
+            for(int seed = 0; seed != maps; seed++){
+                // 300 walls 30 long in a 1000 by 1000 square
+                Random random = new Random(seed);
+                ArrayList<ArrayList<Double>> lines = new ArrayList<>();
+                for(int i = 0; i != 300; i++){
+                    double x = 40+random.nextDouble()*920;
+                    double y = 40+random.nextDouble()*920;
+                    double angle = random.nextDouble()*2*Math.PI;
+                    lines.add(point(x, y));
+                    lines.add(point(x+30*Math.cos(angle), y+30*Math.sin(angle)));
+                }
+                NavMesh mesh = new NavMesh(lines, 0, 0, 1000, 1000, clearance);
+                for(int i = 0; i != 200; i++){
+                    ArrayList<ArrayList<Double>> path = mesh.PathFind(
+                     point(random.nextDouble()*1000, random.nextDouble()*1000),
+                     point(random.nextDouble()*1000, random.nextDouble()*1000));
+                    if(path == null){
+                        continue;
+                    }
+                    paths++;
+                    if(crossesWall(path, lines)){
+                        crossing++;
+                    }
+                }
+            }
+            System.out.println("clearance "+clearance+": "+crossing+" of "+paths+" paths cross a wall");
+            failed |= crossing != 0;
+        }
+        if(failed){
+            System.exit(1);
+        }
+    }
+    /**
+     * Indicate if a leg of 'path' properly crosses a wall. Touching a wall does not count.
+    */
+    private static boolean crossesWall(ArrayList<ArrayList<Double>> path, ArrayList<ArrayList<Double>> lines){
+        for(int i = 1; i < path.size(); i++){
+            double ax = path.get(i-1).get(0);
+            double ay = path.get(i-1).get(1);
+            double bx = path.get(i).get(0);
+            double by = path.get(i).get(1);
+            for(int j = 0; j != lines.size(); j += 2){
+                double cx = lines.get(j).get(0);
+                double cy = lines.get(j).get(1);
+                double dx = lines.get(j+1).get(0);
+                double dy = lines.get(j+1).get(1);
+                double side1 = orient(ax, ay, bx, by, cx, cy);
+                double side2 = orient(ax, ay, bx, by, dx, dy);
+                double side3 = orient(cx, cy, dx, dy, ax, ay);
+                double side4 = orient(cx, cy, dx, dy, bx, by);
+                if(((side1 > 0 && side2 < 0) || (side1 < 0 && side2 > 0))
+                 && ((side3 > 0 && side4 < 0) || (side3 < 0 && side4 > 0))){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    /**
+     * Push the parts of the far side of the next triangle that the root of 'node' sees through its
+     * interval. Where an end of the interval is a vertex hiding part of the triangle from the root
+     * the path may turn there. Reaching the end's triangle pushes the end.
+    */
+    private void expand(Workspace work, int node){
+        int edge = work.edge[node];
+        int t = across[edge];
+        int a = corner[edge];
+        int b = corner[next(edge)];
+        // In 't' the edge runs from b to a and the far side from a to w to b
+        int k = 3*t+slot(t, b);
+        int w = corner[prev(k)];
+        int root = work.root[node];
+        double length = work.g[node];
+        double lo = work.lo[node];
+        double hi = work.hi[node];
+        double rx = root < 0 ? work.sx : vertexX[root];
+        double ry = root < 0 ? work.sy : vertexY[root];
+        double ax = vertexX[a];
+        double ay = vertexY[a];
+        double bx = vertexX[b];
+        double by = vertexY[b];
+        double side = orient(ax, ay, bx, by, rx, ry);
+        double scale = distance(ax, ay, bx, by)*(distance(rx, ry, ax, ay)+distance(rx, ry, bx, by));
+        boolean flat = root == a || root == b || Math.abs(side) <= 1e-12*scale;
+        // Where the far side is seen from: 0 at a, 1 at w and 2 at b
+        double first = 0;
+        double last = 2;
+        if(flat){
+            // A root on the edge's line sees all of 't' from inside the edge and none of it from outside
+            double along = (rx-ax)*(bx-ax)+(ry-ay)*(by-ay);
+            if(along < 0 || along > (bx-ax)*(bx-ax)+(by-ay)*(by-ay)){
+                return;
+            }
+        }else if(side < 0){
+            return;
+        }else{
+            first = exit(rx, ry, ax+lo*(bx-ax), ay+lo*(by-ay), lo == 0 ? 0 : -1, a, w, b);
+            last = Math.max(first, exit(rx, ry, ax+hi*(bx-ax), ay+hi*(by-ay), hi == 1 ? 2 : -1, a, w, b));
+        }
+        if(t == work.to){
+            double toEnd = distance(rx, ry, work.ex, work.ey);
+            double oa = orient(rx, ry, work.ex, work.ey, ax, ay);
+            double ob = orient(rx, ry, work.ex, work.ey, bx, by);
+            double cross = oa/(oa-ob);
+            if(flat || (cross >= lo && cross <= hi)){
+                open(work, root, length+toEnd, work.up[node], -1, -1, 0, 0);
+            }else if(cross < lo && lo == 0){
+                open(work, a, length+distance(rx, ry, ax, ay)+distance(ax, ay, work.ex, work.ey), node, -1, -1, 0, 0);
+            }else if(cross > hi && hi == 1){
+                open(work, b, length+distance(rx, ry, bx, by)+distance(bx, by, work.ex, work.ey), node, -1, -1, 0, 0);
+            }
+        }
+        if(!flat && lo == 0 && first > 0){
+            turn(work, node, a, t, length+distance(rx, ry, ax, ay));
+        }
+        if(!flat && hi == 1 && last < 2){
+            turn(work, node, b, t, length+distance(rx, ry, bx, by));
+        }
+        if(first < 1){
+            open(work, root, length, work.up[node], work.sector[node], next(k), first, Math.min(last, 1));
+        }
+        if(last > 1){
+            open(work, root, length, work.up[node], work.sector[node], prev(k), Math.max(first, 1)-1, last-1);
+        }
+    }
+    /**
+     * Where the ray from r through p leaves triangle a, w, b, which it enters at p on the edge from
+     * b to a. Measured along the far side: 0 at a, 1 at w and 2 at b. 'end' is 0 if p is a, 2 if p
+     * is b and -1 otherwise. Ends within a billionth of a vertex are moved onto it.
+    */
+    private double exit(double rx, double ry, double px, double py, int end, int a, int w, int b){
+        double oa = orient(rx, ry, px, py, vertexX[a], vertexY[a]);
+        double ow = orient(rx, ry, px, py, vertexX[w], vertexY[w]);
+        double ob = orient(rx, ry, px, py, vertexX[b], vertexY[b]);
+        double at;
+        if(ow == 0){
+            at = 1;
+        }else if(end == 0){
+            // From a the ray only goes through the triangle if it parts w from b
+            at = (ow > 0) != (ob > 0) ? 1+ow/(ow-ob) : 0;
+        }else if(end == 2){
+            at = (ow > 0) != (oa > 0) ? oa/(oa-ow) : 2;
+        }else{
+            at = (ow > 0) == (oa > 0) ? 1+ow/(ow-ob) : oa/(oa-ow);
+        }
+        double nearest = Math.rint(at);
+        return Math.abs(at-nearest) < 1e-9 ? nearest : at;
+    }
+    /**
+     * Turn at vertex 'v' of triangle 't', reached by a path of 'length'. Every triangle around 'v'
+     * that can be reached from 't' without crossing a wall at 'v' is seen from it, so their far
+     * edges are pushed with 'v' as the root. Nothing is pushed if 'v' was already turned at from
+     * this side with a path no longer.
+    */
+    private void turn(Workspace work, int node, int v, int t, double length){
+        int key = 3*t+slot(t, v);
+        if(length >= work.best(key)){
+            return;
+        }
+        int count = 0;
+        work.fan = add(work.fan, count++, t);
+        boolean round = false;
+        for(int f = t; ; ){
+            int e = 3*f+slot(f, v);
+            f = across[e];
+            if(wall[e] || f < 0){
+                break;
+            }
+            if(f == t){
+                round = true;
+                break;
+            }
+            work.fan = add(work.fan, count++, f);
+        }
+        for(int f = t; !round; ){
+            int e = 3*f+(slot(f, v)+2)%3;
+            f = across[e];
+            if(wall[e] || f < 0){
+                break;
+            }
+            work.fan = add(work.fan, count++, f);
+        }
+        for(int i = 0; i != count; i++){
+            work.setBest(3*work.fan[i]+slot(work.fan[i], v), length);
+        }
+        for(int i = 0; i != count; i++){
+            int f = work.fan[i];
+            open(work, v, length, node, key, 3*f+(slot(f, v)+1)%3, 0, 1);
+            if(f == work.to){
+                open(work, v, length+distance(vertexX[v], vertexY[v], work.ex, work.ey), node, -1, -1, 0, 0);
+            }
+        }
+    }
+    /**
+     * Push a node seeing the part 'lo' to 'hi' of 'edge' from 'root', -1 for the start, reached by
+     * a path of 'length'. Its estimate is the shortest way from the root through the part to the
+     * end. Edge -1 pushes the end itself, with 'length' the whole path. Walls, the border and
+     * parts shorter than a trillionth of the edge are skipped.
+    */
+    private void open(Workspace work, int root, double length, int up, int sector, int edge, double lo, double hi){
+        if(edge < 0){
+            work.push(root, length, up, sector, edge, 0, 0, length);
+            return;
+        }
+        if(wall[edge] || across[edge] < 0 || !(hi-lo > 1e-12)){
+            return;
+        }
+        int a = corner[edge];
+        int b = corner[next(edge)];
+        double px = vertexX[a]+lo*(vertexX[b]-vertexX[a]);
+        double py = vertexY[a]+lo*(vertexY[b]-vertexY[a]);
+        double qx = vertexX[a]+hi*(vertexX[b]-vertexX[a]);
+        double qy = vertexY[a]+hi*(vertexY[b]-vertexY[a]);
+        double rx = root < 0 ? work.sx : vertexX[root];
+        double ry = root < 0 ? work.sy : vertexY[root];
+        double ex = work.ex;
+        double ey = work.ey;
+        double estimate = distance(rx, ry, ex, ey);
+        double sr = orient(px, py, qx, qy, rx, ry);
+        double se = orient(px, py, qx, qy, ex, ey);
+        if(sr != 0){
+            // The shortest way through the part crosses its line on the way to the end mirrored
+            // onto the far side, or passes one of its ends
+            if((sr > 0) == (se > 0)){
+                double dx = qx-px;
+                double dy = qy-py;
+                double along = ((ex-px)*dx+(ey-py)*dy)/(dx*dx+dy*dy);
+                ex = 2*(px+along*dx)-ex;
+                ey = 2*(py+along*dy)-ey;
+            }
+            double op = orient(rx, ry, ex, ey, px, py);
+            double oq = orient(rx, ry, ex, ey, qx, qy);
+            double u = op == oq ? 0 : Math.max(0, Math.min(1, op/(op-oq)));
+            double mx = px+u*(qx-px);
+            double my = py+u*(qy-py);
+            estimate = Math.max(estimate, distance(rx, ry, mx, my)+distance(mx, my, work.ex, work.ey));
+        }
+        work.push(root, length, up, sector, edge, lo, hi, length+estimate);
+    }
+    private static int[] add(int[] values, int at, int value){
+        if(at == values.length){
+            values = Arrays.copyOf(values, Math.max(8, 2*at));
+        }
+        values[at] = value;
+        return values;
+    }
+    /**
+     * Path from 'start' through the wall end points 'bends' to 'end', each bend moved off its
+     * corner by the clearance where that keeps the legs clear.
+    */
+    private ArrayList<ArrayList<Double>> path(ArrayList<Integer> bends, ArrayList<Double> start,
+     ArrayList<Double> end){
+        double[] point = {start.get(0), start.get(1), end.get(0), end.get(1)};
+        ArrayList<ArrayList<Double>> path = new ArrayList<>();
+        path.add(start);
+        for(int i = 0; i != bends.size(); i++){
+            int v = bends.get(i);
+            double px = i == 0 ? point[0] : vertexX[bends.get(i-1)];
+            double py = i == 0 ? point[1] : vertexY[bends.get(i-1)];
+            double nx = i == bends.size()-1 ? point[2] : vertexX[bends.get(i+1)];
+            double ny = i == bends.size()-1 ? point[3] : vertexY[bends.get(i+1)];
+            ArrayList<Double> bend = bend(v, px, py, nx, ny);
+            // A moved bend must see the point before it and the next bend before it is moved. Legs
+            // between unmoved bends were seen by the search, so falling back keeps every leg clear.
+            ArrayList<Double> before = path.get(path.size()-1);
+            if(clearance > 0 && (!clear(before.get(0), before.get(1), bend.get(0), bend.get(1))
+             || !clear(bend.get(0), bend.get(1), nx, ny))){
+                bend = point(vertexX[v], vertexY[v]);
+            }
+            path.add(bend);
+        }
+        path.add(end);
+        return path;
+    }
+    /**
+     * Bend at 'vertex' coming from p and going to n, moved by the clearance away from the walls,
+     * which lie inside the angle the path turns around.
+    */
+    private ArrayList<Double> bend(int vertex, double px, double py, double nx, double ny){
+        double x = vertexX[vertex];
+        double y = vertexY[vertex];
+        double inX = (px-x)/distance(px, py, x, y)+(nx-x)/distance(nx, ny, x, y);
+        double inY = (py-y)/distance(px, py, x, y)+(ny-y)/distance(nx, ny, x, y);
+        double length = Math.sqrt(inX*inX+inY*inY);
+        if(clearance == 0 || !(length > 0)){
+            return point(x, y);
+        }
+        return point(x-clearance*inX/length, y-clearance*inY/length);
+    }
+    /**
+     * Indicate if no wall crosses the leg from a to b. Both ends are pulled in by a billionth of
+     * the leg, so a leg may end on the wall corner it turns at.
+    */
+    private boolean clear(double ax, double ay, double bx, double by){
+        double dx = (bx-ax)*1e-9;
+        double dy = (by-ay)*1e-9;
+        return !obstacles.collision(new LineSegment(new Double[]{ax+dx, ay+dy}, new Double[]{bx-dx, by-dy}));
+    }
+    /**
+     * Triangle holding the point, -1 if it is outside the mesh.
+    */
+    private int find(double x, double y){
+        if(!inside(x, y)){
+            return -1;
+        }
+        int c = Math.min(columns-1, (int) ((x-minX)/(maxX-minX)*columns));
+        int r = Math.min(rows-1, (int) ((y-minY)/(maxY-minY)*rows));
+        return walk(x, y, grid[r*columns+c]);
+    }
+    private boolean inside(double x, double y){
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+    /**
+     * Walk from triangle 't' toward the point until a triangle holds it. The first edge tried
+     * rotates each step so the walk cannot circle.
+    */
+    private int walk(double x, double y, int t){
+        for(int step = 0; step <= triangles; step++){
+            int next = -1;
+            for(int i = 0; i != 3 && next < 0; i++){
+                int k = (i+step)%3;
+                int a = corner[3*t+k];
+                int b = corner[3*t+(k+1)%3];
+                if(orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], x, y) < 0){
+                    next = across[3*t+k];
+                }
+            }
+            if(next < 0){
+                return t;
+            }
+            t = next;
+        }
+        return t;
+    }
+    /**
+     * Index one triangle per grid cell, about two triangles per cell, found by walking from cell to
+     * cell in a snake so each walk is short.
+    */
+    private void buildGrid(){
+        double cells = Math.max(1, triangles/2.0);
+        double aspect = (maxX-minX)/(maxY-minY);
+        columns = (int) Math.max(1, Math.min(cells, Math.round(Math.sqrt(cells*aspect))));
+        rows = (int) Math.max(1, Math.ceil(cells/columns));
+        grid = new int[columns*rows];
+        int t = 0;
+        for(int r = 0; r != rows; r++){
+            for(int i = 0; i != columns; i++){
+                int c = r%2 == 0 ? i : columns-1-i;
+                t = walk(minX+(c+0.5)*(maxX-minX)/columns, minY+(r+0.5)*(maxY-minY)/rows, t);
+                grid[r*columns+c] = t;
+            }
+        }
+    }
+    /**
+     * Wall end points without repeats, ordered in a snake through a grid so each insertion walks
+     * only a short way from the one before.
+    */
+    private ArrayList<ArrayList<Double>> order(ArrayList<ArrayList<Double>> lines){
+        ArrayList<ArrayList<Double>> points = new ArrayList<>(new LinkedHashSet<>(lines));
+        int bands = Math.max(1, (int) Math.sqrt(points.size()/4.0));
+        double height = (maxY-minY)/bands;
+        points.sort((p, q) -> {
+            int band1 = Math.min(bands-1, (int) ((p.get(1)-minY)/height));
+            int band2 = Math.min(bands-1, (int) ((q.get(1)-minY)/height));
+            if(band1 != band2){
+                return Integer.compare(band1, band2);
+            }
+            return band1%2 == 0 ? Double.compare(p.get(0), q.get(0)) : Double.compare(q.get(0), p.get(0));
+        });
+        return points;
+    }
+    /**
+     * Add a vertex at the point and make the triangulation Delaunay again.
+     *
+     * @return the new vertex or the one already there
+    */
+    private int insert(double x, double y){
+        Integer known = index.get(point(x, y));
+        if(known != null){
+            return known;
+        }
+        int t = walk(x, y, vertexTriangle[vertices-1]);
+        int v = vertex(x, y);
+        int edge = -1;
+        for(int k = 0; k != 3; k++){
+            int a = corner[3*t+k];
+            int b = corner[3*t+(k+1)%3];
+            if(orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], x, y) == 0){
+                edge = k;
+            }
+        }
+        if(edge < 0){
+            splitTriangle(t, v);
+        }else{
+            splitEdge(t, edge, v);
+        }
+        return v;
+    }
+    /**
+     * Make the segment from vertex 'a' to vertex 'b' a chain of wall edges. Vertices on the segment
+     * split it. Where it crosses a wall edge a vertex is added at the crossing. Edges crossing it
+     * are flipped away and the new edges flipped back toward Delaunay.
+    */
+    private void constrain(int a, int b){
+        ArrayDeque<int[]> segments = new ArrayDeque<>();
+        segments.push(new int[]{a, b});
+        while(!segments.isEmpty()){
+            int[] segment = segments.pop();
+            a = segment[0];
+            b = segment[1];
+            if(a == b){
+                continue;
+            }
+            int edge = findEdge(a, b);
+            if(edge >= 0){
+                fix(edge);
+                continue;
+            }
+            ArrayDeque<int[]> crossed = new ArrayDeque<>();
+            int split = first(a, b);
+            if(split >= 0){
+                // A vertex lies on the segment
+                segments.push(new int[]{split, b});
+                segments.push(new int[]{a, split});
+                continue;
+            }
+            edge = -split-1;
+            while(true){
+                int x = corner[edge];
+                int y = corner[next(edge)];
+                if(wall[edge]){
+                    int v = cross(a, b, edge);
+                    segments.push(new int[]{v, b});
+                    segments.push(new int[]{a, v});
+                    crossed = null;
+                    break;
+                }
+                crossed.add(new int[]{x, y});
+                int u = across[edge];
+                int j = slot(u, y);
+                int w = corner[3*u+(j+2)%3];
+                if(w == b){
+                    break;
+                }
+                double side = orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], vertexX[w], vertexY[w]);
+                if(side == 0){
+                    segments.push(new int[]{w, b});
+                    b = w;
+                    break;
+                }
+                double sideX = orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], vertexX[x], vertexY[x]);
+                edge = (side > 0) == (sideX > 0) ? 3*u+(j+2)%3 : 3*u+(j+1)%3;
+            }
+            if(crossed != null){
+                flipOut(a, b, crossed);
+                fix(findEdge(a, b));
+            }
+        }
+    }
+    /**
+     * First edge crossed going from vertex 'a' toward vertex 'b'.
+     *
+     * @return a vertex on the segment next to 'a', or -1-edge for the edge crossed
+    */
+    private int first(int a, int b){
+        double dx = vertexX[b]-vertexX[a];
+        double dy = vertexY[b]-vertexY[a];
+        for(int t: fan(a)){
+            int i = slot(t, a);
+            int p = corner[3*t+(i+1)%3];
+            int q = corner[3*t+(i+2)%3];
+            double sideP = orient(vertexX[a], vertexY[a], vertexX[p], vertexY[p], vertexX[b], vertexY[b]);
+            double sideQ = orient(vertexX[a], vertexY[a], vertexX[q], vertexY[q], vertexX[b], vertexY[b]);
+            if(sideP == 0 && (vertexX[p]-vertexX[a])*dx+(vertexY[p]-vertexY[a])*dy > 0){
+                return p;
+            }
+            if(sideQ == 0 && (vertexX[q]-vertexX[a])*dx+(vertexY[q]-vertexY[a])*dy > 0){
+                return q;
+            }
+            if(sideP > 0 && sideQ < 0){
+                return -1-(3*t+(i+1)%3);
+            }
+        }
+        throw new IllegalArgumentException("Walls could not be triangulated");
+    }
+    /**
+     * Add a vertex where the segment from 'a' to 'b' crosses wall edge 'edge' and split the edge.
+     *
+     * @return the vertex at the crossing
+    */
+    private int cross(int a, int b, int edge){
+        int x = corner[edge];
+        int y = corner[next(edge)];
+        double sideX = orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], vertexX[x], vertexY[x]);
+        double sideY = orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], vertexX[y], vertexY[y]);
+        double s = sideX/(sideX-sideY);
+        double px = vertexX[x]+s*(vertexX[y]-vertexX[x]);
+        double py = vertexY[x]+s*(vertexY[y]-vertexY[x]);
+        Integer known = index.get(point(px, py));
+        if(known != null){
+            return known;
+        }
+        int v = vertex(px, py);
+        splitEdge(edge/3, edge%3, v);
+        return v;
+    }
+    /**
+     * Flip the edges crossing the segment from 'a' to 'b' until none does, then flip the new edges
+     * until they are Delaunay. A crossing edge whose two triangles do not form a convex quad waits
+     * for its neighbors to be flipped first.
+    */
+    private void flipOut(int a, int b, ArrayDeque<int[]> crossed){
+        ArrayList<int[]> made = new ArrayList<>();
+        int waited = 0;
+        while(!crossed.isEmpty()){
+            int[] edge = crossed.poll();
+            int e = findEdge(edge[0], edge[1]);
+            int u = across[e];
+            int c = corner[prev(e)];
+            int d = corner[3*u+(slot(u, corner[next(e)])+2)%3];
+            if(!crosses(c, d, edge[0], edge[1])){
+                crossed.add(edge);
+                if(++waited > crossed.size()){
+                    throw new IllegalArgumentException("Walls could not be triangulated");
+                }
+                continue;
+            }
+            waited = 0;
+            flip(e/3, e%3);
+            if(c != a && c != b && d != a && d != b && crosses(a, b, c, d)){
+                crossed.add(new int[]{c, d});
+            }else{
+                made.add(new int[]{c, d});
+            }
+        }
+        for(int round = 0; round <= made.size()*made.size(); round++){
+            boolean flipped = false;
+            for(int[] edge: made){
+                if((edge[0] == a && edge[1] == b) || (edge[0] == b && edge[1] == a)){
+                    continue;
+                }
+                int e = findEdge(edge[0], edge[1]);
+                int u = across[e];
+                if(u < 0 || wall[e]){
+                    continue;
+                }
+                int c = corner[prev(e)];
+                int d = corner[3*u+(slot(u, corner[next(e)])+2)%3];
+                if(incircle(corner[e], corner[next(e)], c, d) > 0 && crosses(c, d, edge[0], edge[1])){
+                    flip(e/3, e%3);
+                    edge[0] = c;
+                    edge[1] = d;
+                    flipped = true;
+                }
+            }
+            if(!flipped){
+                return;
+            }
+        }
+    }
+    /**
+     * Indicate if segment 'c' to 'd' crosses the line through 'a' and 'b' and segment 'a' to 'b'
+     * crosses the line through 'c' and 'd', each strictly.
+    */
+    private boolean crosses(int a, int b, int c, int d){
+        double side1 = orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], vertexX[c], vertexY[c]);
+        double side2 = orient(vertexX[a], vertexY[a], vertexX[b], vertexY[b], vertexX[d], vertexY[d]);
+        double side3 = orient(vertexX[c], vertexY[c], vertexX[d], vertexY[d], vertexX[a], vertexY[a]);
+        double side4 = orient(vertexX[c], vertexY[c], vertexX[d], vertexY[d], vertexX[b], vertexY[b]);
+        return ((side1 > 0 && side2 < 0) || (side1 < 0 && side2 > 0))
+         && ((side3 > 0 && side4 < 0) || (side3 < 0 && side4 > 0));
+    }
+    /**
+     * Split triangle 't' into three around new vertex 'v' inside it.
+    */
+    private void splitTriangle(int t, int v){
+        int a = corner[3*t];
+        int b = corner[3*t+1];
+        int c = corner[3*t+2];
+        int na = across[3*t];
+        int nb = across[3*t+1];
+        int nc = across[3*t+2];
+        boolean fa = wall[3*t];
+        boolean fb = wall[3*t+1];
+        boolean fc = wall[3*t+2];
+        int t2 = triangle();
+        int t3 = triangle();
+        set(t, v, a, b, t3, na, t2, false, fa, false);
+        set(t2, v, b, c, t, nb, t3, false, fb, false);
+        set(t3, v, c, a, t2, nc, t, false, fc, false);
+        relink(nb, t, t2);
+        relink(nc, t, t3);
+        push(t);
+        push(t2);
+        push(t3);
+        legalize();
+    }
+    /**
+     * Split edge 'k' of triangle 't' and the triangle across it at new vertex 'v' on the edge.
+     * Both halves of a wall edge stay wall edges.
+    */
+    private void splitEdge(int t, int k, int v){
+        int a = corner[3*t+k];
+        int b = corner[3*t+(k+1)%3];
+        int c = corner[3*t+(k+2)%3];
+        int u = across[3*t+k];
+        boolean f = wall[3*t+k];
+        int n1 = across[3*t+(k+1)%3];
+        int n2 = across[3*t+(k+2)%3];
+        boolean f1 = wall[3*t+(k+1)%3];
+        boolean f2 = wall[3*t+(k+2)%3];
+        int t2 = triangle();
+        int u2 = u < 0 ? -1 : triangle();
+        if(u >= 0){
+            int j = slot(u, b);
+            int d = corner[3*u+(j+2)%3];
+            int m1 = across[3*u+(j+1)%3];
+            int m2 = across[3*u+(j+2)%3];
+            boolean g1 = wall[3*u+(j+1)%3];
+            boolean g2 = wall[3*u+(j+2)%3];
+            set(u, v, a, d, t2, m1, u2, f, g1, false);
+            set(u2, v, d, b, u, m2, t, false, g2, f);
+            relink(m2, u, u2);
+            push(u);
+            push(u2);
+        }
+        set(t, v, b, c, u2, n1, t2, f, f1, false);
+        set(t2, v, c, a, t, n2, u, false, f2, f);
+        relink(n2, t, t2);
+        push(t);
+        push(t2);
+        legalize();
+    }
+    /**
+     * Flip pending edges, each opposite corner 0 of its triangle, that are not Delaunay.
+    */
+    private void legalize(){
+        while(pendingSize > 0){
+            int t = pending[--pendingSize];
+            int u = across[3*t+1];
+            if(u < 0 || wall[3*t+1]){
+                continue;
+            }
+            int a = corner[3*t+1];
+            int b = corner[3*t+2];
+            int d = corner[3*u+(slot(u, b)+2)%3];
+            if(incircle(a, b, corner[3*t], d) > 0){
+                flip(t, 1);
+                push(t);
+                push(u);
+            }
+        }
+    }
+    /**
+     * Replace edge 'k' of triangle 't' with the other diagonal of the quad it forms with the
+     * triangle across. The corner of 't' opposite the edge becomes corner 0 of both triangles.
+    */
+    private void flip(int t, int k){
+        int a = corner[3*t+k];
+        int b = corner[3*t+(k+1)%3];
+        int c = corner[3*t+(k+2)%3];
+        int u = across[3*t+k];
+        int j = slot(u, b);
+        int d = corner[3*u+(j+2)%3];
+        int nbc = across[3*t+(k+1)%3];
+        int nca = across[3*t+(k+2)%3];
+        boolean fbc = wall[3*t+(k+1)%3];
+        boolean fca = wall[3*t+(k+2)%3];
+        int mad = across[3*u+(j+1)%3];
+        int mdb = across[3*u+(j+2)%3];
+        boolean gad = wall[3*u+(j+1)%3];
+        boolean gdb = wall[3*u+(j+2)%3];
+        set(t, c, a, d, nca, mad, u, fca, gad, false);
+        set(u, c, d, b, t, mdb, nbc, false, gdb, fbc);
+        relink(mad, u, t);
+        relink(nbc, t, u);
+    }
+    private void set(int t, int a, int b, int c, int na, int nb, int nc, boolean fa, boolean fb, boolean fc){
+        corner[3*t] = a;
+        corner[3*t+1] = b;
+        corner[3*t+2] = c;
+        across[3*t] = na;
+        across[3*t+1] = nb;
+        across[3*t+2] = nc;
+        wall[3*t] = fa;
+        wall[3*t+1] = fb;
+        wall[3*t+2] = fc;
+        vertexTriangle[a] = t;
+        vertexTriangle[b] = t;
+        vertexTriangle[c] = t;
+    }
+    /**
+     * Point triangle 'n' at 'to' where it pointed at 'from'.
+    */
+    private void relink(int n, int from, int to){
+        if(n < 0){
+            return;
+        }
+        for(int k = 0; k != 3; k++){
+            if(across[3*n+k] == from){
+                across[3*n+k] = to;
+            }
+        }
+    }
+    /**
+     * Mark 'edge' and its twin as wall edges.
+    */
+    private void fix(int edge){
+        wall[edge] = true;
+        int u = across[edge];
+        if(u >= 0){
+            wall[3*u+slot(u, corner[next(edge)])] = true;
+        }
+    }
+    /**
+     * Edge between vertices 'a' and 'b' in either direction, -1 if there is none.
+    */
+    private int findEdge(int a, int b){
+        for(int t: fan(a)){
+            int i = slot(t, a);
+            if(corner[3*t+(i+1)%3] == b){
+                return 3*t+i;
+            }
+            if(corner[3*t+(i+2)%3] == b){
+                return 3*t+(i+2)%3;
+            }
+        }
+        return -1;
+    }
+    private static int next(int edge){
+        return edge-edge%3+(edge+1)%3;
+    }
+    private static int prev(int edge){
+        return edge-edge%3+(edge+2)%3;
+    }
+    /**
+     * Triangles around vertex 'v'.
+    */
+    private ArrayList<Integer> fan(int v){
+        ArrayList<Integer> fan = new ArrayList<>();
+        int start = vertexTriangle[v];
+        int t = start;
+        do{
+            fan.add(t);
+            t = across[3*t+slot(t, v)];
+        }while(t >= 0 && t != start);
+        if(t < 0){
+            // On the border, go the other way too
+            t = across[3*start+(slot(start, v)+2)%3];
+            while(t >= 0){
+                fan.add(t);
+                t = across[3*t+(slot(t, v)+2)%3];
+            }
+        }
+        return fan;
+    }
+    /**
+     * Corner of triangle 't' that is vertex 'v'.
+    */
+    private int slot(int t, int v){
+        return corner[3*t] == v ? 0 : corner[3*t+1] == v ? 1 : 2;
+    }
+    private int vertex(double x, double y){
+        if(vertices == vertexX.length){
+            vertexX = Arrays.copyOf(vertexX, vertices*2);
+            vertexY = Arrays.copyOf(vertexY, vertices*2);
+            vertexTriangle = Arrays.copyOf(vertexTriangle, vertices*2);
+        }
+        vertexX[vertices] = x;
+        vertexY[vertices] = y;
+        index.put(point(x, y), vertices);
+        return vertices++;
+    }
+    private int triangle(){
+        if(3*triangles == corner.length){
+            corner = Arrays.copyOf(corner, corner.length*2);
+            across = Arrays.copyOf(across, across.length*2);
+            wall = Arrays.copyOf(wall, wall.length*2);
+        }
+        return triangles++;
+    }
+    private void push(int t){
+        if(pendingSize == pending.length){
+            pending = Arrays.copyOf(pending, pendingSize*2);
+        }
+        pending[pendingSize++] = t;
+    }
+    /**
+     * Twice the signed area of triangle a, b, c. Positive iff counter clockwise.
+    */
+    private static double orient(double ax, double ay, double bx, double by, double cx, double cy){
+        return (bx-ax)*(cy-ay)-(by-ay)*(cx-ax);
+    }
+    /**
+     * Positive iff vertex 'd' is inside the circle through counter clockwise vertices 'a', 'b', 'c'.
+    */
+    private double incircle(int a, int b, int c, int d){
+        double adx = vertexX[a]-vertexX[d];
+        double ady = vertexY[a]-vertexY[d];
+        double bdx = vertexX[b]-vertexX[d];
+        double bdy = vertexY[b]-vertexY[d];
+        double cdx = vertexX[c]-vertexX[d];
+        double cdy = vertexY[c]-vertexY[d];
+        double ad = adx*adx+ady*ady;
+        double bd = bdx*bdx+bdy*bdy;
+        double cd = cdx*cdx+cdy*cdy;
+        return adx*(bdy*cd-bd*cdy)-ady*(bdx*cd-bd*cdx)+ad*(bdx*cdy-bdy*cdx);
+    }
+    private static double distance(double ax, double ay, double bx, double by){
+        double x = ax-bx;
+        double y = ay-by;
+        return Math.sqrt(x*x+y*y);
+    }
+    private static ArrayList<Double> point(double x, double y){
+        ArrayList<Double> point = new ArrayList<>();
+        point.add(x);
+        point.add(y);
+        return point;
+    }
+    /**
+     * Per thread search state. A node is a part of a triangle edge seen from a root, the start or a
+     * vertex the path turns at. Nodes are numbered in the order they are pushed and kept until the
+     * next search. The shortest path to each side of a vertex is only valid when its stamp matches
+     * the generation.
+    */
+    private static class Workspace{
+        final NodeHeap heap;
+        int[] root;
+        double[] g;
+        int[] up;
+        int[] sector;
+        int[] edge;
+        double[] lo;
+        double[] hi;
+        int size;
+        int[] fan;
+        double sx;
+        double sy;
+        double ex;
+        double ey;
+        int to;
+        private final double[] best;
+        private final int[] stamp;
+        private int generation;
+        Workspace(int triangles){
+            int capacity = Math.max(16, triangles);
+            heap = new NodeHeap(capacity);
+            root = new int[capacity];
+            g = new double[capacity];
+            up = new int[capacity];
+            sector = new int[capacity];
+            edge = new int[capacity];
+            lo = new double[capacity];
+            hi = new double[capacity];
+            fan = new int[8];
+            best = new double[3*triangles];
+            stamp = new int[3*triangles];
+            generation = 0;
+        }
+        void reset(double sx, double sy, double ex, double ey, int to){
+            heap.clear();
+            size = 0;
+            this.sx = sx;
+            this.sy = sy;
+            this.ex = ex;
+            this.ey = ey;
+            this.to = to;
+            generation++;
+            if(generation <= 0){
+                Arrays.fill(stamp, 0);
+                generation = 1;
+            }
+        }
+        /**
+         * Length of the shortest path turning at the vertex of corner 'slot' from its side.
+        */
+        double best(int slot){
+            return stamp[slot] == generation ? best[slot] : Double.POSITIVE_INFINITY;
+        }
+        void setBest(int slot, double length){
+            stamp[slot] = generation;
+            best[slot] = length;
+        }
+        void push(int root, double g, int up, int sector, int edge, double lo, double hi, double estimate){
+            if(size == this.root.length){
+                int capacity = 2*size;
+                heap.grow(capacity);
+                this.root = Arrays.copyOf(this.root, capacity);
+                this.g = Arrays.copyOf(this.g, capacity);
+                this.up = Arrays.copyOf(this.up, capacity);
+                this.sector = Arrays.copyOf(this.sector, capacity);
+                this.edge = Arrays.copyOf(this.edge, capacity);
+                this.lo = Arrays.copyOf(this.lo, capacity);
+                this.hi = Arrays.copyOf(this.hi, capacity);
+            }
+            this.root[size] = root;
+            this.g[size] = g;
+            this.up[size] = up;
+            this.sector[size] = sector;
+            this.edge[size] = edge;
+            this.lo[size] = lo;
+            this.hi[size] = hi;
+            heap.push(size, estimate);
+            size++;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.Arrays;
+
+/**
+ * NodeHeap is a mutable binary min heap of node numbers 0 to capacity-1 ordered by a double key.
+ * Each node is in the heap at most once and pushing a node again lowers its key.
+ * clear() takes constant time so one heap can be reused for many searches.
+*/
+public class NodeHeap{
+    private int[] heap;
+    private double[] keys;
+    private int[] position;
+    private int[] stamp;
+    private int generation;
+    private int size;
+    /**
+     * Constructs an empty heap for nodes 0 to capacity-1.
+     *
+     * @param capacity number of nodes
+     * @throws IllegalArgumentException capacity < 0
+    */
+    public NodeHeap(int capacity){
+        if(capacity < 0){
+            throw new IllegalArgumentException("Negative capacity!");
+        }
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        stamp = new int[capacity];
+        generation = 1;
+        size = 0;
+    }
+    /**
+     * Returns the number of nodes this heap can hold.
+     *
+     * @return capacity of this heap
+    */
+    public int capacity(){
+        return heap.length;
+    }
+    /**
+     * Grow so nodes up to capacity-1 can be held. Empties the heap.
+     *
+     * @param capacity number of nodes
+     * @spec.modifies this
+    */
+    public void ensureCapacity(int capacity){
+        if(capacity > heap.length){
+            heap = new int[capacity];
+            keys = new double[capacity];
+            position = new int[capacity];
+            stamp = new int[capacity];
+            generation = 0;
+        }
+        clear();
+    }
+    /**
+     * Grow so nodes up to capacity-1 can be held, keeping the nodes in the heap.
+     *
+     * @param capacity number of nodes
+     * @spec.modifies this
+    */
+    public void grow(int capacity){
+        if(capacity > heap.length){
+            heap = Arrays.copyOf(heap, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            position = Arrays.copyOf(position, capacity);
+            stamp = Arrays.copyOf(stamp, capacity);
+        }
+    }
+    /**
+     * Remove every node.
+     *
+     * @spec.modifies this
+    */
+    public void clear(){
+        size = 0;
+        generation++;
+        if(generation == 0){
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+    /**
+     * Returns true iff there are no nodes in the heap.
+     *
+     * @return true iff empty
+    */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+    /**
+     * Returns the number of nodes in the heap.
+     *
+     * @return number of nodes in the heap
+    */
+    public int size(){
+        return size;
+    }
+    /**
+     * Add 'node' with 'key', or lower its key if it is already in the heap with a larger one.
+     *
+     * @param node node to add
+     * @param key key of 'node'
+     * @spec.requires 0 <= node < capacity(), key is not NaN
+     * @spec.modifies this
+    */
+    public void push(int node, double key){
+        if(stamp[node] == generation){
+            int at = position[node];
+            if(key < keys[at]){
+                keys[at] = key;
+                up(at);
+            }
+            return;
+        }
+        stamp[node] = generation;
+        heap[size] = node;
+        keys[size] = key;
+        position[node] = size;
+        size++;
+        up(size-1);
+    }
+    /**
+     * Returns the key of the smallest node.
+     *
+     * @spec.requires !isEmpty()
+     * @return smallest key
+    */
+    public double peekKey(){
+        return keys[0];
+    }
+    /**
+     * Remove and return the node with the smallest key. A popped node may be pushed again.
+     *
+     * @spec.requires !isEmpty()
+     * @spec.modifies this
+     * @return node with the smallest key
+    */
+    public int pop(){
+        int top = heap[0];
+        stamp[top] = generation-1;
+        size--;
+        if(size != 0){
+            heap[0] = heap[size];
+            keys[0] = keys[size];
+            position[heap[0]] = 0;
+            down(0);
+        }
+        return top;
+    }
+    private void up(int at){
+        int node = heap[at];
+        double key = keys[at];
+        while(at > 0){
+            int parent = (at-1)/2;
+            if(keys[parent] <= key){
+                break;
+            }
+            heap[at] = heap[parent];
+            keys[at] = keys[parent];
+            position[heap[at]] = at;
+            at = parent;
+        }
+        heap[at] = node;
+        keys[at] = key;
+        position[node] = at;
+    }
+    private void down(int at){
+        int node = heap[at];
+        double key = keys[at];
+        while(true){
+            int child = 2*at+1;
+            if(child >= size){
+                break;
+            }
+            if(child+1 < size && keys[child+1] < keys[child]){
+                child++;
+            }
+            if(keys[child] >= key){
+                break;
+            }
+            heap[at] = heap[child];
+            keys[at] = keys[child];
+            position[heap[at]] = at;
+            at = child;
+        }
+        heap[at] = node;
+        keys[at] = key;
+        position[node] = at;
+    }
+}
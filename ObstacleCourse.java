@@ -7,11 +7,14 @@ import java.util.Set;
 */
 public class ObstacleCourse{
     private final Set<LineSegment> walls;
+    private volatile WallGrid grid;
+    private final int removed;
     /**
      * Constructs a new linSegment
     */
     ObstacleCourse(){
         walls = new HashSet<LineSegment>();
+        removed = 0;
     }
     /**
      * Constructs a new linSegment
@@ -21,16 +24,32 @@ public class ObstacleCourse{
      * @throws IllegalArgumentException odd number of coordinates input
     */
     ObstacleCourse(ArrayList<Double[]> coordintes){
+        this(coordintes, new WallPreprocessor());
+    }
+    /**
+     * Constructs a new ObstacleCourse whose walls are cleaned up by 'preprocessor' first.
+     * 
+     * @param coordinates Coordinate of LineSegments. Coordinates come in pairs for each LineSegment.
+     * @param preprocessor cleans up the walls. null to keep every wall as given.
+     * @requires no null data
+     * @throws IllegalArgumentException odd number of coordinates input
+    */
+    ObstacleCourse(ArrayList<Double[]> coordintes, WallPreprocessor preprocessor){
         if(coordintes.size()%2 != 0){
             throw new IllegalArgumentException("Odd number of coordinates input");
         }
-        walls = new HashSet<LineSegment>();
+        ArrayList<LineSegment> lines = new ArrayList<>();
         for(int i = 0; i != coordintes.size(); i+=2){
             Double[] tail = coordintes.get(i);
             Double[] head = coordintes.get(i+1);
             LineSegment line = new LineSegment(head, tail);
-            walls.add(line);
+            lines.add(line);
         }
+        if(preprocessor != null){
+            lines = preprocessor.process(lines);
+        }
+        walls = new HashSet<LineSegment>(lines);
+        removed = coordintes.size()/2-walls.size();
     }
     public static void main(String[] args) {
         ObstacleCourse ob = new ObstacleCourse();
@@ -61,6 +80,7 @@ public class ObstacleCourse{
     public void addWall(LineSegment wall){
         LineSegment new_wall = wall.clone();
         walls.add(new_wall);
+        grid = null;
     }
     /**
      * Checks to see if the input LineSegment collides with any inner LineSegments
@@ -89,12 +109,7 @@ public class ObstacleCourse{
      * Returns a lineSegment
     */
     private LineSegment getCollision(LineSegment input){
-        for(LineSegment line: walls){
-            if(line.collision(input)){
-                return line;
-            }
-        }
-        return null;
+        return grid().collide(input);
     }
     /**
      * Returns that closest coliding LineSegment. If non exisits return null
@@ -125,6 +140,80 @@ public class ObstacleCourse{
         }
         return collision;
     }
+    /**
+     * Cast a batch of rays and store the nearest wall each one hits. See WallGrid.raycast.
+     * Wall numbers stay valid until the next addWall.
+     * 
+     * @param originX x coordinate of each ray start
+     * @param originY y coordinate of each ray start
+     * @param directionX x direction of each ray
+     * @param directionY y direction of each ray
+     * @param maxDistance longest distance a ray travels
+     * @param hitDistance output distance to the nearest hit, infinity if none
+     * @param hitX output x coordinate of the nearest hit, NaN if none
+     * @param hitY output y coordinate of the nearest hit, NaN if none
+     * @param hitWall output number of the nearest wall hit, -1 if none
+     * @spec.requires no null inputs, all arrays as long as originX, no zero directions
+     * @spec.modifies hitDistance, hitX, hitY, hitWall
+    */
+    public void raycast(double[] originX, double[] originY, double[] directionX, double[] directionY,
+     double maxDistance, double[] hitDistance, double[] hitX, double[] hitY, int[] hitWall){
+        grid().raycast(originX, originY, directionX, directionY, maxDistance,
+         hitDistance, hitX, hitY, hitWall);
+    }
+    /**
+     * Checks many LineSegments at once. See WallGrid.collide.
+     * 
+     * @param inputs line segments to check
+     * @param hits output true iff inputs[i] collides with atleast one wall
+     * @spec.requires no null inputs, hits.length >= inputs.length
+     * @spec.modifies hits
+    */
+    public void collision(LineSegment[] inputs, boolean[] hits){
+        grid().collide(inputs, hits);
+    }
+    /**
+     * Returns the wall with number 'id' as reported by raycast.
+     * 
+     * @param id wall number
+     * @spec.requires 0 <= id < number of walls
+     * @return wall number 'id'
+    */
+    public LineSegment getWall(int id){
+        return grid().wall(id);
+    }
+    /**
+     * Returns the number of walls. Walls are numbered 0 to wallCount()-1 until the next addWall.
+     * 
+     * @return number of walls
+    */
+    public int wallCount(){
+        return grid().size();
+    }
+    /**
+     * Returns how many of the walls given to the constructor were merged, duplicates or dropped.
+     * 
+     * @return number of walls removed when this was built
+    */
+    public int removedWalls(){
+        return removed;
+    }
+    /**
+     * Returns the grid over the current walls, building it if walls changed.
+    */
+    private WallGrid grid(){
+        WallGrid current = grid;
+        if(current == null){
+            synchronized(this){
+                current = grid;
+                if(current == null){
+                    current = new WallGrid(walls);
+                    grid = current;
+                }
+            }
+        }
+        return current;
+    }
     public void draw(){
         for(LineSegment line: walls){
             line.draw();
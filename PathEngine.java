@@ -0,0 +1,39 @@
+import java.util.ArrayList;
+
+/**
+ * A PathEngine finds paths between 2d points around the walls of one map.
+ * Different engines trade build time, memory and path quality, so each map picks its own.
+*/
+public interface PathEngine{
+    /**
+     * Find quickest path from 'start' to 'end'. Neither point has to be known to the engine.
+     * 
+     * @param start point to start at
+     * @param end point to end at
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @return path from 'start' to 'end' as an ArrayList of 2d coordinates, or null if none exists
+    */
+    ArrayList<ArrayList<Double>> PathFind(ArrayList<Double> start, ArrayList<Double> end);
+    /**
+     * Find quickest path from 'start' to 'end' as a WaypointPath. Engines that can build it without
+     * a list of boxed coordinates in between should override this.
+     * 
+     * @param start point to start at
+     * @param end point to end at
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @return path from 'start' to 'end', or null if none exists
+    */
+    default WaypointPath PathFindWaypoints(ArrayList<Double> start, ArrayList<Double> end){
+        return WaypointPath.of(PathFind(start, end));
+    }
+    /**
+     * Indicate if the two points have line of sight.
+     * 
+     * @param point1 the first point
+     * @param point2 the second point
+     * @spec.requires no null inputs, point1.size() == 2, point2.size() == 2
+     * @return true iff the two points have line of sight
+    */
+    boolean lineOfSight(ArrayList<Double> point1, ArrayList<Double> point2);
+    void draw();
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+
+/**
+ * A PathFollower is a mutable cursor into a WaypointPath: the index of the next point to reach and,
+ * for timed plans, the move count at which each point may be left. Moving on to the next point
+ * only changes the index, so following a path costs constant time and allocates nothing.
+*/
+public class PathFollower{
+    private WaypointPath path;
+    private double[] departures;
+    private int next;
+    private int clock;
+    /**
+     * Constructs a follower with no path.
+    */
+    public PathFollower(){
+        path = null;
+        departures = null;
+        next = 0;
+        clock = 0;
+    }
+    /**
+     * Start following 'path' from its first point.
+     *
+     * @param path path to follow, or null to stop
+     * @spec.modifies this
+    */
+    public void follow(WaypointPath path){
+        follow(path, null);
+    }
+    /**
+     * Start following 'path' from its first point, staying at point i until departures[i] moves
+     * after this call.
+     *
+     * @param path path to follow, or null to stop
+     * @param departures earliest move to leave each point, or null to never wait
+     * @spec.requires departures == null or departures.length == path.size()
+     * @spec.modifies this
+    */
+    public void follow(WaypointPath path, double[] departures){
+        follow(path, departures, 0);
+    }
+    /**
+     * Start following 'path' from point 'from', staying at point i until departures[i] moves
+     * after this call.
+     *
+     * @param path path to follow, or null to stop
+     * @param departures earliest move to leave each point, or null to never wait
+     * @param from index of the first point to go to
+     * @spec.requires departures == null or departures.length == path.size(), path == null or
+     * 0 <= from < path.size()
+     * @spec.modifies this
+    */
+    public void follow(WaypointPath path, double[] departures, int from){
+        this.path = path;
+        this.departures = path == null ? null : departures;
+        next = from;
+        clock = 0;
+    }
+    /**
+     * Indicate if there is a point left to go to.
+     *
+     * @return false iff there is no path or every point has been reached
+    */
+    public boolean active(){
+        return path != null && next != path.size();
+    }
+    /**
+     * Returns the x coordinate of the point being gone to.
+     *
+     * @spec.requires active()
+     * @return x coordinate of the next point
+    */
+    public double targetX(){
+        return path.x(next);
+    }
+    /**
+     * Returns the y coordinate of the point being gone to.
+     *
+     * @spec.requires active()
+     * @return y coordinate of the next point
+    */
+    public double targetY(){
+        return path.y(next);
+    }
+    /**
+     * Count one move and go on to the following point if ('x', 'y') is within 'radius' of the one
+     * being gone to and it may be left. Does nothing if not active().
+     *
+     * @param x x coordinate after the move
+     * @param y y coordinate after the move
+     * @param radius distance at which a point counts as reached
+     * @spec.modifies this
+     * @return true iff the point was passed
+    */
+    public boolean arrive(double x, double y, double radius){
+        if(!active()){
+            return false;
+        }
+        if(departures != null){
+            clock++;
+        }
+        double dx = path.x(next)-x;
+        double dy = path.y(next)-y;
+        if(dx*dx+dy*dy >= radius*radius || (departures != null && clock < departures[next])){
+            return false;
+        }
+        next++;
+        if(next == path.size()){
+            path = null;
+            departures = null;
+        }
+        return true;
+    }
+    /**
+     * Returns the path being followed.
+     *
+     * @return path being followed, null once it has been finished or if there is none
+    */
+    public WaypointPath path(){
+        return path;
+    }
+    /**
+     * Returns the index into path() of the point being gone to.
+     *
+     * @return index of the next point
+    */
+    public int index(){
+        return next;
+    }
+    /**
+     * Returns the points not yet reached as a new list.
+     *
+     * @return new list of the points left, null if not active()
+    */
+    public ArrayList<ArrayList<Double>> remaining(){
+        return active() ? path.toList(next) : null;
+    }
+}
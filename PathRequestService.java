@@ -0,0 +1,314 @@
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PathRequestService answers path requests off the caller's thread. Requests are run on a fixed
+ * number of worker threads, earliest deadline first. Requests whose start and end fall in the same
+ * cells of size 'mergeRadius' as a request that has not started yet share its search. A shared
+ * search is queued by the earliest deadline of its callers and each caller gets its own start and
+ * end put on the path, or its own search where they cannot see the path.
+ * When more than 'maxPending' searches are waiting new requests are shed or degraded.
+*/
+public class PathRequestService implements AutoCloseable{
+    /**
+     * What to do with a request that arrives while the service is full.
+    */
+    public enum Overload{
+        /** Fail the request with a RejectedExecutionException. */
+        SHED,
+        /** Answer with a straight line if 'start' can see 'end', otherwise shed. */
+        DEGRADE
+    }
+    private final PathEngine graph;
+    private final ThreadPoolExecutor workers;
+    private final Map<Key, Request> waiting;
+    private final AtomicInteger pending;
+    private final AtomicLong order;
+    private final int maxPending;
+    private final double mergeRadius;
+    private final Overload overload;
+    /**
+     * Constructs a service answering queries with 'graph'.
+     *
+     * @param graph engine to search with
+     * @param threads number of worker threads
+     * @param maxPending most searches allowed to wait for a worker
+     * @param mergeRadius requests this close together are merged. 0 only merges identical requests.
+     * @param overload what to do with requests over 'maxPending'
+     * @spec.requires graph != null, overload != null
+     * @throws IllegalArgumentException threads < 1 || maxPending < 1 || mergeRadius < 0
+    */
+    public PathRequestService(PathEngine graph, int threads, int maxPending, double mergeRadius,
+     Overload overload){
+        if(threads < 1 || maxPending < 1 || mergeRadius < 0){
+            throw new IllegalArgumentException("Invalid service limits!");
+        }
+        this.graph = graph;
+        this.maxPending = maxPending;
+        this.mergeRadius = mergeRadius;
+        this.overload = overload;
+        waiting = new ConcurrentHashMap<>();
+        pending = new AtomicInteger();
+        order = new AtomicLong();
+        // Only Comparable Requests are executed so the queue orders them by deadline
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+         new PriorityBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, "path-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    /**
+     * Request the quickest path from 'start' to 'end'. The returned future completes with the same
+     * value PathFind would return, or exceptionally if the request was shed or missed its deadline.
+     *
+     * @param start point to start at
+     * @param end point to end at
+     * @param deadlineNanos System.nanoTime() value the answer is needed by
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @return future path from 'start' to 'end'. Each caller gets its own copy of the path and
+     * only misses its own deadline.
+    */
+    public CompletableFuture<ArrayList<ArrayList<Double>>> request(ArrayList<Double> start,
+     ArrayList<Double> end, long deadlineNanos){
+        Key key = new Key(start, end, mergeRadius);
+        ArrayList<Double> from = new ArrayList<>(start);
+        ArrayList<Double> to = new ArrayList<>(end);
+        while(true){
+            Request request = waiting.get(key);
+            if(request != null){
+                if(request.merge(deadlineNanos)){
+                    return request.answer(from, to, deadlineNanos);
+                }
+                // The request started running while we looked. Try again.
+                waiting.remove(key, request);
+                continue;
+            }
+            if(!reserve()){
+                return overloaded(start, end);
+            }
+            request = new Request(key, from, to, deadlineNanos, order.getAndIncrement());
+            if(waiting.putIfAbsent(key, request) != null){
+                pending.decrementAndGet();
+                continue;
+            }
+            try{
+                workers.execute(request);
+            }catch(RejectedExecutionException e){
+                waiting.remove(key, request);
+                pending.decrementAndGet();
+                request.result.completeExceptionally(e);
+            }
+            return request.answer(from, to, deadlineNanos);
+        }
+    }
+    /**
+     * Returns the number of searches waiting for a worker.
+     *
+     * @return number of searches waiting for a worker
+    */
+    public int pending(){
+        return pending.get();
+    }
+    /**
+     * Stops the workers. Waiting requests are failed.
+    */
+    @Override
+    public void close(){
+        for(Runnable runnable: workers.shutdownNow()){
+            Request request = (Request) runnable;
+            synchronized(request){
+                request.started = true;
+            }
+            waiting.remove(request.key, request);
+            pending.decrementAndGet();
+            request.result.completeExceptionally(new RejectedExecutionException("Service closed"));
+        }
+    }
+    /**
+     * Take one of the 'maxPending' places. Returns false if they are all taken.
+    */
+    private boolean reserve(){
+        for(int count = pending.get(); count < maxPending; count = pending.get()){
+            if(pending.compareAndSet(count, count+1)){
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Answer a request that arrived while full.
+    */
+    private CompletableFuture<ArrayList<ArrayList<Double>>> overloaded(ArrayList<Double> start,
+     ArrayList<Double> end){
+        if(overload == Overload.DEGRADE && !start.equals(end) && graph.lineOfSight(start, end)){
+            ArrayList<ArrayList<Double>> straight = new ArrayList<>();
+            straight.add(new ArrayList<>(start));
+            straight.add(new ArrayList<>(end));
+            return CompletableFuture.completedFuture(straight);
+        }
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Too many path requests"));
+    }
+    /**
+     * Shallow copy so callers may consume their path without affecting others.
+    */
+    private static ArrayList<ArrayList<Double>> copy(ArrayList<ArrayList<Double>> path){
+        if(path == null){
+            return null;
+        }
+        return new ArrayList<>(path);
+    }
+    /**
+     * A search waiting for or running on a worker.
+    */
+    private class Request implements Runnable, Comparable<Request>{
+        final Key key;
+        final ArrayList<Double> start;
+        final ArrayList<Double> end;
+        final long order;
+        final CompletableFuture<ArrayList<ArrayList<Double>>> result;
+        volatile long deadline;
+        long latest;
+        volatile long begun;
+        boolean started;
+        Request(Key key, ArrayList<Double> start, ArrayList<Double> end, long deadline, long order){
+            this.key = key;
+            this.start = start;
+            this.end = end;
+            this.deadline = deadline;
+            this.order = order;
+            latest = deadline;
+            result = new CompletableFuture<>();
+        }
+        /**
+         * Join this request. Returns false if it has already started.
+        */
+        synchronized boolean merge(long deadline){
+            if(started){
+                return false;
+            }
+            if(deadline - latest > 0){
+                latest = deadline;
+            }
+            if(deadline - this.deadline < 0){
+                // Move forward in the queue. Deadline only changes while out of the queue.
+                if(workers.getQueue().remove(this)){
+                    this.deadline = deadline;
+                    workers.getQueue().add(this);
+                }
+            }
+            return true;
+        }
+        /**
+         * Future answer for a caller going from 'start' to 'end' by 'deadline'. It fails if the
+         * search began after 'deadline'.
+        */
+        CompletableFuture<ArrayList<ArrayList<Double>>> answer(ArrayList<Double> start,
+         ArrayList<Double> end, long deadline){
+            return result.thenApply(path -> {
+                if(begun - deadline > 0){
+                    throw new CompletionException(new TimeoutException("Path request missed its deadline"));
+                }
+                return fit(path, start, end);
+            });
+        }
+        /**
+         * The shared path with its ends moved to 'start' and 'end', if they can see the points next
+         * to them. Otherwise the caller's own path.
+        */
+        private ArrayList<ArrayList<Double>> fit(ArrayList<ArrayList<Double>> path, ArrayList<Double> start,
+         ArrayList<Double> end){
+            if(start.equals(this.start) && end.equals(this.end)){
+                return copy(path);
+            }
+            if(path != null && path.size() >= 2 && !start.equals(end)){
+                int last = path.size()-1;
+                ArrayList<Double> after = last == 1 ? end : path.get(1);
+                ArrayList<Double> before = last == 1 ? start : path.get(last-1);
+                if(graph.lineOfSight(start, after) && graph.lineOfSight(before, end)){
+                    ArrayList<ArrayList<Double>> fitted = copy(path);
+                    fitted.set(0, start);
+                    fitted.set(last, end);
+                    return fitted;
+                }
+            }
+            return graph.PathFind(start, end);
+        }
+        @Override
+        public void run(){
+            long latest;
+            synchronized(this){
+                started = true;
+                latest = this.latest;
+            }
+            waiting.remove(key, this);
+            pending.decrementAndGet();
+            begun = System.nanoTime();
+            if(begun - latest > 0){
+                result.completeExceptionally(new TimeoutException("Path request missed its deadline"));
+                return;
+            }
+            try{
+                result.complete(graph.PathFind(start, end));
+            }catch(RuntimeException e){
+                result.completeExceptionally(e);
+            }
+        }
+        @Override
+        public int compareTo(Request other){
+            long a = deadline;
+            long b = other.deadline;
+            if(a - b < 0){
+                return -1;
+            }if(a - b > 0){
+                return 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+    /**
+     * Start and end points rounded to cells of size 'radius'.
+    */
+    private static class Key{
+        private final long startX;
+        private final long startY;
+        private final long endX;
+        private final long endY;
+        Key(ArrayList<Double> start, ArrayList<Double> end, double radius){
+            startX = cell(start.get(0), radius);
+            startY = cell(start.get(1), radius);
+            endX = cell(end.get(0), radius);
+            endY = cell(end.get(1), radius);
+        }
+        private static long cell(double value, double radius){
+            if(radius == 0){
+                return Double.doubleToLongBits(value);
+            }
+            return (long) Math.floor(value/radius);
+        }
+        @Override
+        public int hashCode(){
+            return Long.hashCode(startX)*31*31*31+Long.hashCode(startY)*31*31
+             +Long.hashCode(endX)*31+Long.hashCode(endY);
+        }
+        @Override
+        public boolean equals(Object ob){
+            if(!(ob instanceof Key)){
+                return false;
+            }
+            Key other = (Key) ob;
+            return startX == other.startX && startY == other.startY
+             && endX == other.endX && endY == other.endY;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * PathSearch is a resumable A* search from 'start' to 'end', or to the nearest goal of a GoalSet,
+ * through a TwoWayGraph.
+ * Each call to step does a bounded amount of work and the open set is kept between calls,
+ * so a long search can be spread over many ticks. 'start' and 'end' do not have to be in graph.
+ * Points outside the graph are linked in by the first steps, one node per expansion of the
+ * budget, so neither the constructor nor a restart measures or tests any node.
+ * If the graph is changed between steps the search starts over. On a lazy graph each edge is
+ * checked when the node it leads to is about to be settled through it.
+*/
+public class PathSearch{
+    /**
+     * State of a search after a step.
+    */
+    public enum Status{
+        /** The search needs more steps. */
+        IN_PROGRESS,
+        /** A quickest path has been found. */
+        FOUND,
+        /** No path exists. */
+        NO_PATH
+    }
+    private final TwoWayGraph graph;
+    private final ArrayList<Double> start;
+    private final ArrayList<Double> end;
+    private final GoalSet goals;
+    private final boolean anytime;
+    private final PriorityQueue<Entry> active;
+    private final Set<ArrayList<Double>> finished;
+    private final Map<ArrayList<Double>, Double> distance;
+    private final Map<ArrayList<Double>, ArrayList<Double>> prev;
+    private Set<ArrayList<Double>> startLinks;
+    private Set<ArrayList<Double>> endLinks;
+    private Map<ArrayList<Double>, ArrayList<ArrayList<Double>>> goalLinks;
+    private GraphIndex nodes;
+    private ArrayList<ArrayList<Double>> outside;
+    private double[] startClosest;
+    private double[] endClosest;
+    private int checked;
+    private boolean linked;
+    private boolean started;
+    private ArrayList<Double> reached;
+    private int version;
+    private Status status;
+    private ArrayList<Double> closest;
+    private double closestRemaining;
+    /**
+     * Constructs a search from 'start' to 'end'.
+     *
+     * @param graph graph to search
+     * @param start point to start at
+     * @param end point to end at
+     * @param anytime iff true path() returns the best partial path while the search is in progress
+     * @spec.requires no null inputs, start.size() == 2, end.size() == 2
+    */
+    public PathSearch(TwoWayGraph graph, ArrayList<Double> start, ArrayList<Double> end, boolean anytime){
+        this(graph, start, end, null, anytime);
+    }
+    /**
+     * Constructs a search from 'start' to whichever of 'goals' is nearest. The search stops when
+     * the first goal is settled.
+     *
+     * @param graph graph to search
+     * @param start point to start at
+     * @param goals goals registered with 'graph'
+     * @param anytime iff true path() returns the best partial path while the search is in progress
+     * @spec.requires no null inputs, start.size() == 2
+     * @throws IllegalArgumentException 'goals' were registered with another graph
+    */
+    public PathSearch(TwoWayGraph graph, ArrayList<Double> start, GoalSet goals, boolean anytime){
+        this(graph, start, null, goals, anytime);
+    }
+    private PathSearch(TwoWayGraph graph, ArrayList<Double> start, ArrayList<Double> end, GoalSet goals,
+     boolean anytime){
+        if(goals != null && goals.graph() != graph){
+            throw new IllegalArgumentException("Goals belong to another graph");
+        }
+        this.graph = graph;
+        this.start = start;
+        this.end = end;
+        this.goals = goals;
+        this.anytime = anytime;
+        active = new PriorityQueue<>();
+        finished = new HashSet<>();
+        distance = new HashMap<>();
+        prev = new HashMap<>();
+        // Linking waits for the first step so it counts against a budget
+        status = Status.IN_PROGRESS;
+        started = false;
+        linked = false;
+    }
+    /**
+     * Expand at most 'maxExpansions' nodes or until 'maxNanos' nanoseconds have passed,
+     * whichever comes first. While 'start' and 'end' are being linked in each node measured or
+     * tested counts as one expansion. At least one expansion or test is done per call.
+     *
+     * @param maxExpansions most nodes to expand
+     * @param maxNanos most time to spend
+     * @return status of the search after this step
+    */
+    public Status step(int maxExpansions, long maxNanos){
+        if(status != Status.IN_PROGRESS){
+            return status;
+        }
+        long began = System.nanoTime();
+        Lock lock = graph.queryLock();
+        lock.lock();
+        try{
+            if(!started || version != graph.version()){
+                restart();
+                if(status != Status.IN_PROGRESS){
+                    return status;
+                }
+            }
+            for(int expanded = 0; expanded < maxExpansions || expanded == 0; expanded++){
+                if(expanded != 0 && System.nanoTime()-began >= maxNanos){
+                    break;
+                }
+                if(!linked){
+                    link();
+                }else if(!expand()){
+                    break;
+                }
+            }
+        }finally{
+            lock.unlock();
+        }
+        return status;
+    }
+    /**
+     * Run the search to completion.
+     *
+     * @return FOUND or NO_PATH
+    */
+    public Status run(){
+        return step(Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+    /**
+     * Returns the state of the search.
+     *
+     * @return state of the search
+    */
+    public Status status(){
+        return status;
+    }
+    /**
+     * Returns the goal the search reached.
+     *
+     * @return 'end' or the nearest goal once found, otherwise null
+    */
+    public ArrayList<Double> goal(){
+        return status == Status.FOUND ? reached : null;
+    }
+    /**
+     * Returns the quickest path once found. In anytime mode while the search is in progress
+     * returns the path to the settled node closest to 'end' instead.
+     *
+     * @return quickest path from 'start' to 'end' or the nearest goal, best partial path, or null
+    */
+    public ArrayList<ArrayList<Double>> path(){
+        if(status == Status.FOUND){
+            return trace(reached);
+        }
+        if(status == Status.IN_PROGRESS && anytime && closest != null){
+            return trace(closest);
+        }
+        return null;
+    }
+    /**
+     * Clear all progress and queue the tests that link 'start' and 'end' into the graph again.
+     *
+     * @spec.requires caller holds the graph's query lock
+    */
+    private void restart(){
+        active.clear();
+        finished.clear();
+        distance.clear();
+        prev.clear();
+        closest = null;
+        closestRemaining = Double.POSITIVE_INFINITY;
+        version = graph.version();
+        reached = null;
+        started = true;
+        linked = false;
+        checked = 0;
+        status = Status.IN_PROGRESS;
+        if(goals != null){
+            restartGoals();
+            return;
+        }
+        if(start.equals(end)){
+            reached = start;
+            prev.put(start, null);
+            status = Status.FOUND;
+            return;
+        }
+        // Points outside the graph are linked in for this search only
+        nodes = graph.index();
+        startLinks = nodes.find(start) < 0 ? new HashSet<>() : null;
+        endLinks = nodes.find(end) < 0 ? new HashSet<>() : null;
+        startClosest = startLinks != null && graph.nearest() > 0 ? nodes.closest() : null;
+        endClosest = endLinks != null && graph.nearest() > 0 ? nodes.closest() : null;
+    }
+    /**
+     * Queue the tests that link 'start' in for this search. The goals use their cached links.
+     *
+     * @spec.requires caller holds the graph's query lock
+    */
+    private void restartGoals(){
+        if(goals.contains(start)){
+            distance.put(start, 0.);
+            reached = start;
+            prev.put(start, null);
+            status = Status.FOUND;
+            return;
+        }
+        goalLinks = goals.into();
+        nodes = graph.index();
+        startLinks = nodes.find(start) < 0 ? new HashSet<>() : null;
+        startClosest = startLinks != null && graph.nearest() > 0 ? nodes.closest() : null;
+        // Goals outside the graph can only be reached from 'start' in a straight line
+        outside = goals.outside();
+        endLinks = null;
+        endClosest = null;
+    }
+    /**
+     * Do one step towards linking 'start' and 'end' in. With a 'nearest' limit each node is first
+     * measured from both to find how far their nearest nodes reach, then each node is tested for
+     * an edge from 'start' and then from 'end'. Once every node is done 'start' is queued and the
+     * search proper begins.
+     *
+     * @spec.requires caller holds the graph's query lock
+    */
+    private void link(){
+        int n = nodes.size();
+        int measures = startClosest != null || endClosest != null ? n : 0;
+        int starts = startLinks == null ? 0 : n;
+        int ends = goals != null ? (startLinks == null ? 0 : outside.size()) : (endLinks == null ? 0 : n);
+        if(checked < measures){
+            int i = checked++;
+            if(startClosest != null){
+                GraphIndex.keep(startClosest, nodes.distance(start, i));
+            }
+            if(endClosest != null){
+                GraphIndex.keep(endClosest, nodes.distance(end, i));
+            }
+            return;
+        }
+        if(checked < measures+starts){
+            int i = checked++ - measures;
+            // A lazy graph tests these links when they are used
+            if(graph.linkable(start, nodes, i, reach(startClosest))
+             && (graph.isLazy() || graph.lineOfSight(start, nodes.nodes[i]))){
+                startLinks.add(nodes.nodes[i]);
+            }
+            return;
+        }
+        if(checked < measures+starts+ends){
+            int i = checked++ - measures-starts;
+            if(goals != null){
+                ArrayList<Double> goal = outside.get(i);
+                if(graph.linkable(start, goal) && graph.lineOfSight(start, goal)){
+                    startLinks.add(goal);
+                }
+            }else if(graph.linkable(end, nodes, i, reach(endClosest))
+             && (graph.isLazy() || graph.lineOfSight(end, nodes.nodes[i]))){
+                endLinks.add(nodes.nodes[i]);
+            }
+            return;
+        }
+        if(goals == null && startLinks != null && endLinks != null && graph.linkable(start, end)
+         && graph.lineOfSight(start, end)){
+            startLinks.add(end);
+        }
+        linked = true;
+        active.add(new Entry(start, null, 0., heuristic(start)));
+        distance.put(start, 0.);
+    }
+    /**
+     * Returns how far the nearest nodes of a point reach from its shortest distances.
+    */
+    private static double reach(double[] closest){
+        return closest == null ? Double.POSITIVE_INFINITY : closest[closest.length-1];
+    }
+    /**
+     * Settle the next node. Returns false once the search is over.
+    */
+    private boolean expand(){
+        Entry current = null;
+        while(!active.isEmpty()){
+            current = active.remove();
+            if(!finished.contains(current.point)){
+                break;
+            }
+            current = null;
+        }
+        if(current == null){
+            status = Status.NO_PATH;
+            return false;
+        }
+        ArrayList<Double> point = current.point;
+        if(current.from != null && !graph.edgeClear(current.from, point)){
+            // Blocked. Other ways into 'point' are still queued.
+            return true;
+        }
+        finished.add(point);
+        prev.put(point, current.from);
+        if(goals == null ? point.equals(end) : goals.contains(point)){
+            reached = point;
+            status = Status.FOUND;
+            return false;
+        }
+        double remaining = current.estimate-current.length;
+        if(remaining < closestRemaining){
+            closestRemaining = remaining;
+            closest = point;
+        }
+        if(startLinks != null && point.equals(start)){
+            relax(current, startLinks);
+        }else{
+            relax(current, graph.edges(point));
+        }
+        if(goals != null){
+            ArrayList<ArrayList<Double>> reachable = goalLinks.get(point);
+            if(reachable != null){
+                relax(current, reachable);
+            }
+        }else if(endLinks != null && endLinks.contains(point)){
+            relax(current, Collections.singleton(end));
+        }
+        return true;
+    }
+    /**
+     * Offer the children of 'current' to the open set.
+    */
+    private void relax(Entry current, Collection<ArrayList<Double>> children){
+        for(ArrayList<Double> child: children){
+            if(finished.contains(child)){
+                continue;
+            }
+            double length = current.length+length(current.point, child);
+            Double known = distance.get(child);
+            // A lazy graph may reject the shorter way later so every way in is kept
+            if(known == null || known > length || graph.isLazy()){
+                if(known == null || known > length){
+                    distance.put(child, length);
+                }
+                active.add(new Entry(child, current.point, length, length+heuristic(child)));
+            }
+        }
+    }
+    /**
+     * Follow predecessors back from 'place' to 'start'.
+    */
+    private ArrayList<ArrayList<Double>> trace(ArrayList<Double> place){
+        ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+        while(place != null){
+            goal.add(place);
+            place = prev.get(place);
+        }
+        Collections.reverse(goal);
+        return goal;
+    }
+    private double heuristic(ArrayList<Double> point){
+        return goals == null ? length(point, end) : goals.distance(point);
+    }
+    private static double length(ArrayList<Double> a, ArrayList<Double> b){
+        double x = a.get(0)-b.get(0);
+        double y = a.get(1)-b.get(1);
+        return Math.sqrt(x*x+y*y);
+    }
+    /**
+     * Open set entry ordered by estimated total length.
+    */
+    private static class Entry implements Comparable<Entry>{
+        final ArrayList<Double> point;
+        final ArrayList<Double> from;
+        final double length;
+        final double estimate;
+        Entry(ArrayList<Double> point, ArrayList<Double> from, double length, double estimate){
+            this.point = point;
+            this.from = from;
+            this.length = length;
+            this.estimate = estimate;
+        }
+        public int compareTo(Entry other){
+            return Double.compare(estimate, other.estimate);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+/**
+ * A ReservationTable is a mutable set of (resource, window) pairs, where a resource is a node or
+ * edge number and a window is a number of a stretch of time. Pairs are packed into one long and kept
+ * in an open addressing hash table with linear probing, so each reservation costs 8 to 16 bytes and
+ * no objects. Removing shifts later entries back rather than leaving markers behind.
+*/
+class ReservationTable{
+    private static final long EMPTY = -1;
+    private long[] keys;
+    private int size;
+    private int mask;
+    /**
+     * Constructs an empty table.
+    */
+    ReservationTable(){
+        keys = new long[16];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length-1;
+        size = 0;
+    }
+    /**
+     * Returns the number of reservations.
+     *
+     * @return number of pairs held
+    */
+    int size(){
+        return size;
+    }
+    /**
+     * Indicate if 'resource' is reserved in 'window'.
+     *
+     * @param resource node or edge number
+     * @param window window number
+     * @spec.requires resource >= 0, window >= 0
+     * @return true iff the pair is held
+    */
+    boolean contains(int resource, int window){
+        long key = key(resource, window);
+        for(int slot = slot(key); keys[slot] != EMPTY; slot = (slot+1)&mask){
+            if(keys[slot] == key){
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Reserve 'resource' in 'window'.
+     *
+     * @param resource node or edge number
+     * @param window window number
+     * @spec.requires resource >= 0, window >= 0
+     * @spec.modifies this
+     * @return true iff the pair was not already held
+    */
+    boolean add(int resource, int window){
+        if(2*(size+1) > keys.length){
+            grow();
+        }
+        return insert(key(resource, window));
+    }
+    /**
+     * Release 'resource' in 'window'.
+     *
+     * @param resource node or edge number
+     * @param window window number
+     * @spec.requires resource >= 0, window >= 0
+     * @spec.modifies this
+     * @return true iff the pair was held
+    */
+    boolean remove(int resource, int window){
+        long key = key(resource, window);
+        int slot = slot(key);
+        while(keys[slot] != key){
+            if(keys[slot] == EMPTY){
+                return false;
+            }
+            slot = (slot+1)&mask;
+        }
+        // Move later entries of the run back into the gap so lookups never stop early
+        int gap = slot;
+        for(int next = (gap+1)&mask; keys[next] != EMPTY; next = (next+1)&mask){
+            int home = slot(keys[next]);
+            if(((next-home)&mask) >= ((next-gap)&mask)){
+                keys[gap] = keys[next];
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        size--;
+        return true;
+    }
+    /**
+     * Release every reservation in a window before 'window'.
+     *
+     * @param window first window to keep
+     * @spec.modifies this
+    */
+    void expire(int window){
+        long[] old = keys;
+        keys = new long[old.length];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for(long key: old){
+            if(key != EMPTY && (int) key >= window){
+                insert(key);
+            }
+        }
+    }
+    /**
+     * Release every reservation.
+     *
+     * @spec.modifies this
+    */
+    void clear(){
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+    private boolean insert(long key){
+        int slot = slot(key);
+        while(keys[slot] != EMPTY){
+            if(keys[slot] == key){
+                return false;
+            }
+            slot = (slot+1)&mask;
+        }
+        keys[slot] = key;
+        size++;
+        return true;
+    }
+    private void grow(){
+        long[] old = keys;
+        keys = new long[old.length*2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length-1;
+        size = 0;
+        for(long key: old){
+            if(key != EMPTY){
+                insert(key);
+            }
+        }
+    }
+    private int slot(long key){
+        long h = key*0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32))&mask;
+    }
+    private static long key(int resource, int window){
+        return (long) resource << 32 | window;
+    }
+}
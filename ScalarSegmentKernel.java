@@ -0,0 +1,48 @@
+/**
+ * ScalarSegmentKernel is the SegmentKernel used when the Vector API is not available.
+ * It runs the same test one pair at a time over the same arrays.
+*/
+public class ScalarSegmentKernel implements SegmentKernel{
+    @Override
+    public int oneToMany(double qhx, double qhy, double qtx, double qty, double qs, double qc,
+     double[] hx, double[] hy, double[] tx, double[] ty, double[] slope, double[] constant,
+     int from, int to, int[] out){
+        int found = 0;
+        for(int i = from; i != to; i++){
+            if(mayCollide(hx[i], hy[i], tx[i], ty[i], slope[i], constant[i], qhx, qhy, qtx, qty, qs, qc)){
+                out[found++] = i;
+            }
+        }
+        return found;
+    }
+    @Override
+    public int manyToOne(double whx, double why, double wtx, double wty, double ws, double wc,
+     double[] hx, double[] hy, double[] tx, double[] ty, double[] slope, double[] constant,
+     int from, int to, int[] out){
+        int found = 0;
+        for(int i = from; i != to; i++){
+            if(mayCollide(whx, why, wtx, wty, ws, wc, hx[i], hy[i], tx[i], ty[i], slope[i], constant[i])){
+                out[found++] = i;
+            }
+        }
+        return found;
+    }
+    /**
+     * Indicate if LineSegment.collision(a, b) may be true. Follows its steps: a shared end point
+     * decides by inclusivity, otherwise the crossing point must be inside both bounding boxes.
+     * The crossing point is computed with the same operations so a NaN point also may collide.
+     *
+     * @return false only if LineSegment.collision(a, b) is false
+    */
+    static boolean mayCollide(double ahx, double ahy, double atx, double aty, double as, double ac,
+     double bhx, double bhy, double btx, double bty, double bs, double bc){
+        if((atx == btx && aty == bty) || (ahx == bhx && ahy == bhy) || (atx == bhx && aty == bhy)
+         || (ahx == btx && ahy == bty)){
+            return true;
+        }
+        double x = (ac-bc)/(bs-as);
+        double y = as*x+ac;
+        return !((ahx < x && atx < x) || (ahx > x && atx > x) || (ahy < y && aty < y) || (ahy > y && aty > y)
+         || (bhx < x && btx < x) || (bhx > x && btx > x) || (bhy < y && bty < y) || (bhy > y && bty > y));
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A SearchWorkspace holds what one thread needs to run A* over numbered nodes: path lengths,
+ * parents, closed and marked stamps, a list of links and a NodeHeap. Each thread keeps one,
+ * grown to the largest graph it has searched. reset takes constant time by moving to a new
+ * generation, so searches in steady state allocate nothing but their result.
+ * Counters over every thread's workspace are kept for monitoring.
+*/
+public class SearchWorkspace{
+    private static final ThreadLocal<SearchWorkspace> WORKSPACES = ThreadLocal.withInitial(SearchWorkspace::new);
+    private static final LongAdder CREATED = new LongAdder();
+    private static final LongAdder GROWN = new LongAdder();
+    private static final LongAdder SEARCHES = new LongAdder();
+    private static final LongAdder WRAPPED = new LongAdder();
+    private static final LongAdder CAPACITY = new LongAdder();
+    final NodeHeap heap;
+    double[] length;
+    int[] parent;
+    int[] links;
+    int linkCount;
+    private int[] stamp;
+    private int[] mark;
+    private int generation;
+    private SearchWorkspace(){
+        heap = new NodeHeap(0);
+        length = new double[0];
+        parent = new int[0];
+        links = new int[0];
+        stamp = new int[0];
+        mark = new int[0];
+        generation = 0;
+        CREATED.increment();
+    }
+    /**
+     * Returns this thread's workspace, grown to hold nodes 0 to nodes-1 and reset.
+     *
+     * @param nodes number of nodes to search
+     * @return empty workspace of the calling thread
+    */
+    static SearchWorkspace acquire(int nodes){
+        SearchWorkspace work = WORKSPACES.get();
+        work.ensureCapacity(nodes);
+        work.reset();
+        SEARCHES.increment();
+        return work;
+    }
+    /**
+     * Returns the number of workspaces created, one per thread that searched.
+     *
+     * @return number of workspaces
+    */
+    public static long workspaces(){
+        return CREATED.sum();
+    }
+    /**
+     * Returns the number of times a workspace was grown for a larger graph.
+     *
+     * @return number of times grown
+    */
+    public static long grown(){
+        return GROWN.sum();
+    }
+    /**
+     * Returns the number of searches run in workspaces.
+     *
+     * @return number of searches
+    */
+    public static long searches(){
+        return SEARCHES.sum();
+    }
+    /**
+     * Returns the number of times a generation counter wrapped around and its stamps were cleared.
+     *
+     * @return number of full clears
+    */
+    public static long wraps(){
+        return WRAPPED.sum();
+    }
+    /**
+     * Returns the number of nodes all workspaces together can hold.
+     *
+     * @return total capacity in nodes
+    */
+    public static long capacity(){
+        return CAPACITY.sum();
+    }
+    private void ensureCapacity(int nodes){
+        if(nodes <= length.length){
+            return;
+        }
+        // Grow by half again so graphs that grow a node at a time do not reallocate every search
+        int size = Math.max(nodes, length.length+length.length/2);
+        CAPACITY.add(size-length.length);
+        GROWN.increment();
+        heap.ensureCapacity(size);
+        length = new double[size];
+        parent = new int[size];
+        links = new int[size];
+        stamp = new int[size];
+        mark = new int[size];
+        generation = 0;
+    }
+    private void reset(){
+        heap.clear();
+        linkCount = 0;
+        generation += 2;
+        if(generation <= 0){
+            Arrays.fill(stamp, 0);
+            Arrays.fill(mark, 0);
+            generation = 2;
+            WRAPPED.increment();
+        }
+    }
+    boolean closed(int node){
+        return stamp[node] == generation+1;
+    }
+    void close(int node){
+        stamp[node] = generation+1;
+    }
+    /**
+     * Mark 'node' for this search only.
+    */
+    void mark(int node){
+        mark[node] = generation;
+    }
+    boolean marked(int node){
+        return mark[node] == generation;
+    }
+    void link(int node){
+        links[linkCount++] = node;
+    }
+    /**
+     * Record a way into 'node' if it is shorter than the known one.
+    */
+    void open(int node, double length, int parent, double heuristic){
+        if(stamp[node] == generation+1){
+            return;
+        }
+        if(stamp[node] == generation && this.length[node] <= length){
+            return;
+        }
+        stamp[node] = generation;
+        this.length[node] = length;
+        this.parent[node] = parent;
+        heap.push(node, length+heuristic);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * A SegmentKernel tests segments against walls kept as arrays, many at a time. It finds the walls
+ * that may collide and the caller settles each of those with LineSegment.collision. A wall it leaves
+ * out never collides by LineSegment.collision, so the answer is the same as testing one by one.
+ * Segments are given by head, tail, slope and constant computed the way LineSegment does, each in
+ * its own array so runs of them can be loaded straight into vector lanes.
+*/
+public interface SegmentKernel{
+    /** Fastest kernel that runs here. */
+    SegmentKernel INSTANCE = load();
+    /**
+     * Find the walls 'from' to 'to'-1 that may collide with one query segment.
+     *
+     * @param qhx x coordinate of the query head
+     * @param qhy y coordinate of the query head
+     * @param qtx x coordinate of the query tail
+     * @param qty y coordinate of the query tail
+     * @param qs slope of the query
+     * @param qc constant of the query, head y minus slope times head x
+     * @param hx x coordinate of each wall head
+     * @param hy y coordinate of each wall head
+     * @param tx x coordinate of each wall tail
+     * @param ty y coordinate of each wall tail
+     * @param slope slope of each wall
+     * @param constant constant of each wall
+     * @param from first wall to test
+     * @param to one past the last wall to test
+     * @param out output walls that may collide
+     * @spec.requires 0 <= from <= to <= length of the wall arrays, out.length >= to-from
+     * @spec.modifies out
+     * @return number of walls written to 'out'
+    */
+    int oneToMany(double qhx, double qhy, double qtx, double qty, double qs, double qc,
+     double[] hx, double[] hy, double[] tx, double[] ty, double[] slope, double[] constant,
+     int from, int to, int[] out);
+    /**
+     * Find the query segments 'from' to 'to'-1 that may collide with one wall.
+     *
+     * @param whx x coordinate of the wall head
+     * @param why y coordinate of the wall head
+     * @param wtx x coordinate of the wall tail
+     * @param wty y coordinate of the wall tail
+     * @param ws slope of the wall
+     * @param wc constant of the wall
+     * @param hx x coordinate of each query head
+     * @param hy y coordinate of each query head
+     * @param tx x coordinate of each query tail
+     * @param ty y coordinate of each query tail
+     * @param slope slope of each query
+     * @param constant constant of each query
+     * @param from first query to test
+     * @param to one past the last query to test
+     * @param out output queries that may collide
+     * @spec.requires 0 <= from <= to <= length of the query arrays, out.length >= to-from
+     * @spec.modifies out
+     * @return number of queries written to 'out'
+    */
+    int manyToOne(double whx, double why, double wtx, double wty, double ws, double wc,
+     double[] hx, double[] hy, double[] tx, double[] ty, double[] slope, double[] constant,
+     int from, int to, int[] out);
+    /**
+     * Use the Vector API kernel if it was compiled and the incubator module is present.
+    */
+    private static SegmentKernel load(){
+        try{
+            return (SegmentKernel) Class.forName("VectorSegmentKernel").getDeclaredConstructor().newInstance();
+        }catch(ReflectiveOperationException | LinkageError | RuntimeException e){
+            return new ScalarSegmentKernel();
+        }
+    }
+}
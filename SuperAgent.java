@@ -1,13 +1,39 @@
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 public class SuperAgent{
+    /** Distance at which a point of the path counts as reached. */
+    private static final double REACHED = 5;
     Agent agent;
-    TwoWayGraph graph;
-    ArrayList<ArrayList<Double>> path;
+    PathEngine graph;
+    final PathFollower path;
+    CompletableFuture<ArrayList<ArrayList<Double>>> nextPath;
+    PathSearch search;
+    ArrayList<Double> searchTarget;
+    boolean searchAnytime;
+    int searchExpansions;
+    long searchNanos;
+    TraceRecorder recorder;
+    int traceId;
+    CooperativePlanner.Plan plan;
+    /**
+     * Constructs a SuperAgent that moves 'agent' using paths from 'graph'.
+     * 
+     * @param agent agent to move
+     * @param graph engine to find paths with
+     * @spec.requires no null inputs
+    */
+    SuperAgent(Agent agent, PathEngine graph){
+        this.agent = agent;
+        this.graph = graph;
+        path = new PathFollower();
+        nextPath = null;
+        search = null;
+    }
     SuperAgent() throws IllegalArgumentException, ExecutionException{
         agent = new Agent(50, 50, 100, 0, 100, 0, .5, 1);
-        path = null;
+        path = new PathFollower();
 
         ArrayList<ArrayList<Double>> lines = new ArrayList<>();
         lines.add(new ArrayList<>());
@@ -60,27 +86,211 @@ public class SuperAgent{
         ArrayList<Double> start = new ArrayList<>();
         start.add(agent.x());
         start.add(agent.y());
-        path = graph.PathFind(start, target);
+        traceGoTo(target);
+        try{
+            path.follow(graph.PathFindWaypoints(start, target));
+        }finally{
+            TraceRecorder.inAgent(false);
+        }
+        nextPath = null;
+        search = null;
+    }
+    /**
+     * Record every later goTo and move call to 'trace' as agent number 'id'. Pass null to stop.
+     * goTo calls through a PathRequestService are recorded by the graph as PathFind calls.
+     * 
+     * @param trace recorder attached to this agent's graph, or null
+     * @param id number of this agent in the trace
+     * @spec.requires id >= 0
+    */
+    public void record(TraceRecorder trace, int id){
+        recorder = trace;
+        traceId = id;
+    }
+    /**
+     * Record a goTo. Graph calls made until inAgent(false) are part of it.
+    */
+    private void traceGoTo(ArrayList<Double> target){
+        if(recorder != null){
+            recorder.goTo(traceId, agent.x(), agent.y(), target);
+            TraceRecorder.inAgent(true);
+        }
+    }
+    /**
+     * Record a goTo that searches a little at each move.
+    */
+    private void traceGoTo(ArrayList<Double> target, int maxExpansions, long maxNanos, boolean anytime){
+        if(recorder != null){
+            recorder.goTo(traceId, agent.x(), agent.y(), target, maxExpansions, maxNanos, anytime);
+        }
+    }
+    /**
+     * Search for a path to 'target' a little at a time. Each call to move spends at most
+     * 'maxExpansions' node expansions or 'maxNanos' nanoseconds on the search.
+     * The current path is followed until the new one is found.
+     * Engines other than TwoWayGraph cannot be searched in steps so their path is found at once.
+     * 
+     * @param target point to go to
+     * @param maxExpansions most nodes to expand per move
+     * @param maxNanos most time to search per move
+     * @param anytime iff true and there is no current path follow the best partial path meanwhile
+     * @spec.requires target != null, target.size() == 2
+    */
+    public void goTo(ArrayList<Double> target, int maxExpansions, long maxNanos, boolean anytime){
+        ArrayList<Double> start = new ArrayList<>();
+        start.add(agent.x());
+        start.add(agent.y());
+        traceGoTo(target, maxExpansions, maxNanos, anytime);
+        if(!(graph instanceof TwoWayGraph)){
+            path.follow(graph.PathFindWaypoints(start, target));
+            nextPath = null;
+            search = null;
+            return;
+        }
+        search = new PathSearch((TwoWayGraph) graph, start, target, anytime);
+        searchTarget = target;
+        searchAnytime = anytime;
+        searchExpansions = maxExpansions;
+        searchNanos = maxNanos;
+        nextPath = null;
+    }
+    /**
+     * Ask 'service' for a path to 'target'. The current path is followed until the new one is ready.
+     * 
+     * @param target point to go to
+     * @param service service to find the path with
+     * @param deadlineNanos System.nanoTime() value the path is needed by
+     * @spec.requires no null inputs, target.size() == 2
+    */
+    public void goTo(ArrayList<Double> target, PathRequestService service, long deadlineNanos){
+        ArrayList<Double> start = new ArrayList<>();
+        start.add(agent.x());
+        start.add(agent.y());
+        nextPath = service.request(start, target, deadlineNanos);
+        search = null;
+    }
+    /**
+     * Follow 'plan', waiting at each of its points until the plan says to leave it. Time is counted
+     * in moves from this call.
+     * 
+     * @param plan plan to follow
+     * @spec.requires plan != null
+     * @spec.modifies this
+    */
+    public void follow(CooperativePlanner.Plan plan){
+        double[] departures = new double[plan.path().size()];
+        for(int i = 0; i != departures.length; i++){
+            departures[i] = plan.departure(i);
+        }
+        path.follow(WaypointPath.of(plan.path()), departures);
+        this.plan = plan;
+        nextPath = null;
+        search = null;
+    }
+    /**
+     * Follow 'path' without waiting anywhere. The path is not copied, so one path may be given to
+     * many agents.
+     * 
+     * @param path path to follow, or null to stop
+     * @spec.modifies this
+    */
+    public void follow(WaypointPath path){
+        this.path.follow(path);
+        plan = null;
+        nextPath = null;
+        search = null;
     }
     public void draw(){
         graph.draw();
     }
+    /**
+     * Returns the points of the path not yet reached.
+     * 
+     * @return new list of the points left, or null if there is no path
+    */
+    public ArrayList<ArrayList<Double>> path(){
+        return path.remaining();
+    }
     public void move() throws ExecutionException{
-        if(path == null){
-            agent.move();
-            return;
+        if(target()){
+            agent.aimAt(path.targetX(), path.targetY());
         }
-        Double[] point = TwoWayGraph.convertArrayListToDoubleArray(path.get(0));
-        agent.aimAt(point[0], point[1]);
         agent.move();
-        Double[] point2 = at();
-        LineSegment distance = new LineSegment(point, point2);
-        if(distance.magnitude() < 5){
-            path.remove(0);
+        arrive();
+    }
+    /**
+     * Pick up finished searches and tell if there is a point to head for this move. The point is
+     * path.targetX(), path.targetY().
+     * 
+     * @spec.modifies this
+     * @return true iff there is a path to follow
+    */
+    boolean target(){
+        if(recorder != null){
+            recorder.move(traceId);
         }
-        if(path.size() == 0){
-            path = null;
+        if(nextPath != null && nextPath.isDone()){
+            // A shed or late request keeps the old path
+            if(!nextPath.isCompletedExceptionally()){
+                path.follow(WaypointPath.of(nextPath.join()));
+            }
+            nextPath = null;
         }
+        if(search != null){
+            PathSearch.Status status = search.step(searchExpansions, searchNanos);
+            if(status == PathSearch.Status.FOUND){
+                WaypointPath found = WaypointPath.of(search.path());
+                search = null;
+                resume(found);
+            }else if(status == PathSearch.Status.NO_PATH){
+                search = null;
+            }else if(!path.active()){
+                // A best path that has not left the start yet has nothing to follow
+                WaypointPath best = WaypointPath.of(search.path());
+                if(best != null && best.size() > 1){
+                    resume(best);
+                }
+            }
+        }
+        return path.active();
+    }
+    /**
+     * Follow 'found', a path from where the search began, from where the agent is now. The agent
+     * heads for the furthest point of it that it can see. If it sees none it has moved out of sight
+     * of the path, so the search is begun again from here and the current path kept meanwhile.
+     * 
+     * @param found path from the search's start
+     * @spec.requires found != null
+     * @spec.modifies this
+    */
+    private void resume(WaypointPath found){
+        if(found.size() == 1){
+            path.follow(found);
+            return;
+        }
+        ArrayList<Double> here = point(agent.x(), agent.y());
+        for(int i = found.size()-1; i > 0; i--){
+            if(graph.lineOfSight(here, point(found.x(i), found.y(i)))){
+                path.follow(found, null, i);
+                return;
+            }
+        }
+        search = new PathSearch((TwoWayGraph) graph, here, searchTarget, searchAnytime);
+    }
+    private static ArrayList<Double> point(double x, double y){
+        ArrayList<Double> point = new ArrayList<>();
+        point.add(x);
+        point.add(y);
+        return point;
+    }
+    /**
+     * Move on to the next point of the path once the agent has moved close to the one target()
+     * chose and, when following a plan, its departure time has come.
+     * 
+     * @spec.modifies this
+    */
+    void arrive(){
+        path.arrive(agent.x(), agent.y(), REACHED);
     }
     public Double[] at(){
         Double[] location = new Double[2];
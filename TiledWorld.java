@@ -0,0 +1,609 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * TiledWorld is a PathEngine over a world split into square tiles of size 'tileSize'. Each tile owns
+ * its walls and nodes and is loaded from a TileSource the first time a query or agent needs it.
+ * When the estimated size of loaded tiles passes the memory budget the least recently used tiles
+ * are dropped and loaded again if needed.
+ *
+ * Tiles are joined through portal nodes: a node on the border between two tiles must be listed by
+ * both, and paths cross from one tile to the next only through such nodes. Walls must be split at
+ * tile borders so each piece is owned by the tile it lies in.
+ *
+ * Queries may run at once on several threads. Only the tile cache is locked: a query pins each
+ * tile it touches so it is not evicted under it and looks it up again without the lock. A search
+ * keeps a tile pinned only while it holds a point the search has reached but not settled, so a
+ * search that floods a region pins the tiles of its frontier rather than the whole region. Tiles
+ * are loaded outside the lock.
+*/
+public class TiledWorld implements PathEngine{
+    /** Estimated heap bytes per wall, node and edge of a loaded tile. */
+    private static final long WALL_BYTES = 200;
+    private static final long NODE_BYTES = 250;
+    private static final long EDGE_BYTES = 80;
+    private static final int MAGIC = 0x54494c45;
+    /**
+     * Walls and nodes of one tile.
+    */
+    public static class TileData{
+        /** Coordinates of the walls. Coordinates come in pairs for each LineSegment. */
+        public final ArrayList<ArrayList<Double>> lines;
+        /** Coordinates of the nodes, including portal nodes on the tile border. */
+        public final ArrayList<ArrayList<Double>> nodes;
+        public TileData(ArrayList<ArrayList<Double>> lines, ArrayList<ArrayList<Double>> nodes){
+            this.lines = lines;
+            this.nodes = nodes;
+        }
+    }
+    /**
+     * Where tiles are loaded from.
+    */
+    public interface TileSource{
+        /**
+         * Load the tile at column 'x' and row 'y'.
+         *
+         * @param x tile column
+         * @param y tile row
+         * @throws IOException the tile could not be read
+         * @return walls and nodes of the tile, or null if the tile is empty
+        */
+        TileData load(int x, int y) throws IOException;
+    }
+    private final double tileSize;
+    private final long memoryBudget;
+    private final TileSource source;
+    /** Guards tiles, bytes, loads, evictions and the pins of every tile. */
+    private final Object cache;
+    private final LinkedHashMap<Long, Tile> tiles;
+    private long bytes;
+    private long loads;
+    private long evictions;
+    /**
+     * Constructs a world that loads tiles from 'source'.
+     *
+     * @param tileSize width and height of each tile
+     * @param memoryBudget estimated bytes of loaded tiles to keep
+     * @param source where tiles come from
+     * @spec.requires source != null
+     * @throws IllegalArgumentException tileSize <= 0 || memoryBudget < 0
+    */
+    public TiledWorld(double tileSize, long memoryBudget, TileSource source){
+        if(!(tileSize > 0) || memoryBudget < 0){
+            throw new IllegalArgumentException("Invalid tile size or memory budget");
+        }
+        this.tileSize = tileSize;
+        this.memoryBudget = memoryBudget;
+        this.source = source;
+        cache = new Object();
+        tiles = new LinkedHashMap<>(16, 0.75f, true);
+        bytes = 0;
+    }
+    /**
+     * Returns a TileSource reading files written by writeTile from 'directory'.
+     * Missing files are empty tiles.
+     *
+     * @param directory folder holding the tiles
+     * @spec.requires directory != null
+     * @return source reading 'directory'
+    */
+    public static TileSource directory(Path directory){
+        return (x, y) -> {
+            Path file = directory.resolve(fileName(x, y));
+            if(!Files.exists(file)){
+                return null;
+            }
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+                if(in.readInt() != MAGIC){
+                    throw new IOException("Not a tile file: "+file);
+                }
+                ArrayList<ArrayList<Double>> lines = readPoints(in);
+                ArrayList<ArrayList<Double>> nodes = readPoints(in);
+                return new TileData(lines, nodes);
+            }
+        };
+    }
+    /**
+     * Write a tile so it can be read by directory('directory').
+     *
+     * @param directory folder holding the tiles
+     * @param x tile column
+     * @param y tile row
+     * @param tile walls and nodes of the tile
+     * @spec.requires no null inputs
+     * @throws IOException the file could not be written
+    */
+    public static void writeTile(Path directory, int x, int y, TileData tile) throws IOException{
+        Path file = directory.resolve(fileName(x, y));
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+            out.writeInt(MAGIC);
+            writePoints(out, tile.lines);
+            writePoints(out, tile.nodes);
+        }
+    }
+    /**
+     * Find quickest path from 'start' to 'end' across as many tiles as needed. Tiles are loaded
+     * as the search reaches them and stay pinned while they hold a reached point that is not yet
+     * settled. A point on a tile border is linked into every tile sharing it.
+     *
+     * @param start point to start at
+     * @param end point to end at
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @throws UncheckedIOException a tile could not be loaded
+     * @return quickest path from 'start' to 'end' through portal nodes, or null if none exists
+    */
+    @Override
+    public ArrayList<ArrayList<Double>> PathFind(ArrayList<Double> start, ArrayList<Double> end){
+        if(start.equals(end)){
+            return null;
+        }
+        Query query = new Query();
+        try{
+            return search(query, start, end);
+        }finally{
+            query.release();
+        }
+    }
+    private ArrayList<ArrayList<Double>> search(Query query, ArrayList<Double> start, ArrayList<Double> end){
+        ArrayList<Tile> startTiles = tilesAt(query, start);
+        ArrayList<Tile> endTiles = tilesAt(query, end);
+        // Links into the start and end tiles for this query only
+        Set<ArrayList<Double>> startLinks = new HashSet<>();
+        for(Tile tile: startTiles){
+            startLinks.addAll(tile.links(start));
+            if(endTiles.contains(tile) && tile.lineOfSight(start, end)){
+                startLinks.add(end);
+            }
+        }
+        Set<ArrayList<Double>> endLinks = new HashSet<>();
+        for(Tile tile: endTiles){
+            endLinks.addAll(tile.links(end));
+        }
+        query.drop(end);
+        PriorityQueue<Entry> active = new PriorityQueue<>();
+        Set<ArrayList<Double>> finished = new HashSet<>();
+        Map<ArrayList<Double>, Double> distance = new HashMap<>();
+        Map<ArrayList<Double>, ArrayList<Double>> prev = new HashMap<>();
+        active.add(new Entry(start, null, 0, distance(start, end)));
+        distance.put(start, 0.);
+        query.reach(start);
+        while(!active.isEmpty()){
+            Entry current = active.remove();
+            if(!finished.add(current.point)){
+                continue;
+            }
+            prev.put(current.point, current.from);
+            if(current.point.equals(end)){
+                ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+                ArrayList<Double> place = end;
+                while(place != null){
+                    goal.add(place);
+                    place = prev.get(place);
+                }
+                Collections.reverse(goal);
+                return goal;
+            }
+            Set<ArrayList<Double>> children = new HashSet<>();
+            if(current.point.equals(start)){
+                children.addAll(startLinks);
+            }else{
+                for(Tile tile: tilesAt(query, current.point)){
+                    children.addAll(tile.children(current.point));
+                }
+            }
+            if(endLinks.contains(current.point)){
+                children.add(end);
+            }
+            for(ArrayList<Double> child: children){
+                if(finished.contains(child)){
+                    continue;
+                }
+                double length = current.length+distance(current.point, child);
+                Double known = distance.get(child);
+                if(known == null){
+                    query.reach(child);
+                }
+                if(known == null || known > length){
+                    distance.put(child, length);
+                    active.add(new Entry(child, current.point, length, length+distance(child, end)));
+                }
+            }
+            query.settle(current.point);
+        }
+        return null;
+    }
+    /**
+     * Indicate if the two points have line of sight. Every tile under the segment is loaded.
+     *
+     * @param point1 the first point
+     * @param point2 the second point
+     * @spec.requires no null inputs, point1.size() == 2, point2.size() == 2
+     * @return true iff no wall of any tile crosses the segment
+    */
+    @Override
+    public boolean lineOfSight(ArrayList<Double> point1, ArrayList<Double> point2){
+        int x0 = column(Math.min(point1.get(0), point2.get(0)));
+        int x1 = column(Math.max(point1.get(0), point2.get(0)));
+        int y0 = row(Math.min(point1.get(1), point2.get(1)));
+        int y1 = row(Math.max(point1.get(1), point2.get(1)));
+        Query query = new Query();
+        try{
+            for(int x = x0; x <= x1; x++){
+                for(int y = y0; y <= y1; y++){
+                    if(!query.tile(key(x, y)).lineOfSight(point1, point2)){
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }finally{
+            query.release();
+        }
+    }
+    /**
+     * Load every tile within 'radius' tiles of the point, for example around an agent.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param radius number of tiles around the point's tile to load
+     * @throws UncheckedIOException a tile could not be loaded
+    */
+    public void preload(double x, double y, int radius){
+        int cx = column(x);
+        int cy = row(y);
+        for(int i = cx-radius; i <= cx+radius; i++){
+            for(int j = cy-radius; j <= cy+radius; j++){
+                Tile tile = pin(key(i, j));
+                synchronized(cache){
+                    unpin(tile);
+                }
+            }
+        }
+    }
+    /**
+     * Returns the number of tiles in memory.
+     *
+     * @return number of loaded tiles
+    */
+    public int loadedTiles(){
+        synchronized(cache){
+            return tiles.size();
+        }
+    }
+    /**
+     * Returns the estimated heap bytes of loaded tiles.
+     *
+     * @return estimated bytes in use
+    */
+    public long estimatedBytes(){
+        synchronized(cache){
+            return bytes;
+        }
+    }
+    /**
+     * Returns the number of tile loads so far.
+     *
+     * @return number of loads
+    */
+    public long loads(){
+        synchronized(cache){
+            return loads;
+        }
+    }
+    /**
+     * Returns the number of tiles dropped to stay in budget so far.
+     *
+     * @return number of evictions
+    */
+    public long evictions(){
+        synchronized(cache){
+            return evictions;
+        }
+    }
+    @Override
+    public void draw(){
+        ArrayList<Tile> loaded;
+        synchronized(cache){
+            loaded = new ArrayList<>(tiles.values());
+        }
+        for(Tile tile: loaded){
+            tile.draw();
+        }
+    }
+    /**
+     * Returns tile ('x', 'y') pinned, loading it if needed. Loading runs outside the lock, so two
+     * threads may both load a tile; the first to finish is kept.
+    */
+    private Tile pin(long key){
+        int x = (int) (key >> 32);
+        int y = (int) key;
+        synchronized(cache){
+            Tile tile = tiles.get(key);
+            if(tile != null){
+                tile.pins++;
+                return tile;
+            }
+        }
+        TileData data;
+        try{
+            data = source.load(x, y);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        Tile loaded = new Tile(data);
+        synchronized(cache){
+            Tile tile = tiles.get(key);
+            if(tile != null){
+                tile.pins++;
+                return tile;
+            }
+            loaded.pins++;
+            loads++;
+            tiles.put(key, loaded);
+            bytes += loaded.bytes;
+            evict();
+            return loaded;
+        }
+    }
+    /**
+     * Unpin 'tile' and evict tiles if no longer needed to stay in budget.
+     *
+     * @spec.requires caller holds cache, tile is pinned
+    */
+    private void unpin(Tile tile){
+        tile.pins--;
+        evict();
+    }
+    /**
+     * Drop the least recently used unpinned tiles until in budget or none are left.
+     *
+     * @spec.requires caller holds cache
+    */
+    private void evict(){
+        Iterator<Map.Entry<Long, Tile>> eldest = tiles.entrySet().iterator();
+        while(bytes > memoryBudget && eldest.hasNext()){
+            Tile tile = eldest.next().getValue();
+            if(tile.pins != 0){
+                continue;
+            }
+            bytes -= tile.bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+    /**
+     * Tiles whose closed area holds 'point'. A point on a border is in every tile sharing it.
+    */
+    private ArrayList<Tile> tilesAt(Query query, ArrayList<Double> point){
+        ArrayList<Tile> goal = new ArrayList<>();
+        for(long key: keysAt(point)){
+            goal.add(query.tile(key));
+        }
+        return goal;
+    }
+    /**
+     * Keys of the tiles whose closed area holds 'point'.
+    */
+    private long[] keysAt(ArrayList<Double> point){
+        int x = column(point.get(0));
+        int y = row(point.get(1));
+        boolean left = point.get(0) == x*tileSize;
+        boolean bottom = point.get(1) == y*tileSize;
+        if(left && bottom){
+            return new long[]{key(x, y), key(x-1, y), key(x, y-1), key(x-1, y-1)};
+        }
+        if(left){
+            return new long[]{key(x, y), key(x-1, y)};
+        }
+        if(bottom){
+            return new long[]{key(x, y), key(x, y-1)};
+        }
+        return new long[]{key(x, y)};
+    }
+    private static long key(int x, int y){
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+    private int column(double x){
+        return (int) Math.floor(x/tileSize);
+    }
+    private int row(double y){
+        return (int) Math.floor(y/tileSize);
+    }
+    private static String fileName(int x, int y){
+        return "tile_"+x+"_"+y+".bin";
+    }
+    private static double distance(ArrayList<Double> a, ArrayList<Double> b){
+        double x = a.get(0)-b.get(0);
+        double y = a.get(1)-b.get(1);
+        return Math.sqrt(x*x+y*y);
+    }
+    private static ArrayList<ArrayList<Double>> readPoints(DataInputStream in) throws IOException{
+        int count = in.readInt();
+        ArrayList<ArrayList<Double>> goal = new ArrayList<>(count);
+        for(int i = 0; i != count; i++){
+            ArrayList<Double> point = new ArrayList<>(2);
+            point.add(in.readDouble());
+            point.add(in.readDouble());
+            goal.add(point);
+        }
+        return goal;
+    }
+    private static void writePoints(DataOutputStream out, ArrayList<ArrayList<Double>> points) throws IOException{
+        out.writeInt(points.size());
+        for(ArrayList<Double> point: points){
+            out.writeDouble(point.get(0));
+            out.writeDouble(point.get(1));
+        }
+    }
+    /**
+     * Tiles pinned by one query. Each is looked up in the cache once and kept here until the query
+     * settles the last point it reached in the tile.
+    */
+    private class Query{
+        final HashMap<Long, Tile> pinned = new HashMap<>();
+        /** Number of points reached but not settled in each tile. */
+        final HashMap<Long, Integer> open = new HashMap<>();
+        /**
+         * Returns the tile with 'key', pinning it on first use.
+        */
+        Tile tile(long key){
+            Tile tile = pinned.get(key);
+            if(tile == null){
+                tile = pin(key);
+                pinned.put(key, tile);
+            }
+            return tile;
+        }
+        /**
+         * Count 'point' as reached in every tile holding it.
+        */
+        void reach(ArrayList<Double> point){
+            for(long key: keysAt(point)){
+                open.merge(key, 1, Integer::sum);
+            }
+        }
+        /**
+         * Count 'point' as settled and unpin the tiles holding it that have no reached point left.
+        */
+        void settle(ArrayList<Double> point){
+            for(long key: keysAt(point)){
+                Integer count = open.get(key);
+                if(count != null && count > 1){
+                    open.put(key, count-1);
+                }else{
+                    open.remove(key);
+                }
+            }
+            drop(point);
+        }
+        /**
+         * Unpin the tiles holding 'point' that have no reached point.
+        */
+        void drop(ArrayList<Double> point){
+            for(long key: keysAt(point)){
+                if(open.containsKey(key)){
+                    continue;
+                }
+                Tile tile = pinned.remove(key);
+                if(tile != null){
+                    synchronized(cache){
+                        unpin(tile);
+                    }
+                }
+            }
+        }
+        /**
+         * Unpin every tile pinned by this query.
+        */
+        void release(){
+            synchronized(cache){
+                for(Tile tile: pinned.values()){
+                    tile.pins--;
+                }
+                evict();
+            }
+            pinned.clear();
+        }
+    }
+    /**
+     * A loaded tile. Tiles with fewer than two nodes have walls and their node but no graph.
+    */
+    private static class Tile{
+        final TwoWayGraph graph;
+        final ObstacleCourse walls;
+        final ArrayList<ArrayList<Double>> nodes;
+        final long bytes;
+        /** Queries using this tile. Guarded by the world's cache lock. */
+        int pins;
+        Tile(TileData data){
+            ArrayList<ArrayList<Double>> lines = data == null ? new ArrayList<>() : data.lines;
+            ArrayList<ArrayList<Double>> nodes = data == null ? new ArrayList<>() : data.nodes;
+            if(new HashSet<>(nodes).size() >= 2){
+                graph = new TwoWayGraph(lines, nodes);
+                walls = null;
+                this.nodes = null;
+            }else{
+                graph = null;
+                this.nodes = new ArrayList<>(new HashSet<>(nodes));
+                ArrayList<Double[]> coordinates = new ArrayList<>();
+                for(ArrayList<Double> point: lines){
+                    coordinates.add(TwoWayGraph.convertArrayListToDoubleArray(point));
+                }
+                walls = new ObstacleCourse(coordinates);
+            }
+            long edges = 0;
+            if(graph != null){
+                for(ArrayList<Double> node: new HashSet<>(nodes)){
+                    edges += graph.children(node).size();
+                }
+            }
+            bytes = lines.size()/2*WALL_BYTES+nodes.size()*NODE_BYTES+edges*EDGE_BYTES;
+        }
+        ArrayList<ArrayList<Double>> children(ArrayList<Double> node){
+            // 'node' may belong to a neighbouring tile only
+            if(graph == null || !graph.containsNode(node)){
+                return new ArrayList<>();
+            }
+            return graph.children(node);
+        }
+        Set<ArrayList<Double>> links(ArrayList<Double> point){
+            if(graph == null){
+                Set<ArrayList<Double>> goal = new HashSet<>();
+                for(ArrayList<Double> node: nodes){
+                    if(lineOfSight(point, node)){
+                        goal.add(node);
+                    }
+                }
+                return goal;
+            }
+            return new HashSet<>(graph.validNodes(point));
+        }
+        boolean lineOfSight(ArrayList<Double> point1, ArrayList<Double> point2){
+            if(graph == null){
+                return !walls.collision(new LineSegment(TwoWayGraph.convertArrayListToDoubleArray(point1),
+                 TwoWayGraph.convertArrayListToDoubleArray(point2)));
+            }
+            return graph.lineOfSight(point1, point2);
+        }
+        void draw(){
+            if(graph == null){
+                walls.draw();
+            }else{
+                graph.draw();
+            }
+        }
+    }
+    /**
+     * Open set entry ordered by estimated total length.
+    */
+    private static class Entry implements Comparable<Entry>{
+        final ArrayList<Double> point;
+        final ArrayList<Double> from;
+        final double length;
+        final double estimate;
+        Entry(ArrayList<Double> point, ArrayList<Double> from, double length, double estimate){
+            this.point = point;
+            this.from = from;
+            this.length = length;
+            this.estimate = estimate;
+        }
+        public int compareTo(Entry other){
+            return Double.compare(estimate, other.estimate);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * TraceRecorder writes a compact binary trace of the calls made on a TwoWayGraph and its
+ * SuperAgents so the workload can be played back later by TraceReplay. The trace starts with the
+ * scene (walls, nodes, corner nodes and graph mode) followed by one record per call with the nanoseconds since
+ * the previous record. Records from many threads are written in the order they arrive.
+*/
+public class TraceRecorder implements AutoCloseable{
+    static final int MAGIC = 0x54524345;
+    static final int VERSION = 3;
+    static final int ADD_NODE = 1;
+    static final int REMOVE_NODE = 2;
+    static final int PATH_FIND = 3;
+    static final int GO_TO = 4;
+    static final int MOVE = 5;
+    /** goTo with a search budget per move. Added in version 2. */
+    static final int GO_TO_STEPS = 6;
+    /**
+     * TwoWayGraph.precompute or useTable. Added in version 3 along with corner nodes and the table
+     * in the scene.
+    */
+    static final int PRECOMPUTE = 7;
+    /** Set while a SuperAgent call runs so the graph calls it makes are not recorded twice. */
+    private static final ThreadLocal<Boolean> IN_AGENT = ThreadLocal.withInitial(() -> false);
+    private final DataOutputStream out;
+    private long last;
+    private boolean scene;
+    /**
+     * Constructs a recorder writing to 'out'. Nothing is recorded until a graph is attached with
+     * TwoWayGraph.record.
+     *
+     * @param out stream to write the trace to
+     * @spec.requires out != null
+    */
+    public TraceRecorder(OutputStream out){
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        scene = false;
+    }
+    /**
+     * Write the scene. Called once by TwoWayGraph.record.
+     *
+     * @param walls walls of the graph
+     * @param nodes nodes of the graph
+     * @param lazy iff the graph is in lazy mode
+     * @param maxEdgeLength longest candidate edge
+     * @param nearest candidate edges per node or 0
+     * @param corners corner data of the corner nodes, by node
+     * @param table iff the graph uses a distance table
+     * @throws IllegalStateException a scene was already written
+     * @throws UncheckedIOException the trace could not be written
+    */
+    synchronized void scene(ArrayList<LineSegment> walls, ArrayList<ArrayList<Double>> nodes,
+     boolean lazy, double maxEdgeLength, int nearest, Map<ArrayList<Double>, double[]> corners,
+     boolean table){
+        if(scene){
+            throw new IllegalStateException("Recorder is already attached to a graph");
+        }
+        scene = true;
+        try{
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeBoolean(lazy);
+            out.writeDouble(maxEdgeLength);
+            out.writeInt(nearest);
+            out.writeBoolean(table);
+            out.writeInt(walls.size());
+            for(LineSegment wall: walls){
+                // ObstacleCourse reads each pair as tail then head
+                out.writeDouble(wall.tailX());
+                out.writeDouble(wall.tailY());
+                out.writeDouble(wall.headX());
+                out.writeDouble(wall.headY());
+            }
+            out.writeInt(nodes.size());
+            for(ArrayList<Double> node: nodes){
+                out.writeDouble(node.get(0));
+                out.writeDouble(node.get(1));
+            }
+            out.writeInt(corners.size());
+            for(Map.Entry<ArrayList<Double>, double[]> corner: corners.entrySet()){
+                out.writeDouble(corner.getKey().get(0));
+                out.writeDouble(corner.getKey().get(1));
+                out.writeInt(corner.getValue().length);
+                for(double value: corner.getValue()){
+                    out.writeDouble(value);
+                }
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        last = System.nanoTime();
+    }
+    /**
+     * Record TwoWayGraph.addNode.
+    */
+    void addNode(ArrayList<Double> node){
+        point(ADD_NODE, -1, node.get(0), node.get(1));
+    }
+    /**
+     * Record TwoWayGraph.removeNode.
+    */
+    void removeNode(ArrayList<Double> node){
+        point(REMOVE_NODE, -1, node.get(0), node.get(1));
+    }
+    /**
+     * Record TwoWayGraph.PathFind unless it was made by a recorded SuperAgent call.
+    */
+    void pathFind(ArrayList<Double> start, ArrayList<Double> end){
+        if(IN_AGENT.get()){
+            return;
+        }
+        pair(PATH_FIND, -1, start.get(0), start.get(1), end.get(0), end.get(1));
+    }
+    /**
+     * Record SuperAgent.goTo from ('x', 'y') to 'target'.
+    */
+    void goTo(int agent, double x, double y, ArrayList<Double> target){
+        pair(GO_TO, agent, x, y, target.get(0), target.get(1));
+    }
+    /**
+     * Record SuperAgent.goTo from ('x', 'y') to 'target' searching a little at each move.
+    */
+    synchronized void goTo(int agent, double x, double y, ArrayList<Double> target, int maxExpansions,
+     long maxNanos, boolean anytime){
+        try{
+            header(GO_TO_STEPS, agent);
+            out.writeDouble(x);
+            out.writeDouble(y);
+            out.writeDouble(target.get(0));
+            out.writeDouble(target.get(1));
+            writeVarLong(maxExpansions);
+            writeVarLong(maxNanos);
+            out.writeBoolean(anytime);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Record SuperAgent.move.
+    */
+    synchronized void move(int agent){
+        try{
+            header(MOVE, agent);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Record TwoWayGraph.precompute or useTable.
+    */
+    synchronized void precompute(){
+        try{
+            header(PRECOMPUTE, -1);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Mark the start or end of a SuperAgent call on this thread.
+    */
+    static void inAgent(boolean inside){
+        IN_AGENT.set(inside);
+    }
+    /**
+     * Flush and close the trace.
+     *
+     * @throws UncheckedIOException the trace could not be written
+    */
+    @Override
+    public synchronized void close(){
+        try{
+            out.close();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+    private synchronized void point(int op, int agent, double x, double y){
+        try{
+            header(op, agent);
+            out.writeDouble(x);
+            out.writeDouble(y);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+    private synchronized void pair(int op, int agent, double x1, double y1, double x2, double y2){
+        try{
+            header(op, agent);
+            out.writeDouble(x1);
+            out.writeDouble(y1);
+            out.writeDouble(x2);
+            out.writeDouble(y2);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Write the op, time since the last record and agent number if any.
+     *
+     * @spec.requires caller holds this
+    */
+    private void header(int op, int agent) throws IOException{
+        if(!scene){
+            throw new IllegalStateException("Recorder is not attached to a graph");
+        }
+        long now = System.nanoTime();
+        out.writeByte(op);
+        writeVarLong(Math.max(0, now-last));
+        last = now;
+        if(agent >= 0){
+            writeVarLong(agent);
+        }
+    }
+    /**
+     * Seven bits per byte, high bit set on all but the last byte.
+    */
+    private void writeVarLong(long value) throws IOException{
+        while((value & ~0x7fL) != 0){
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,466 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TraceReplay plays a trace written by TraceRecorder back against a fresh graph built from the
+ * recorded scene, so the same workload can be run again after a change. Calls are spread over a
+ * number of threads and run as fast as possible or at the recorded pace. Calls of one agent always
+ * run on the same thread in the recorded order. addNode, removeNode and precompute run alone:
+ * every call recorded before one has finished when it starts and no call recorded after it starts
+ * until it has finished, so each query sees the graph it saw when recorded. The latency of every
+ * call is measured.
+*/
+public class TraceReplay{
+    private static final String[] NAMES = {"", "addNode", "removeNode", "PathFind", "goTo", "move",
+     "goToSteps", "precompute"};
+    private final ArrayList<ArrayList<Double>> lines;
+    private final ArrayList<ArrayList<Double>> nodes;
+    private final boolean lazy;
+    private final double maxEdgeLength;
+    private final int nearest;
+    private final Map<ArrayList<Double>, double[]> corners;
+    private final boolean table;
+    private final int[] ops;
+    private final long[] times;
+    private final int[] agents;
+    private final double[] values;
+    private final int[] expansions;
+    private final long[] nanos;
+    private final boolean[] anytime;
+    private final int size;
+    /**
+     * Read a whole trace from 'in'. A trace cut short by a crash is read up to its last full record.
+     *
+     * @param in stream holding the trace
+     * @spec.requires in != null
+     * @throws IOException the trace could not be read or is not a trace
+    */
+    public TraceReplay(InputStream in) throws IOException{
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if(data.readInt() != TraceRecorder.MAGIC){
+            throw new IOException("Not a trace");
+        }
+        int version = data.readByte();
+        if(version < 1 || version > TraceRecorder.VERSION){
+            throw new IOException("Unknown trace version");
+        }
+        lazy = data.readBoolean();
+        maxEdgeLength = data.readDouble();
+        nearest = data.readInt();
+        // Older traces have no table or corner nodes
+        table = version >= 3 && data.readBoolean();
+        int walls = data.readInt();
+        lines = new ArrayList<>();
+        for(int i = 0; i != walls*2; i++){
+            lines.add(point(data.readDouble(), data.readDouble()));
+        }
+        int count = data.readInt();
+        nodes = new ArrayList<>();
+        for(int i = 0; i != count; i++){
+            nodes.add(point(data.readDouble(), data.readDouble()));
+        }
+        corners = new HashMap<>();
+        int cornerCount = version >= 3 ? data.readInt() : 0;
+        for(int i = 0; i != cornerCount; i++){
+            ArrayList<Double> node = point(data.readDouble(), data.readDouble());
+            double[] corner = new double[data.readInt()];
+            for(int k = 0; k != corner.length; k++){
+                corner[k] = data.readDouble();
+            }
+            corners.put(node, corner);
+        }
+        int[] ops = new int[1024];
+        long[] times = new long[1024];
+        int[] agents = new int[1024];
+        double[] values = new double[4096];
+        int[] expansions = new int[1024];
+        long[] nanos = new long[1024];
+        boolean[] anytime = new boolean[1024];
+        int size = 0;
+        long time = 0;
+        while(true){
+            int op = data.read();
+            if(op < 0){
+                break;
+            }
+            int last = version == 1 ? TraceRecorder.MOVE : version == 2 ? TraceRecorder.GO_TO_STEPS
+             : TraceRecorder.PRECOMPUTE;
+            if(op < TraceRecorder.ADD_NODE || op > last){
+                throw new IOException("Unknown trace record " + op);
+            }
+            if(size == ops.length){
+                ops = Arrays.copyOf(ops, size*2);
+                times = Arrays.copyOf(times, size*2);
+                agents = Arrays.copyOf(agents, size*2);
+                values = Arrays.copyOf(values, size*8);
+                expansions = Arrays.copyOf(expansions, size*2);
+                nanos = Arrays.copyOf(nanos, size*2);
+                anytime = Arrays.copyOf(anytime, size*2);
+            }
+            try{
+                time += readVarLong(data);
+                int agent = -1;
+                if(op == TraceRecorder.GO_TO || op == TraceRecorder.MOVE
+                 || op == TraceRecorder.GO_TO_STEPS){
+                    agent = (int) readVarLong(data);
+                }
+                int length = op == TraceRecorder.MOVE || op == TraceRecorder.PRECOMPUTE ? 0
+                 : op == TraceRecorder.ADD_NODE || op == TraceRecorder.REMOVE_NODE ? 2 : 4;
+                for(int i = 0; i != length; i++){
+                    values[size*4+i] = data.readDouble();
+                }
+                if(op == TraceRecorder.GO_TO_STEPS){
+                    expansions[size] = (int) readVarLong(data);
+                    nanos[size] = readVarLong(data);
+                    anytime[size] = data.readBoolean();
+                }
+                agents[size] = agent;
+            }catch(EOFException e){
+                break;
+            }
+            ops[size] = op;
+            times[size] = time;
+            size++;
+        }
+        this.ops = ops;
+        this.times = times;
+        this.agents = agents;
+        this.values = values;
+        this.expansions = expansions;
+        this.nanos = nanos;
+        this.anytime = anytime;
+        this.size = size;
+    }
+    /**
+     * Returns the number of recorded calls.
+     *
+     * @return number of calls in the trace
+    */
+    public int size(){
+        return size;
+    }
+    /**
+     * Build a new graph from the recorded walls, nodes, corner nodes and graph mode, with its
+     * distance table if it had one.
+     *
+     * @return graph as it was when recording started
+    */
+    public TwoWayGraph graph(){
+        TwoWayGraph graph = TwoWayGraph.replay(lines, nodes, lazy, maxEdgeLength, nearest,
+         new HashMap<>(corners));
+        if(table){
+            graph.precompute();
+        }
+        return graph;
+    }
+    /**
+     * Play the trace against 'engine'. addNode, removeNode and precompute are skipped unless
+     * 'engine' is a TwoWayGraph, but other calls wait for them either way. Each recorded agent is replayed by a
+     * SuperAgent created where it first called goTo, with the same search budget if it had one.
+     *
+     * @param engine engine to play the trace against
+     * @param threads number of threads to replay on
+     * @param recordedPace iff true wait between calls as long as the recording did
+     * @spec.requires engine != null
+     * @spec.modifies engine
+     * @throws IllegalArgumentException threads < 1
+     * @throws InterruptedException interrupted while waiting for the replay threads
+     * @return latencies of the replayed calls
+    */
+    public Report replay(PathEngine engine, int threads, boolean recordedPace) throws InterruptedException{
+        if(threads < 1){
+            throw new IllegalArgumentException("Must replay on one or more threads");
+        }
+        // Calls of one agent stay on one thread in order, other queries are dealt out in turn.
+        // addNode and removeNode split the trace into rounds and run between them.
+        int[][] lanes = new int[threads][];
+        int[] counts = new int[threads];
+        int[] lane = new int[size];
+        int mutations = 0;
+        int next = 0;
+        for(int i = 0; i != size; i++){
+            if(mutation(i)){
+                lane[i] = -1;
+                mutations++;
+                continue;
+            }
+            if(agents[i] >= 0){
+                lane[i] = agents[i]%threads;
+            }else{
+                lane[i] = next;
+                next = (next+1)%threads;
+            }
+            counts[lane[i]]++;
+        }
+        int[] cuts = new int[mutations];
+        int[][] ends = new int[threads][mutations];
+        for(int i = 0; i != threads; i++){
+            lanes[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        mutations = 0;
+        for(int i = 0; i != size; i++){
+            if(lane[i] < 0){
+                for(int t = 0; t != threads; t++){
+                    ends[t][mutations] = counts[t];
+                }
+                cuts[mutations++] = i;
+            }else{
+                lanes[lane[i]][counts[lane[i]]++] = i;
+            }
+        }
+        long[] latency = new long[size];
+        Map<Integer, SuperAgent> crowd = new ConcurrentHashMap<>();
+        RuntimeException[] failure = new RuntimeException[threads];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        int[] round = new int[1];
+        // Runs on the last thread to reach the barrier while the others wait. If it throws the
+        // barrier stays broken and every thread stops.
+        CyclicBarrier barrier = new CyclicBarrier(threads,
+         () -> run(engine, crowd, cuts[round[0]++], start, recordedPace, latency));
+        for(int t = 0; t != threads; t++){
+            int[] mine = lanes[t];
+            int[] myEnds = ends[t];
+            int id = t;
+            workers[t] = new Thread(() -> {
+                int k = 0;
+                for(int r = 0; r <= cuts.length; r++){
+                    // A thread whose call failed skips the rest but still meets the others
+                    try{
+                        for(int end = r == cuts.length ? mine.length : myEnds[r]; k != end
+                         && failure[id] == null; k++){
+                            run(engine, crowd, mine[k], start, recordedPace, latency);
+                        }
+                    }catch(RuntimeException e){
+                        failure[id] = e;
+                    }
+                    if(r == cuts.length){
+                        break;
+                    }
+                    try{
+                        barrier.await();
+                    }catch(RuntimeException e){
+                        failure[id] = e;
+                        return;
+                    }catch(InterruptedException | BrokenBarrierException e){
+                        return;
+                    }
+                }
+            }, "trace-replay");
+            workers[t].start();
+        }
+        for(Thread worker: workers){
+            worker.join();
+        }
+        long elapsed = System.nanoTime()-start;
+        for(RuntimeException e: failure){
+            if(e != null){
+                throw e;
+            }
+        }
+        return new Report(ops, latency, size, elapsed);
+    }
+    /**
+     * Run call 'i' against 'engine', first waiting for its recorded time if 'recordedPace', and
+     * store its latency.
+    */
+    private void run(PathEngine engine, Map<Integer, SuperAgent> crowd, int i, long start,
+     boolean recordedPace, long[] latency){
+        if(recordedPace){
+            long wait = start+times[i]-System.nanoTime();
+            if(wait > 0){
+                LockSupport.parkNanos(wait);
+            }
+        }
+        long before = System.nanoTime();
+        play(engine, crowd, i);
+        latency[i] = System.nanoTime()-before;
+    }
+    private boolean mutation(int i){
+        return ops[i] == TraceRecorder.ADD_NODE || ops[i] == TraceRecorder.REMOVE_NODE
+         || ops[i] == TraceRecorder.PRECOMPUTE;
+    }
+    /**
+     * Run call 'i' against 'engine'.
+    */
+    private void play(PathEngine engine, Map<Integer, SuperAgent> crowd, int i){
+        int at = i*4;
+        switch(ops[i]){
+            case TraceRecorder.ADD_NODE:
+                if(engine instanceof TwoWayGraph){
+                    ((TwoWayGraph) engine).addNode(point(values[at], values[at+1]));
+                }
+                break;
+            case TraceRecorder.REMOVE_NODE:
+                if(engine instanceof TwoWayGraph){
+                    ((TwoWayGraph) engine).removeNode(point(values[at], values[at+1]));
+                }
+                break;
+            case TraceRecorder.PRECOMPUTE:
+                if(engine instanceof TwoWayGraph){
+                    ((TwoWayGraph) engine).precompute();
+                }
+                break;
+            case TraceRecorder.PATH_FIND:
+                engine.PathFind(point(values[at], values[at+1]), point(values[at+2], values[at+3]));
+                break;
+            case TraceRecorder.GO_TO:
+            case TraceRecorder.GO_TO_STEPS:
+                SuperAgent agent = crowd.get(agents[i]);
+                if(agent == null){
+                    agent = new SuperAgent(agent(values[at], values[at+1]), engine);
+                    crowd.put(agents[i], agent);
+                }
+                if(ops[i] == TraceRecorder.GO_TO){
+                    agent.goTo(point(values[at+2], values[at+3]));
+                }else{
+                    agent.goTo(point(values[at+2], values[at+3]), expansions[i], nanos[i], anytime[i]);
+                }
+                break;
+            default:
+                // Agents that never called goTo have nowhere to go
+                SuperAgent mover = crowd.get(agents[i]);
+                if(mover != null){
+                    try{
+                        mover.move();
+                    }catch(ExecutionException e){
+                        throw new IllegalStateException(e);
+                    }
+                }
+        }
+    }
+    private static Agent agent(double x, double y){
+        double bound = Math.max(Math.abs(x), Math.abs(y))*2+1e6;
+        try{
+            return new Agent(x, y, bound, -bound, bound, -bound, .5, 1);
+        }catch(ExecutionException e){
+            throw new IllegalStateException(e);
+        }
+    }
+    private static ArrayList<Double> point(double x, double y){
+        ArrayList<Double> point = new ArrayList<>();
+        point.add(x);
+        point.add(y);
+        return point;
+    }
+    private static long readVarLong(DataInputStream data) throws IOException{
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            int b = data.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed trace");
+    }
+    /**
+     * Replay a trace file and print the report.
+     * Arguments: trace file, threads (default 1), "recorded" to keep the recorded pace and
+     * "compact" to replay against the CompactGraph of the recorded graph.
+    */
+    public static void main(String[] args) throws IOException, InterruptedException{
+        if(args.length == 0){
+            System.out.println("Usage: TraceReplay <trace> [threads] [recorded] [compact]");
+            return;
+        }
+        TraceReplay trace;
+        try(InputStream in = new FileInputStream(args[0])){
+            trace = new TraceReplay(in);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        boolean recorded = Arrays.asList(args).contains("recorded");
+        PathEngine engine = trace.graph();
+        if(Arrays.asList(args).contains("compact")){
+            engine = ((TwoWayGraph) engine).compact();
+        }
+        System.out.println(trace.replay(engine, threads, recorded));
+    }
+    /**
+     * Throughput and latency percentiles of one replay.
+    */
+    public static class Report{
+        private final long[][] latencies;
+        private final long[] all;
+        private final long elapsed;
+        Report(int[] ops, long[] latency, int size, long elapsed){
+            this.elapsed = elapsed;
+            all = Arrays.copyOf(latency, size);
+            Arrays.sort(all);
+            int[] counts = new int[NAMES.length];
+            for(int i = 0; i != size; i++){
+                counts[ops[i]]++;
+            }
+            latencies = new long[NAMES.length][];
+            for(int op = 0; op != NAMES.length; op++){
+                latencies[op] = new long[counts[op]];
+                counts[op] = 0;
+            }
+            for(int i = 0; i != size; i++){
+                latencies[ops[i]][counts[ops[i]]++] = latency[i];
+            }
+            for(long[] times: latencies){
+                Arrays.sort(times);
+            }
+        }
+        /**
+         * Returns the number of calls replayed per second.
+         *
+         * @return calls per second
+        */
+        public double throughput(){
+            return elapsed == 0 ? 0 : all.length*1e9/elapsed;
+        }
+        /**
+         * Returns the latency below which 'fraction' of the calls of type 'op' finished.
+         *
+         * @param op one of the TraceRecorder op codes, or 0 for every call
+         * @param fraction between 0 and 1
+         * @throws IllegalArgumentException op is not an op code or 0
+         * @return latency in nanoseconds, 0 if there were no such calls
+        */
+        public long percentile(int op, double fraction){
+            if(op < 0 || op >= NAMES.length){
+                throw new IllegalArgumentException("Unknown op " + op);
+            }
+            long[] times = op == 0 ? all : latencies[op];
+            if(times.length == 0){
+                return 0;
+            }
+            int at = (int) Math.ceil(fraction*times.length)-1;
+            return times[Math.max(0, Math.min(times.length-1, at))];
+        }
+        @Override
+        public String toString(){
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("%d calls in %.3f s, %.1f calls/s%n", all.length, elapsed/1e9,
+             throughput()));
+            out.append(String.format("%-10s %8s %10s %10s %10s %10s%n", "call", "count", "p50 us",
+             "p90 us", "p99 us", "max us"));
+            for(int op = 0; op != NAMES.length; op++){
+                long[] times = op == 0 ? all : latencies[op];
+                if(times.length == 0){
+                    continue;
+                }
+                out.append(String.format("%-10s %8d %10.1f %10.1f %10.1f %10.1f%n", op == 0 ? "all"
+                 : NAMES[op], times.length, percentile(op, .5)/1e3, percentile(op, .9)/1e3,
+                 percentile(op, .99)/1e3, times[times.length-1]/1e3));
+            }
+            return out.toString();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
@@ -8,15 +9,31 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.RuntimeErrorException;
 
 /**
  * TwoWayGraph is an mutable list of nodes with 
+ * Queries may run concurrently with each other. addNode and removeNode wait for running queries.
 */
-public class TwoWayGraph {
+public class TwoWayGraph implements PathEngine{
     private final Map<ArrayList<Double>,Set<ArrayList<Double>>> coordinates;
     private final ObstacleCourse obstacles;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile int version;
+    private final boolean lazy;
+    private final double maxEdgeLength;
+    private final int nearest;
+    private final Map<Edge, Boolean> checked;
+    private volatile TraceRecorder recorder;
+    private final Map<ArrayList<Double>, double[]> corners;
+    private final Object tableLock = new Object();
+    private volatile DistanceTable table;
+    private volatile GraphIndex graphIndex;
 /**
  * Contruct new TwoWayGraph
  * 
@@ -26,11 +43,46 @@ public class TwoWayGraph {
  * @spec.requires no null values and no perfectly verticle lines and Coordinates have length 2
 */
     public TwoWayGraph(ArrayList<ArrayList<Double>> lines, ArrayList<ArrayList<Double>> nodes){
+        this(lines, nodes, false, Double.POSITIVE_INFINITY, 0);
+    }
+/**
+ * Contruct new TwoWayGraph. Only pairs of nodes at most 'maxEdgeLength' apart where one is among the
+ * 'nearest' closest nodes to the other are candidate edges. In lazy mode candidate edges are assumed
+ * clear and line of sight is only checked when a search is about to use an edge. Each result is cached.
+ * 
+ * @param lines the coordinates of the ObstecleCourse. Coordinates come in pairs for each LineSegment.
+ * @param nodes the coordinates of the nodes.
+ * @param lazy iff true check line of sight on first use instead of now
+ * @param maxEdgeLength longest candidate edge. Double.POSITIVE_INFINITY for no limit.
+ * @param nearest number of closest nodes each node has candidate edges to. 0 for no limit.
+ * @throws IllegalArgumentExeption iff lines.size()%2 == 1 || nodes.size() < 2 || nearest < 0
+ * @spec.requires no null values and no perfectly verticle lines and Coordinates have length 2
+*/
+    public TwoWayGraph(ArrayList<ArrayList<Double>> lines, ArrayList<ArrayList<Double>> nodes, boolean lazy,
+     double maxEdgeLength, int nearest){
+        this(new ObstacleCourse(doubleArrayToArrayList(lines)), nodes, lazy, maxEdgeLength, nearest,
+         new HashMap<>());
+    }
+    /**
+     * Construct a graph whose nodes in 'corners' only get edges tangent to the walls at that corner.
+     * 
+     * @param corners corner position followed by the direction of each wall leaving it, by node
+    */
+    private TwoWayGraph(ObstacleCourse obstacles, ArrayList<ArrayList<Double>> nodes, boolean lazy,
+     double maxEdgeLength, int nearest, Map<ArrayList<Double>, double[]> corners){
         if(nodes.size() < 2){
             throw new IllegalArgumentException("Must have two or more nodes in ArrayList");
         }
+        if(nearest < 0){
+            throw new IllegalArgumentException("nearest must not be negative");
+        }
+        this.lazy = lazy;
+        this.maxEdgeLength = maxEdgeLength;
+        this.nearest = nearest;
+        checked = new ConcurrentHashMap<>();
         coordinates = new HashMap<>();
-        obstacles = new ObstacleCourse(doubleArrayToArrayList(lines));
+        this.obstacles = obstacles;
+        this.corners = corners;
         // Add every node to the graph
         for(int i = 0; i != nodes.size(); i++){
             Set<ArrayList<Double>> set = new HashSet<>();
@@ -38,16 +90,123 @@ public class TwoWayGraph {
         }
         // Add edges
         Set<ArrayList<Double>> elements = coordinates.keySet();
+        Map<ArrayList<Double>, Set<ArrayList<Double>>> closest = new HashMap<>();
+        if(nearest > 0){
+            for(ArrayList<Double> node: elements){
+                closest.put(node, nearestNodes(node));
+            }
+        }
         for(ArrayList<Double> node1: elements){
             for(ArrayList<Double> node2: elements){
                 if(!node1.equals(node2)){
-                    if(!obstacles.collision(new LineSegment(convertArrayListToDoubleArray(node1), convertArrayListToDoubleArray(node2)))){
+                    if(nearest > 0 && !closest.get(node1).contains(node2) && !closest.get(node2).contains(node1)){
+                        continue;
+                    }
+                    if(getDistance(node1, node2) > maxEdgeLength || !tangent(node1, node2) || !tangent(node2, node1)){
+                        continue;
+                    }
+                    if(lazy || !obstacles.collision(new LineSegment(convertArrayListToDoubleArray(node1), convertArrayListToDoubleArray(node2)))){
                         coordinates.get(node1).add(node2);
                     }
                 }
             }
         }
     }
+    /**
+     * Construct a graph whose nodes are placed automatically just outside every convex wall corner.
+     * A corner is convex if the walls meeting there leave a gap wider than a half turn, as at the
+     * free end of a wall. Edges are only kept if they are tangent to the walls at both ends, since
+     * a shortest path only turns around corners. Paths are as short as with a node at every corner
+     * but pass 'clearance' away from them.
+     * 
+     * @param lines the coordinates of the ObstecleCourse. Coordinates come in pairs for each LineSegment.
+     * @param clearance distance from each corner to its node
+     * @throws IllegalArgumentExeption iff lines.size()%2 == 1 || clearance <= 0 || there are fewer
+     * than two convex corners
+     * @spec.requires no null values and no perfectly verticle lines and Coordinates have length 2
+     * @return graph over the convex corners of 'lines'
+    */
+    public static TwoWayGraph fromObstacles(ArrayList<ArrayList<Double>> lines, double clearance){
+        if(!(clearance > 0)){
+            throw new IllegalArgumentException("clearance must be positive");
+        }
+        ObstacleCourse obstacles = new ObstacleCourse(doubleArrayToArrayList(lines));
+        Map<ArrayList<Double>, double[]> corners = corners(obstacles, clearance);
+        return new TwoWayGraph(obstacles, new ArrayList<>(corners.keySet()), false,
+         Double.POSITIVE_INFINITY, 0, corners);
+    }
+    /**
+     * Construct a graph as a trace recorded it, with the corner nodes it had if it was built by
+     * fromObstacles.
+     * 
+     * @param lines the coordinates of the ObstecleCourse. Coordinates come in pairs for each LineSegment.
+     * @param nodes the coordinates of the nodes.
+     * @param lazy iff true check line of sight on first use instead of now
+     * @param maxEdgeLength longest candidate edge. Double.POSITIVE_INFINITY for no limit.
+     * @param nearest number of closest nodes each node has candidate edges to. 0 for no limit.
+     * @param corners corner position followed by the direction of each wall leaving it, by node.
+     * Empty if the graph has no corner nodes.
+     * @return graph as it was when recording started
+    */
+    static TwoWayGraph replay(ArrayList<ArrayList<Double>> lines, ArrayList<ArrayList<Double>> nodes,
+     boolean lazy, double maxEdgeLength, int nearest, Map<ArrayList<Double>, double[]> corners){
+        return new TwoWayGraph(new ObstacleCourse(doubleArrayToArrayList(lines)), nodes, lazy,
+         maxEdgeLength, nearest, corners);
+    }
+    /**
+     * Find a node just outside each convex corner of the walls. Nodes that would share an x
+     * coordinate are nudged apart since vertical lines are not supported.
+     * 
+     * @param obstacles walls to find corners of
+     * @param clearance distance from each corner to its node
+     * @return corner position followed by the direction of each wall leaving it, by node
+    */
+    static Map<ArrayList<Double>, double[]> corners(ObstacleCourse obstacles, double clearance){
+        // Directions of the walls leaving each end point
+        Map<ArrayList<Double>, ArrayList<Double>> leaving = new HashMap<>();
+        for(int i = 0; i != obstacles.wallCount(); i++){
+            LineSegment wall = obstacles.getWall(i);
+            double length = wall.magnitude();
+            double dx = (wall.tailX()-wall.headX())/length;
+            double dy = (wall.tailY()-wall.headY())/length;
+            leaving.computeIfAbsent(point(wall.headX(), wall.headY()), key -> new ArrayList<>()).add(Math.atan2(dy, dx));
+            leaving.computeIfAbsent(point(wall.tailX(), wall.tailY()), key -> new ArrayList<>()).add(Math.atan2(-dy, -dx));
+        }
+        Map<ArrayList<Double>, double[]> corners = new HashMap<>();
+        Set<Double> used = new HashSet<>();
+        for(Map.Entry<ArrayList<Double>, ArrayList<Double>> entry: leaving.entrySet()){
+            ArrayList<Double> angles = entry.getValue();
+            Collections.sort(angles);
+            // The widest gap between walls is the outside of the corner
+            double gap = angles.get(0)+2*Math.PI-angles.get(angles.size()-1);
+            double from = angles.get(angles.size()-1);
+            for(int i = 1; i != angles.size(); i++){
+                if(angles.get(i)-angles.get(i-1) > gap){
+                    gap = angles.get(i)-angles.get(i-1);
+                    from = angles.get(i-1);
+                }
+            }
+            if(gap <= Math.PI){
+                continue;
+            }
+            double x = entry.getKey().get(0);
+            double y = entry.getKey().get(1);
+            double nodeX = x+clearance*Math.cos(from+gap/2);
+            double nodeY = y+clearance*Math.sin(from+gap/2);
+            while(!used.add(nodeX)){
+                nodeX += clearance*1e-3;
+            }
+            double[] corner = new double[2+2*angles.size()];
+            corner[0] = x;
+            corner[1] = y;
+            for(int i = 0; i != angles.size(); i++){
+                corner[2+2*i] = Math.cos(angles.get(i));
+                corner[3+2*i] = Math.sin(angles.get(i));
+            }
+            corners.put(point(nodeX, nodeY), corner);
+        }
+        return corners;
+    }
     public static void main(String[] args) {
         ArrayList<ArrayList<Double>> lines = new ArrayList<>();
         lines.add(new ArrayList<>());
@@ -88,19 +247,41 @@ public class TwoWayGraph {
         System.out.println(a.PathFind(startPoint, endPoint));
     }    
     /**
-     * List child nodes of 'node'
+     * List child nodes of 'node'. In lazy mode this checks every unchecked edge of 'node'.
      * 
      * @param node parent node
      * @spec.requires no null inputs
      * @return children of 'node'
     */
     public ArrayList<ArrayList<Double>> children(ArrayList<Double> node){
-        ArrayList<ArrayList<Double>> goal = new ArrayList<>();
-        Set<ArrayList<Double>> children = coordinates.get(node);
-        for(ArrayList<Double> child: children){
-            goal.add(child);
+        lock.readLock().lock();
+        try{
+            ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+            Set<ArrayList<Double>> children = coordinates.get(node);
+            for(ArrayList<Double> child: children){
+                if(edgeClear(node, child)){
+                    goal.add(child);
+                }
+            }
+            return goal;
+        }finally{
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Indicate if 'node' is in the graph.
+     * 
+     * @param node node to look for
+     * @spec.requires node != null
+     * @return true iff 'node' is in graph
+    */
+    public boolean containsNode(ArrayList<Double> node){
+        lock.readLock().lock();
+        try{
+            return coordinates.containsKey(node);
+        }finally{
+            lock.readLock().unlock();
         }
-        return goal;
     }
     /**
      * Find all nodes that are reachable via point.
@@ -110,15 +291,20 @@ public class TwoWayGraph {
      * @return List of nodes that are reachable via point
     */
     public ArrayList<ArrayList<Double>> validNodes(ArrayList<Double> point){
-        ArrayList<ArrayList<Double>> goal = new ArrayList<ArrayList<Double>>();
-        for(ArrayList<Double> coordinate: coordinates.keySet()){
-            LineSegment line = new LineSegment(convertArrayListToDoubleArray(point), 
-            convertArrayListToDoubleArray(coordinate));
-            if(!obstacles.collision(line)){
-                goal.add(coordinate);
+        lock.readLock().lock();
+        try{
+            ArrayList<ArrayList<Double>> goal = new ArrayList<ArrayList<Double>>();
+            for(ArrayList<Double> coordinate: coordinates.keySet()){
+                LineSegment line = new LineSegment(convertArrayListToDoubleArray(point), 
+                convertArrayListToDoubleArray(coordinate));
+                if(!obstacles.collision(line)){
+                    goal.add(coordinate);
+                }
             }
+            return goal;
+        }finally{
+            lock.readLock().unlock();
         }
-        return goal;
     }
     /**
      * Find quickest path from 'start' to 'end'. Start and end must be in graph.
@@ -131,82 +317,379 @@ public class TwoWayGraph {
      * return null if no path exists
     */
     public ArrayList<ArrayList<Double>> FindPath(ArrayList<Double> start, ArrayList<Double> end){
-        if(!coordinates.containsKey(start) || !coordinates.containsKey(end)){
-            throw new IllegalArgumentException("Nodes not present in graph!");
+        DistanceTable known = freshTable();
+        if(known != null && known.contains(start) && known.contains(end) && !start.equals(end)){
+            return known.path(start, end);
         }
-        
-        // Start at 'start'
-        PriorityQueue<Path> active = new PriorityQueue<>();
-        Set<ArrayList<Double>> finished = new HashSet<>();
-        Map<ArrayList<Double>, Double> distance = new HashMap<>();
-        Map<ArrayList<Double>, ArrayList<Double>> prev = new HashMap<>();
-        active.add(new Path(start));
-        distance.put(start,0.);
-        prev.put(start,null);
-        
-        while(!active.isEmpty()){
-            Path current = active.remove();
-            ArrayList<Double> point = current.getHead();
-            ArrayList<ArrayList<Double>> children = children(point);
-            for(int i = 0; i != children.size(); i++){
-                ArrayList<Double> child = children.get(i);
-                Path newPath = current.addPoint(child);
-                if(!distance.containsKey(child)){
-                    distance.put(child,null);
-                    prev.put(child, null);
-                }
-                if(distance.get(child) == null || distance.get(child) > newPath.length){
-                    distance.put(child, newPath.length);
-                    prev.put(child, point);
-                }
-                if(!finished.contains(child)){
-                    active.add(current.addPoint(child));
-                }
+        lock.readLock().lock();
+        try{
+            if(!coordinates.containsKey(start) || !coordinates.containsKey(end)){
+                throw new IllegalArgumentException("Nodes not present in graph!");
             }
-            finished.add(point);
-            if(finished.contains(end)){
+            if(start.equals(end)){
                 ArrayList<ArrayList<Double>> goal = new ArrayList<>();
-                ArrayList<Double> place = end;
-                while(place != null){
-                    goal.add(place);
-                    place = prev.get(place);
-                }
-                Collections.reverse(goal);
+                goal.add(end);
                 return goal;
             }
+            if(!lazy){
+                return search(start, end);
+            }
+            PathSearch search = new PathSearch(this, start, end, false);
+            search.run();
+            return search.path();
+        }finally{
+            lock.readLock().unlock();
         }
-        return null;
     }
     /**
      * Find quickest path from 'start' to 'end'. 'start' and 'end' do not have to be in graph.
+     * The graph is not modified so many PathFind calls may run at once. A point outside the graph
+     * gets the edges addNode would give it, but 'start' and 'end' do not count each other when
+     * their nearest nodes are picked.
      * 
      * @param start node to start at
      * @param end node to end at
      * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
      * @return quickest path from 'start' to 'end'. This is represented as an ArrayList of 2d coordinates
     */
+    @Override
     public ArrayList<ArrayList<Double>> PathFind(ArrayList<Double> start, ArrayList<Double> end){
+        TraceRecorder trace = recorder;
+        if(trace != null){
+            trace.pathFind(start, end);
+        }
+        if(start.equals(end)){
+            return null;
+        }
+        DistanceTable known = freshTable();
+        if(known != null && known.contains(start) && known.contains(end)){
+            return known.path(start, end);
+        }
+        if(!lazy){
+            lock.readLock().lock();
+            try{
+                return search(start, end);
+            }finally{
+                lock.readLock().unlock();
+            }
+        }
+        // Lazy graphs check edges as nodes are settled, which needs every way into a node kept
+        PathSearch search = new PathSearch(this, start, end, false);
+        search.run();
+        return search.path();
+    }
+    /**
+     * Find quickest path from 'start' to 'end' as a WaypointPath. 'start' and 'end' do not have to
+     * be in graph. Outside lazy mode the path is read straight out of the search's arrays.
+     * 
+     * @param start point to start at
+     * @param end point to end at
+     * @spec.requires start != null, end != null, start.size() == 2, end.size() == 2
+     * @return quickest path from 'start' to 'end', or null if start equals end or no path exists
+    */
+    @Override
+    public WaypointPath PathFindWaypoints(ArrayList<Double> start, ArrayList<Double> end){
+        TraceRecorder trace = recorder;
+        if(trace != null){
+            trace.pathFind(start, end);
+        }
         if(start.equals(end)){
             return null;
         }
-        Set<ArrayList<Double>> toRemove = new HashSet<>();
-        if(!coordinates.containsKey(start)){
-            addNode(start);
-            toRemove.add(start);
+        DistanceTable known = freshTable();
+        if(known != null && known.contains(start) && known.contains(end)){
+            return WaypointPath.of(known.path(start, end));
         }
-        if(!coordinates.containsKey(end)){
-            addNode(end);
-            toRemove.add(end);
+        if(!lazy){
+            lock.readLock().lock();
+            try{
+                GraphIndex nodes = index();
+                SearchWorkspace work = SearchWorkspace.acquire(nodes.size()+2);
+                int last = search(work, nodes, start, end);
+                return last < 0 ? null : waypoints(work, nodes, last, start, end);
+            }finally{
+                lock.readLock().unlock();
+            }
         }
-        ArrayList<ArrayList<Double>> goal = FindPath(start, end);
-        if(toRemove.contains(start)){
-            removeNode(start);
+        PathSearch search = new PathSearch(this, start, end, false);
+        search.run();
+        return WaypointPath.of(search.path());
+    }
+    /**
+     * A* from 'start' to 'end' in this thread's SearchWorkspace.
+     * 
+     * @spec.requires caller holds queryLock(), graph is not lazy, !start.equals(end)
+     * @return quickest path from 'start' to 'end', or null if none exists
+    */
+    private ArrayList<ArrayList<Double>> search(ArrayList<Double> start, ArrayList<Double> end){
+        GraphIndex nodes = index();
+        SearchWorkspace work = SearchWorkspace.acquire(nodes.size()+2);
+        int last = search(work, nodes, start, end);
+        return last < 0 ? null : trace(work, nodes, last, start, end);
+    }
+    /**
+     * A* from 'start' to 'end' over 'nodes' in 'work'. Points outside the graph are linked in as
+     * nodes n and n+1 for this search only, each by the rule addNode would use to add it alone.
+     * Apart from line of sight tests for those links nothing is allocated.
+     * 
+     * @spec.requires caller holds queryLock(), graph is not lazy, !start.equals(end), 'work' was
+     * just acquired for nodes.size()+2 nodes
+     * @spec.modifies work
+     * @return number of the node the path ends at, its parents lead back to the start. -1 if no
+     * path exists
+    */
+    private int search(SearchWorkspace work, GraphIndex nodes, ArrayList<Double> start, ArrayList<Double> end){
+        int n = nodes.size();
+        int from = nodes.find(start);
+        int to = nodes.find(end);
+        int first = from < 0 ? n : from;
+        int last = to < 0 ? n+1 : to;
+        double ex = end.get(0);
+        double ey = end.get(1);
+        if(from < 0){
+            double reach = nodes.reach(start);
+            for(int i = 0; i != n; i++){
+                if(linkable(start, nodes, i, reach) && lineOfSight(start, nodes.nodes[i])){
+                    work.link(i);
+                }
+            }
         }
-        if(toRemove.contains(end)){
-            removeNode(end);
+        if(to < 0){
+            double reach = nodes.reach(end);
+            for(int i = 0; i != n; i++){
+                if(linkable(end, nodes, i, reach) && lineOfSight(end, nodes.nodes[i])){
+                    work.mark(i);
+                }
+            }
+            if(from < 0 && linkable(start, end) && lineOfSight(start, end)){
+                work.link(n+1);
+            }
+        }
+        double sx = start.get(0);
+        double sy = start.get(1);
+        work.open(first, 0, -1, Math.sqrt((sx-ex)*(sx-ex)+(sy-ey)*(sy-ey)));
+        while(!work.heap.isEmpty()){
+            int current = work.heap.pop();
+            if(current == last){
+                return last;
+            }
+            work.close(current);
+            double length = work.length[current];
+            double cx = current == n ? sx : nodes.x[current];
+            double cy = current == n ? sy : nodes.y[current];
+            if(current == n){
+                for(int k = 0; k != work.linkCount; k++){
+                    int child = work.links[k];
+                    double qx = child == n+1 ? ex : nodes.x[child];
+                    double qy = child == n+1 ? ey : nodes.y[child];
+                    double step = Math.sqrt((cx-qx)*(cx-qx)+(cy-qy)*(cy-qy));
+                    if(!work.closed(child)){
+                        work.open(child, length+step, current, Math.sqrt((qx-ex)*(qx-ex)+(qy-ey)*(qy-ey)));
+                    }
+                }
+                continue;
+            }
+            for(int k = nodes.offsets[current]; k != nodes.offsets[current+1]; k++){
+                int child = nodes.targets[k];
+                if(!work.closed(child)){
+                    double qx = nodes.x[child];
+                    double qy = nodes.y[child];
+                    work.open(child, length+nodes.weights[k], current,
+                     Math.sqrt((qx-ex)*(qx-ex)+(qy-ey)*(qy-ey)));
+                }
+            }
+            if(to < 0 && work.marked(current) && !work.closed(n+1)){
+                work.open(n+1, length+Math.sqrt((cx-ex)*(cx-ex)+(cy-ey)*(cy-ey)), current, 0);
+            }
+        }
+        return -1;
+    }
+    /**
+     * Follow parents back from 'place' to the start of the search.
+    */
+    private static ArrayList<ArrayList<Double>> trace(SearchWorkspace work, GraphIndex nodes, int place,
+     ArrayList<Double> start, ArrayList<Double> end){
+        int n = nodes.size();
+        ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+        while(place != -1){
+            goal.add(place == n ? start : place == n+1 ? end : nodes.nodes[place]);
+            place = work.parent[place];
         }
+        Collections.reverse(goal);
         return goal;
     }
+    /**
+     * Follow parents back from 'place' to the start of the search, filling the coordinates from
+     * the end.
+    */
+    private static WaypointPath waypoints(SearchWorkspace work, GraphIndex nodes, int place,
+     ArrayList<Double> start, ArrayList<Double> end){
+        int n = nodes.size();
+        int count = 0;
+        for(int at = place; at != -1; at = work.parent[at]){
+            count++;
+        }
+        double[] points = new double[2*count];
+        for(int at = place, i = 2*count-2; at != -1; at = work.parent[at], i -= 2){
+            points[i] = at == n ? start.get(0) : at == n+1 ? end.get(0) : nodes.x[at];
+            points[i+1] = at == n ? start.get(1) : at == n+1 ? end.get(1) : nodes.y[at];
+        }
+        return new WaypointPath(points);
+    }
+    /**
+     * Build a table of the quickest distances and paths between every two nodes and use it from
+     * now on for FindPath and for PathFind between nodes. The table is built again on first use
+     * after nodes are added or removed. Meant for small graphs that rarely change. If the graph
+     * grows past 46340 nodes the table is dropped and searches are used again.
+     * 
+     * @spec.modifies this
+     * @throws IllegalArgumentException the graph has more than 46340 nodes
+     * @return the table built
+    */
+    public DistanceTable precompute(){
+        DistanceTable built;
+        lock.readLock().lock();
+        try{
+            built = new DistanceTable(this);
+        }finally{
+            lock.readLock().unlock();
+        }
+        table = built;
+        TraceRecorder trace = recorder;
+        if(trace != null){
+            trace.precompute();
+        }
+        return built;
+    }
+    /**
+     * Use a table read with DistanceTable.read, such as one stored with the map, as precompute
+     * would. If it does not describe this graph's nodes and edges a new table is built instead.
+     * 
+     * @param stored table to use
+     * @spec.requires stored != null
+     * @spec.modifies this
+     * @throws IllegalArgumentException a new table is needed and the graph has more than 46340 nodes
+     * @return true iff 'stored' is used, false if a new table was built
+    */
+    public boolean useTable(DistanceTable stored){
+        lock.readLock().lock();
+        try{
+            boolean matches = stored.matches(this);
+            table = matches ? stored.bind(version) : new DistanceTable(this);
+            // A matching table answers as a new one would, so both replay as precompute
+            TraceRecorder trace = recorder;
+            if(trace != null){
+                trace.precompute();
+            }
+            return matches;
+        }finally{
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Returns the distance table for the graph as it is now, building it again if nodes were added
+     * or removed since. One thread builds while the others wait for it. A graph grown too large
+     * for a table stops using one.
+     * 
+     * @return current table, or null if none is used
+    */
+    private DistanceTable freshTable(){
+        DistanceTable known = table;
+        if(known == null || known.version() == version){
+            return known;
+        }
+        synchronized(tableLock){
+            known = table;
+            if(known != null && known.version() != version){
+                lock.readLock().lock();
+                try{
+                    known = DistanceTable.fits(coordinates.size()) ? new DistanceTable(this) : null;
+                }finally{
+                    lock.readLock().unlock();
+                }
+                table = known;
+            }
+            return known;
+        }
+    }
+    /**
+     * Register 'goals' for nearest goal searches through this graph. Their links into the graph are
+     * found on first use and kept until nodes are added or removed.
+     * 
+     * @param goals goal points, which do not have to be in graph
+     * @spec.requires no null values
+     * @throws IllegalArgumentException goals is empty or a goal is not 2d
+     * @return goal set for PathFindNearest
+    */
+    public GoalSet goalSet(Collection<ArrayList<Double>> goals){
+        return new GoalSet(this, goals);
+    }
+    /**
+     * Find the nearest of 'goals' from 'start' and the quickest path to it with one search that
+     * stops when the first goal is settled. 'start' does not have to be in graph.
+     * 
+     * @param start point to start at
+     * @param goals goals registered with this graph
+     * @spec.requires start != null, goals != null, start.size() == 2
+     * @throws IllegalArgumentException 'goals' were registered with another graph
+     * @return the nearest goal and its path, or null if no goal can be reached
+    */
+    public GoalSet.Match PathFindNearest(ArrayList<Double> start, GoalSet goals){
+        PathSearch search = new PathSearch(this, start, goals, false);
+        search.run();
+        ArrayList<ArrayList<Double>> path = search.path();
+        return path == null ? null : new GoalSet.Match(search.goal(), path);
+    }
+    /**
+     * Copy this graph into a CompactGraph that keeps coordinates and edge lengths as float.
+     * Line of sight is not tested again. In lazy mode every candidate edge is checked first.
+     * 
+     * @return compact copy of this graph
+    */
+    public CompactGraph compact(){
+        lock.readLock().lock();
+        try{
+            ArrayList<ArrayList<Double>> nodes = new ArrayList<>(coordinates.keySet());
+            Map<ArrayList<Double>, Set<ArrayList<Double>>> edges = new HashMap<>();
+            for(ArrayList<Double> node: nodes){
+                Set<ArrayList<Double>> clear = new HashSet<>();
+                for(ArrayList<Double> child: coordinates.get(node)){
+                    if(edgeClear(node, child)){
+                        clear.add(child);
+                    }
+                }
+                edges.put(node, clear);
+            }
+            return new CompactGraph(obstacles, nodes, edges);
+        }finally{
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Record every later addNode, removeNode, PathFind, precompute and useTable call to 'trace',
+     * starting with the current walls, nodes, corner nodes and whether a table is in use. Pass null
+     * to stop recording.
+     * 
+     * @param trace recorder to write to or null
+     * @throws IllegalStateException 'trace' is already recording another graph
+     * @spec.modifies this, trace
+    */
+    public void record(TraceRecorder trace){
+        lock.writeLock().lock();
+        try{
+            if(trace != null){
+                ArrayList<LineSegment> walls = new ArrayList<>();
+                for(int i = 0; i != obstacles.wallCount(); i++){
+                    walls.add(obstacles.getWall(i));
+                }
+                trace.scene(walls, new ArrayList<>(coordinates.keySet()), lazy, maxEdgeLength, nearest,
+                 corners, table != null);
+            }
+            recorder = trace;
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
     /**
      * Sort the given data according to their distance from 'point'.
      * 
@@ -227,6 +710,7 @@ public class TwoWayGraph {
     // Sort the data ArrayList using the custom comparator
     Collections.sort(data, distanceComparator);
     }
+    @Override
     public void draw(){
         obstacles.draw();
     }
@@ -298,16 +782,26 @@ private double getDistance(ArrayList<Double> p1, ArrayList<Double> p2){
      * @return true iff node was in graph
     */
     public boolean removeNode(ArrayList<Double> node) {
-        // Remove node from graph
-        Set<ArrayList<Double>> children = coordinates.remove(node);
-        if (children == null) {
-            return false;
-        }
-        // Remove node from children of other nodes
-        for (ArrayList<Double> parent : coordinates.keySet()) {
-            coordinates.get(parent).remove(node);
+        lock.writeLock().lock();
+        try{
+            if(recorder != null){
+                recorder.removeNode(node);
+            }
+            // Remove node from graph
+            Set<ArrayList<Double>> children = coordinates.remove(node);
+            if (children == null) {
+                return false;
+            }
+            // Remove node from children of other nodes
+            for (ArrayList<Double> parent : coordinates.keySet()) {
+                coordinates.get(parent).remove(node);
+            }
+            checked.keySet().removeIf(edge -> edge.from.equals(node) || edge.to.equals(node));
+            version++;
+            return true;
+        }finally{
+            lock.writeLock().unlock();
         }
-        return true;
     }
     /**
      * Insert a 2d point named 'node' into the graph and return true iff it is not already present.
@@ -324,17 +818,253 @@ private double getDistance(ArrayList<Double> p1, ArrayList<Double> p2){
         if(node.size() != 2){
             throw new IllegalArgumentException("node was not 2d!");
         }
-        if(coordinates.containsKey(node)){
+        lock.writeLock().lock();
+        try{
+            if(recorder != null){
+                recorder.addNode(node);
+            }
+            if(coordinates.containsKey(node)){
+                return false;
+            }
+            Set<ArrayList<Double>> near = nearest > 0 ? nearestNodes(node) : null;
+            Set<ArrayList<Double>> childPoints = new HashSet<>();
+            coordinates.put(node, childPoints);
+            // For each candidate node, near enough from either side as in the constructor
+            for(ArrayList<Double> point: coordinates.keySet()){
+                if(point.equals(node) || !candidate(node, point)){
+                    continue;
+                }
+                if(near != null && !near.contains(point) && !amongNearest(point, node)){
+                    continue;
+                }
+                // If there is line of sight
+                if(lazy || lineOfSight(point, node)){
+                    coordinates.get(point).add(node);
+                    coordinates.get(node).add(point);
+                }
+            }
+            version++;
+            return true;
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Returns the lock queries hold while reading the graph.
+     * 
+     * @return read lock of this graph
+    */
+    Lock queryLock(){
+        return lock.readLock();
+    }
+    /**
+     * Returns a number that changes every time a node is added or removed.
+     * 
+     * @return structure version of this graph
+    */
+    int version(){
+        return version;
+    }
+    /**
+     * Returns the number of nearest nodes edges are limited to.
+     * 
+     * @return 'nearest', 0 if edges are not limited
+    */
+    int nearest(){
+        return nearest;
+    }
+    /**
+     * Returns the children of 'node' without copying them.
+     * 
+     * @param node parent node
+     * @spec.requires caller holds queryLock(), node is in graph
+     * @return children of 'node'. Must not be modified.
+    */
+    Set<ArrayList<Double>> edges(ArrayList<Double> node){
+        return coordinates.get(node);
+    }
+    /**
+     * Returns the graph as it is now with numbered nodes, building it if nodes were added or removed.
+     * Threads that build at once build the same index.
+     * 
+     * @spec.requires caller holds queryLock()
+     * @return index of the current version
+    */
+    GraphIndex index(){
+        GraphIndex known = graphIndex;
+        if(known == null || known.version != version){
+            known = new GraphIndex(this);
+            graphIndex = known;
+        }
+        return known;
+    }
+    /**
+     * Returns the nodes without copying them.
+     * 
+     * @spec.requires caller holds queryLock()
+     * @return nodes of the graph. Must not be modified.
+    */
+    Set<ArrayList<Double>> nodes(){
+        return coordinates.keySet();
+    }
+    /**
+     * Returns the nodes visible from 'point', or null if 'point' is already in the graph.
+     * 
+     * @param point point to link
+     * @spec.requires caller holds queryLock(), point != null, point.size() == 2
+     * @return new set of nodes visible from 'point' or null if 'point' is in graph
+    */
+    Set<ArrayList<Double>> links(ArrayList<Double> point){
+        if(coordinates.containsKey(point)){
+            return null;
+        }
+        GraphIndex nodes = index();
+        double reach = nodes.reach(point);
+        Set<ArrayList<Double>> goal = new HashSet<>();
+        for(int i = 0; i != nodes.size(); i++){
+            if(linkable(point, nodes, i, reach) && (lazy || lineOfSight(point, nodes.nodes[i]))){
+                goal.add(nodes.nodes[i]);
+            }
+        }
+        return goal;
+    }
+    /**
+     * Indicate if 'point' would have an edge to node 'i' of 'nodes' if it were added and the edge
+     * were clear. As in addNode the node must be close enough, and with a 'nearest' limit either
+     * may be among the other's nearest nodes.
+     * 
+     * @param point point outside the graph
+     * @param nodes index of the current version
+     * @param i number of the node
+     * @param reach reach of 'point' in 'nodes'
+     * @spec.requires caller holds queryLock()
+     * @return true iff 'point' may link to the node
+    */
+    boolean linkable(ArrayList<Double> point, GraphIndex nodes, int i, double reach){
+        if(!candidate(point, nodes.nodes[i])){
             return false;
         }
-        Set<ArrayList<Double>> childPoints = new HashSet<>();
-        coordinates.put(node, childPoints);
-        // For each node
-        for(ArrayList<Double> point: coordinates.keySet()){
-            // If there is line of sight
-            if(lineOfSight(point, node)){
-                coordinates.get(point).add(node);
-                coordinates.get(node).add(point);
+        double distance = nodes.distance(point, i);
+        return distance <= reach || distance <= nodes.reach(i);
+    }
+    /**
+     * Indicate if two points outside the graph would have an edge between them if both were added
+     * and the edge were clear. Each counts only the nodes of the graph against the other, so a
+     * search linking both in for itself does not let them crowd each other out.
+     * 
+     * @param point1 the first point
+     * @param point2 the second point
+     * @spec.requires caller holds queryLock(), neither point is in graph
+     * @return true iff the points may link to each other
+    */
+    boolean linkable(ArrayList<Double> point1, ArrayList<Double> point2){
+        if(!candidate(point1, point2)){
+            return false;
+        }
+        return nearest == 0 || amongNearest(point1, point2) || amongNearest(point2, point1);
+    }
+    /**
+     * Indicate if the edge from 'from' to 'to' may be used. Always true outside lazy mode.
+     * In lazy mode line of sight is checked and cached for edges between graph nodes.
+     * 
+     * @param from start of the edge
+     * @param to end of the edge
+     * @spec.requires no null inputs, from.size() == 2, to.size() == 2
+     * @return true iff the edge is clear
+    */
+    boolean edgeClear(ArrayList<Double> from, ArrayList<Double> to){
+        if(!lazy){
+            return true;
+        }
+        if(!coordinates.containsKey(from) || !coordinates.containsKey(to)){
+            return lineOfSight(from, to);
+        }
+        return checked.computeIfAbsent(new Edge(from, to), edge -> lineOfSight(from, to));
+    }
+    /**
+     * Returns true iff the graph checks edges on first use.
+     * 
+     * @return true iff in lazy mode
+    */
+    public boolean isLazy(){
+        return lazy;
+    }
+    /**
+     * Returns the number of edges checked and cached in lazy mode.
+     * 
+     * @return number of cached line of sight results
+    */
+    public int checkedEdges(){
+        return checked.size();
+    }
+    /**
+     * Indicate if 'node' may have an edge to 'point'.
+     * 
+     * @param point point to link
+     * @param node node in graph
+     * @return true iff 'node' is close enough to 'point'
+    */
+    private boolean candidate(ArrayList<Double> point, ArrayList<Double> node){
+        return getDistance(point, node) <= maxEdgeLength && tangent(node, point) && tangent(point, node);
+    }
+    private static ArrayList<Double> point(double x, double y){
+        ArrayList<Double> point = new ArrayList<>();
+        point.add(x);
+        point.add(y);
+        return point;
+    }
+    /**
+     * Indicate if the line from corner node 'node' to 'point' leaves every wall at that corner on
+     * one side. Always true if 'node' is not a corner node.
+     * 
+     * @param node node that may be a corner node
+     * @param point other end of the edge
+     * @return true iff a shortest path may use the edge at 'node'
+    */
+    private boolean tangent(ArrayList<Double> node, ArrayList<Double> point){
+        double[] corner = corners.get(node);
+        if(corner == null){
+            return true;
+        }
+        double dx = point.get(0)-corner[0];
+        double dy = point.get(1)-corner[1];
+        boolean left = false;
+        boolean right = false;
+        for(int i = 2; i != corner.length; i+=2){
+            double cross = dx*corner[i+1]-dy*corner[i];
+            left |= cross > 0;
+            right |= cross < 0;
+        }
+        return !(left && right);
+    }
+    /**
+     * Returns the 'nearest' nodes closest to 'point' other than itself.
+     * 
+     * @param point point to measure from
+     * @return closest nodes to 'point'
+    */
+    private Set<ArrayList<Double>> nearestNodes(ArrayList<Double> point){
+        ArrayList<ArrayList<Double>> others = new ArrayList<>(coordinates.keySet());
+        others.remove(point);
+        sort(point, others);
+        return new HashSet<>(others.subList(0, Math.min(nearest, others.size())));
+    }
+    /**
+     * Indicate if 'node' is one of the 'nearest' nodes closest to 'point' other than itself.
+     * 
+     * @param point point to measure from
+     * @param node point to measure to
+     * @return true iff fewer than 'nearest' nodes other than both are closer to 'point' than 'node'
+    */
+    private boolean amongNearest(ArrayList<Double> point, ArrayList<Double> node){
+        double distance = getDistance(point, node);
+        int closer = 0;
+        for(ArrayList<Double> other: coordinates.keySet()){
+            if(!other.equals(point) && !other.equals(node) && getDistance(point, other) < distance){
+                closer++;
+                if(closer == nearest){
+                    return false;
+                }
             }
         }
         return true;
@@ -350,6 +1080,7 @@ private double getDistance(ArrayList<Double> p1, ArrayList<Double> p2){
      * 
      * Time complexity O(n) where n is the number of edges
     */
+    @Override
     public boolean lineOfSight(ArrayList<Double> point1, ArrayList<Double> point2){
         if(point1.size() != 2 || point2.size() != 2){
             throw new IllegalArgumentException("All coordinates must be 2d.");
@@ -358,50 +1089,28 @@ private double getDistance(ArrayList<Double> p1, ArrayList<Double> p2){
         return !obstacles.collision(line);
     }
     /**
-     * Immutable
-     * 
+     * Unordered pair of nodes used as a cache key. Line of sight is the same both ways, so an
+     * edge and its reverse are equal.
     */
-    private class Path implements Comparable<Path>{
-        ArrayList<ArrayList<Double>> path;
-        Double length;
-        Path(ArrayList<Double> point){
-            path = new ArrayList<>();
-            path.add(point);
-            length = 0.;
-        }
-        private Path(Double len,ArrayList<ArrayList<Double>> path){
-            this.path = path;
-            length = len;
-        }
-        public Path addPoint(ArrayList<Double> point){
-            LineSegment line = new LineSegment(convertArrayListToDoubleArray(path.get(path.size()-1)), convertArrayListToDoubleArray(point));
-            ArrayList<ArrayList<Double>> newPath = new ArrayList(path);
-            newPath.add(point);
-            LineSegment size = new LineSegment(convertArrayListToDoubleArray(getHead()), convertArrayListToDoubleArray(point));
-            return new Path(length+size.magnitude(),newPath);
-        }
-        public int compareTo(Path other){
-            if(length > other.length){
-                return 1;
-            }if(length < other.length){
-                return -1;
-            }
-            return 0;
-        }
-        public ArrayList<Double> getHead(){
-            return path.get(path.size()-1);
+    private static class Edge{
+        final ArrayList<Double> from;
+        final ArrayList<Double> to;
+        Edge(ArrayList<Double> from, ArrayList<Double> to){
+            this.from = from;
+            this.to = to;
         }
         @Override
         public int hashCode(){
-            return path.hashCode();
+            return from.hashCode()+to.hashCode();
         }
         @Override
         public boolean equals(Object ob){
-            if(!(ob instanceof Path)){
+            if(!(ob instanceof Edge)){
                 return false;
             }
-            Path other = (Path) ob;
-            return path.equals(other.path);
+            Edge other = (Edge) ob;
+            return (from.equals(other.from) && to.equals(other.to))
+             || (from.equals(other.to) && to.equals(other.from));
         }
     }
 }
\ No newline at end of file
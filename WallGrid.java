@@ -0,0 +1,547 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * WallGrid is an immutable uniform grid over a set of walls. Each wall is listed in every cell its
+ * bounding box touches. Walls are numbered 0 to size()-1 and their end points are kept in
+ * primitive arrays so rays can be tested without allocating.
+*/
+public class WallGrid{
+    /** Rays per parallel chunk. Smaller batches run on the calling thread. */
+    private static final int CHUNK = 256;
+    private static final ThreadLocal<Marks> MARKS = ThreadLocal.withInitial(Marks::new);
+    private final LineSegment[] walls;
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+    private final double[] slope;
+    private final double[] constant;
+    private final int[] unbounded;
+    private final Map<Line, int[]> lines;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final double cellSize;
+    private final double pad;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellWalls;
+    /**
+     * Constructs a grid over 'input'. The cell size is chosen so there are about as many cells as
+     * walls but no cell is smaller than the average wall.
+     *
+     * @param input walls to index
+     * @spec.requires input != null, no null walls
+    */
+    public WallGrid(Collection<LineSegment> input){
+        int n = input.size();
+        walls = input.toArray(new LineSegment[n]);
+        x1 = new double[n];
+        y1 = new double[n];
+        x2 = new double[n];
+        y2 = new double[n];
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        double highX = Double.NEGATIVE_INFINITY;
+        double highY = Double.NEGATIVE_INFINITY;
+        double totalLength = 0;
+        for(int i = 0; i != n; i++){
+            x1[i] = walls[i].headX();
+            y1[i] = walls[i].headY();
+            x2[i] = walls[i].tailX();
+            y2[i] = walls[i].tailY();
+            lowX = Math.min(lowX, Math.min(x1[i], x2[i]));
+            lowY = Math.min(lowY, Math.min(y1[i], y2[i]));
+            highX = Math.max(highX, Math.max(x1[i], x2[i]));
+            highY = Math.max(highY, Math.max(y1[i], y2[i]));
+            totalLength += walls[i].magnitude();
+        }
+        // Lines as LineSegment.collision computes them
+        slope = new double[n];
+        constant = new double[n];
+        ArrayList<Integer> far = new ArrayList<>();
+        Map<Line, ArrayList<Integer>> shared = new HashMap<>();
+        for(int i = 0; i != n; i++){
+            slope[i] = LineSegment.findSlope(walls[i]);
+            constant[i] = y1[i]-slope[i]*x1[i];
+            if(bounded(slope[i], constant[i])){
+                shared.computeIfAbsent(new Line(slope[i], constant[i]), line -> new ArrayList<>()).add(i);
+            }else{
+                far.add(i);
+            }
+        }
+        unbounded = far.stream().mapToInt(Integer::intValue).toArray();
+        lines = new HashMap<>();
+        for(Map.Entry<Line, ArrayList<Integer>> entry: shared.entrySet()){
+            lines.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        if(n == 0){
+            lowX = lowY = 0;
+            highX = highY = 1;
+        }
+        double width = Math.max(highX-lowX, 1e-9);
+        double height = Math.max(highY-lowY, 1e-9);
+        double size = Math.sqrt(width*height/Math.max(n, 1));
+        if(n != 0){
+            size = Math.max(size, totalLength/n);
+        }
+        // Keep the grid at most 2048 cells on a side
+        size = Math.max(size, Math.max(width, height)/2048);
+        minX = lowX;
+        minY = lowY;
+        maxX = highX;
+        maxY = highY;
+        cellSize = size;
+        pad = size*1e-9;
+        columns = (int) Math.floor(width/size)+1;
+        rows = (int) Math.floor(height/size)+1;
+        // Counting sort of walls into cells
+        cellStart = new int[columns*rows+1];
+        for(int i = 0; i != n; i++){
+            int c0 = column(Math.min(x1[i], x2[i])-pad);
+            int c1 = column(Math.max(x1[i], x2[i])+pad);
+            int r0 = row(Math.min(y1[i], y2[i])-pad);
+            int r1 = row(Math.max(y1[i], y2[i])+pad);
+            for(int r = r0; r <= r1; r++){
+                for(int c = c0; c <= c1; c++){
+                    cellStart[r*columns+c+1]++;
+                }
+            }
+        }
+        for(int i = 0; i != columns*rows; i++){
+            cellStart[i+1] += cellStart[i];
+        }
+        cellWalls = new int[cellStart[columns*rows]];
+        int[] fill = new int[columns*rows];
+        for(int i = 0; i != n; i++){
+            int c0 = column(Math.min(x1[i], x2[i])-pad);
+            int c1 = column(Math.max(x1[i], x2[i])+pad);
+            int r0 = row(Math.min(y1[i], y2[i])-pad);
+            int r1 = row(Math.max(y1[i], y2[i])+pad);
+            for(int r = r0; r <= r1; r++){
+                for(int c = c0; c <= c1; c++){
+                    int cell = r*columns+c;
+                    cellWalls[cellStart[cell]+fill[cell]++] = i;
+                }
+            }
+        }
+    }
+    /**
+     * Returns the number of walls.
+     *
+     * @return number of walls
+    */
+    public int size(){
+        return walls.length;
+    }
+    /**
+     * Returns wall number 'id'.
+     *
+     * @param id wall number
+     * @spec.requires 0 <= id < size()
+     * @return wall number 'id'
+    */
+    public LineSegment wall(int id){
+        return walls[id];
+    }
+    /**
+     * Returns a wall that collides with 'query' by LineSegment.collision, or null if none does.
+     * Only walls in cells the query passes through, walls on exactly the same line and walls
+     * LineSegment.collision treats as infinite are tested. They are tested one column of cells at a
+     * time by a SegmentKernel so the search stops at the first column with a collision.
+     *
+     * @param query segment to test
+     * @spec.requires query != null
+     * @return a wall 'w' with w.collision(query), or null
+    */
+    public LineSegment collide(LineSegment query){
+        double qs = LineSegment.findSlope(query);
+        double qc = query.headY()-qs*query.headX();
+        Marks marks = MARKS.get();
+        marks.next(walls.length);
+        int count = 0;
+        if(!bounded(qs, qc)){
+            // Vertical and degenerate queries collide with walls anywhere
+            for(int i = 0; i != walls.length; i++){
+                marks.ids[count++] = i;
+            }
+            return test(query, qs, qc, marks, count);
+        }
+        for(int id: unbounded){
+            count = mark(id, marks, count);
+        }
+        int[] same = lines.get(new Line(qs, qc));
+        if(same != null){
+            for(int id: same){
+                count = mark(id, marks, count);
+            }
+        }
+        LineSegment hit = test(query, qs, qc, marks, count);
+        if(hit != null){
+            return hit;
+        }
+        double ax = query.headX();
+        double ay = query.headY();
+        double bx = query.tailX();
+        double by = query.tailY();
+        // Wider than the grid pad so a crossing point rounded off the segment is still covered
+        double reach = cellSize*1e-6;
+        if(Math.max(ax, bx) < minX-reach || Math.min(ax, bx) > maxX+reach
+         || Math.max(ay, by) < minY-reach || Math.min(ay, by) > maxY+reach){
+            return null;
+        }
+        int c0 = column(Math.min(ax, bx)-reach);
+        int c1 = column(Math.max(ax, bx)+reach);
+        for(int c = c0; c <= c1; c++){
+            double low = Math.min(yAt(ax, ay, bx, by, c, -reach), yAt(ax, ay, bx, by, c+1, reach));
+            double high = Math.max(yAt(ax, ay, bx, by, c, -reach), yAt(ax, ay, bx, by, c+1, reach));
+            int r0 = row(low-reach);
+            int r1 = row(high+reach);
+            count = 0;
+            for(int r = r0; r <= r1; r++){
+                int cell = r*columns+c;
+                for(int k = cellStart[cell]; k != cellStart[cell+1]; k++){
+                    count = mark(cellWalls[k], marks, count);
+                }
+            }
+            hit = test(query, qs, qc, marks, count);
+            if(hit != null){
+                return hit;
+            }
+        }
+        return null;
+    }
+    /**
+     * Test 'query' against the first 'count' walls in marks.ids.
+     *
+     * @return a colliding wall or null
+    */
+    private LineSegment test(LineSegment query, double qs, double qc, Marks marks, int count){
+        if(count == 0){
+            return null;
+        }
+        // Pack the candidates so the kernel reads them in order
+        for(int k = 0; k != count; k++){
+            int id = marks.ids[k];
+            marks.x1[k] = x1[id];
+            marks.y1[k] = y1[id];
+            marks.x2[k] = x2[id];
+            marks.y2[k] = y2[id];
+            marks.slope[k] = slope[id];
+            marks.constant[k] = constant[id];
+        }
+        int found = SegmentKernel.INSTANCE.oneToMany(query.headX(), query.headY(), query.tailX(),
+         query.tailY(), qs, qc, marks.x1, marks.y1, marks.x2, marks.y2, marks.slope, marks.constant,
+         0, count, marks.hits);
+        for(int k = 0; k != found; k++){
+            LineSegment wall = walls[marks.ids[marks.hits[k]]];
+            if(wall.collision(query)){
+                return wall;
+            }
+        }
+        return null;
+    }
+    /**
+     * Set hits[i] to true iff some wall collides with queries[i] by LineSegment.collision.
+     * Every wall is tested against many queries at once by a SegmentKernel, so this suits large
+     * batches of queries over few walls. Large batches are split across threads.
+     *
+     * @param queries segments to test
+     * @param hits output true iff queries[i] collides with a wall
+     * @spec.requires no null queries, hits.length >= queries.length
+     * @spec.modifies hits
+    */
+    public void collide(LineSegment[] queries, boolean[] hits){
+        int count = queries.length;
+        double[] hx = new double[count];
+        double[] hy = new double[count];
+        double[] tx = new double[count];
+        double[] ty = new double[count];
+        double[] qs = new double[count];
+        double[] qc = new double[count];
+        for(int i = 0; i != count; i++){
+            hx[i] = queries[i].headX();
+            hy[i] = queries[i].headY();
+            tx[i] = queries[i].tailX();
+            ty[i] = queries[i].tailY();
+            qs[i] = LineSegment.findSlope(queries[i]);
+            qc[i] = hy[i]-qs[i]*hx[i];
+        }
+        IntStream chunks = IntStream.range(0, (count+CHUNK-1)/CHUNK);
+        if(count > CHUNK){
+            chunks = chunks.parallel();
+        }
+        chunks.forEach(chunk -> {
+            int from = chunk*CHUNK;
+            int to = Math.min(count, from+CHUNK);
+            int[] maybe = new int[to-from];
+            Arrays.fill(hits, from, to, false);
+            for(int w = 0; w != walls.length; w++){
+                int found = SegmentKernel.INSTANCE.manyToOne(x1[w], y1[w], x2[w], y2[w], slope[w],
+                 constant[w], hx, hy, tx, ty, qs, qc, from, to, maybe);
+                for(int k = 0; k != found; k++){
+                    int i = maybe[k];
+                    if(!hits[i] && walls[w].collision(queries[i])){
+                        hits[i] = true;
+                    }
+                }
+            }
+        });
+    }
+    /**
+     * y coordinate of the segment at the left edge of column 'c' moved by 'shift', clipped to the
+     * segment.
+    */
+    private double yAt(double ax, double ay, double bx, double by, int c, double shift){
+        double x = minX+c*cellSize+shift;
+        if(ax == bx){
+            return x <= ax ? Math.max(ay, by) : Math.min(ay, by);
+        }
+        double t = (x-ax)/(bx-ax);
+        t = Math.max(0, Math.min(1, t));
+        return ay+(by-ay)*t;
+    }
+    /**
+     * Add wall 'id' to marks.ids unless it is already there.
+    */
+    private static int mark(int id, Marks marks, int count){
+        if(marks.seen[id] != marks.stamp){
+            marks.seen[id] = marks.stamp;
+            marks.ids[count++] = id;
+        }
+        return count;
+    }
+    /**
+     * Indicate if a line is small enough that LineSegment.collision cannot get NaN from it except
+     * against the very same line.
+    */
+    private static boolean bounded(double slope, double constant){
+        return Math.abs(slope) < 1e300 && Math.abs(constant) < 1e300;
+    }
+    /**
+     * Cast rays[i] from (originX[i], originY[i]) along (directionX[i], directionY[i]) up to
+     * 'maxDistance' and store the nearest wall hit. Wall end points count as hits and walls parallel
+     * to a ray are ignored. Rays that hit nothing get distance infinity, point NaN and wall -1.
+     * Large batches are split across threads. No memory is allocated per ray.
+     *
+     * @param originX x coordinate of each ray start
+     * @param originY y coordinate of each ray start
+     * @param directionX x direction of each ray. Need not be normalized.
+     * @param directionY y direction of each ray. Need not be normalized.
+     * @param maxDistance longest distance a ray travels
+     * @param hitDistance output distance to the nearest hit
+     * @param hitX output x coordinate of the nearest hit
+     * @param hitY output y coordinate of the nearest hit
+     * @param hitWall output number of the nearest wall hit
+     * @spec.requires no null inputs, all arrays as long as originX, no zero directions
+     * @spec.modifies hitDistance, hitX, hitY, hitWall
+    */
+    public void raycast(double[] originX, double[] originY, double[] directionX, double[] directionY,
+     double maxDistance, double[] hitDistance, double[] hitX, double[] hitY, int[] hitWall){
+        int count = originX.length;
+        if(count <= CHUNK){
+            raycast(0, count, originX, originY, directionX, directionY, maxDistance,
+             hitDistance, hitX, hitY, hitWall);
+            return;
+        }
+        IntStream.range(0, (count+CHUNK-1)/CHUNK).parallel().forEach(chunk ->
+         raycast(chunk*CHUNK, Math.min(count, chunk*CHUNK+CHUNK), originX, originY, directionX,
+          directionY, maxDistance, hitDistance, hitX, hitY, hitWall));
+    }
+    /**
+     * Cast rays 'from' to 'to' on the calling thread.
+    */
+    private void raycast(int from, int to, double[] originX, double[] originY, double[] directionX,
+     double[] directionY, double maxDistance, double[] hitDistance, double[] hitX, double[] hitY,
+     int[] hitWall){
+        Marks marks = MARKS.get();
+        for(int i = from; i != to; i++){
+            double length = Math.sqrt(directionX[i]*directionX[i]+directionY[i]*directionY[i]);
+            double dx = directionX[i]/length;
+            double dy = directionY[i]/length;
+            double best = cast(originX[i], originY[i], dx, dy, maxDistance, marks);
+            if(best == Double.POSITIVE_INFINITY){
+                hitDistance[i] = best;
+                hitX[i] = Double.NaN;
+                hitY[i] = Double.NaN;
+                hitWall[i] = -1;
+            }else{
+                hitDistance[i] = best;
+                hitX[i] = originX[i]+dx*best;
+                hitY[i] = originY[i]+dy*best;
+                hitWall[i] = marks.wall;
+            }
+        }
+    }
+    /**
+     * Walk the cells under one ray nearest first along its major axis. Stops once the best hit is
+     * closer than every cell not yet visited.
+     *
+     * @return distance to nearest hit or infinity. The wall hit is left in marks.wall.
+    */
+    private double cast(double ox, double oy, double dx, double dy, double maxDistance, Marks marks){
+        marks.next(walls.length);
+        marks.wall = -1;
+        // Clip the ray to the grid
+        double enter = 0;
+        double exit = maxDistance;
+        if(dx != 0){
+            double a = (minX-pad-ox)/dx;
+            double b = (maxX+pad-ox)/dx;
+            enter = Math.max(enter, Math.min(a, b));
+            exit = Math.min(exit, Math.max(a, b));
+        }else if(ox < minX-pad || ox > maxX+pad){
+            return Double.POSITIVE_INFINITY;
+        }
+        if(dy != 0){
+            double a = (minY-pad-oy)/dy;
+            double b = (maxY+pad-oy)/dy;
+            enter = Math.max(enter, Math.min(a, b));
+            exit = Math.min(exit, Math.max(a, b));
+        }else if(oy < minY-pad || oy > maxY+pad){
+            return Double.POSITIVE_INFINITY;
+        }
+        if(enter > exit){
+            return Double.POSITIVE_INFINITY;
+        }
+        boolean byColumn = Math.abs(dx) >= Math.abs(dy);
+        double du = byColumn ? dx : dy;
+        double ou = byColumn ? ox : oy;
+        double lowU = byColumn ? minX : minY;
+        int lastSlab = byColumn ? columns-1 : rows-1;
+        int lastCell = byColumn ? rows-1 : columns-1;
+        int step = du > 0 ? 1 : -1;
+        int slab = clamp((int) Math.floor((ou+du*enter-lowU)/cellSize), lastSlab);
+        int endSlab = clamp((int) Math.floor((ou+du*exit-lowU)/cellSize), lastSlab);
+        double best = Double.POSITIVE_INFINITY;
+        while(true){
+            // Part of the ray inside this slab
+            double slabEnter = enter;
+            double slabExit = exit;
+            if(du != 0){
+                double a = (lowU+slab*cellSize-ou)/du;
+                double b = (lowU+(slab+1)*cellSize-ou)/du;
+                slabEnter = Math.max(enter, Math.min(a, b));
+                slabExit = Math.min(exit, Math.max(a, b));
+            }
+            double va = byColumn ? oy+dy*slabEnter : ox+dx*slabEnter;
+            double vb = byColumn ? oy+dy*slabExit : ox+dx*slabExit;
+            int first = byColumn ? row(Math.min(va, vb)-pad) : column(Math.min(va, vb)-pad);
+            int last = byColumn ? row(Math.max(va, vb)+pad) : column(Math.max(va, vb)+pad);
+            first = clamp(first, lastCell);
+            last = clamp(last, lastCell);
+            for(int c = first; c <= last; c++){
+                int cell = byColumn ? c*columns+slab : slab*columns+c;
+                for(int k = cellStart[cell]; k != cellStart[cell+1]; k++){
+                    int id = cellWalls[k];
+                    if(marks.seen[id] == marks.stamp){
+                        continue;
+                    }
+                    marks.seen[id] = marks.stamp;
+                    double t = hit(id, ox, oy, dx, dy);
+                    if(t >= 0 && t <= maxDistance && t < best){
+                        best = t;
+                        marks.wall = id;
+                    }
+                }
+            }
+            if(best <= slabExit || slab == endSlab){
+                return best;
+            }
+            slab += step;
+        }
+    }
+    /**
+     * Distance along a normalized ray to wall 'id' or -1 if it misses.
+    */
+    private double hit(int id, double ox, double oy, double dx, double dy){
+        double ex = x2[id]-x1[id];
+        double ey = y2[id]-y1[id];
+        double denominator = dx*ey-dy*ex;
+        if(denominator == 0){
+            return -1;
+        }
+        double ax = x1[id]-ox;
+        double ay = y1[id]-oy;
+        double t = (ax*ey-ay*ex)/denominator;
+        double s = (ax*dy-ay*dx)/denominator;
+        if(s < 0 || s > 1){
+            return -1;
+        }
+        return t;
+    }
+    private int column(double x){
+        return clamp((int) Math.floor((x-minX)/cellSize), columns-1);
+    }
+    private int row(double y){
+        return clamp((int) Math.floor((y-minY)/cellSize), rows-1);
+    }
+    private static int clamp(int value, int max){
+        return Math.max(0, Math.min(value, max));
+    }
+    /**
+     * Per thread record of walls already tested for the current ray.
+    */
+    private static class Marks{
+        int[] seen = new int[0];
+        int[] ids = new int[0];
+        int[] hits = new int[0];
+        double[] x1 = new double[0];
+        double[] y1 = new double[0];
+        double[] x2 = new double[0];
+        double[] y2 = new double[0];
+        double[] slope = new double[0];
+        double[] constant = new double[0];
+        int stamp;
+        int wall;
+        void next(int size){
+            if(seen.length < size){
+                seen = new int[size];
+                ids = new int[size];
+                hits = new int[size];
+                x1 = new double[size];
+                y1 = new double[size];
+                x2 = new double[size];
+                y2 = new double[size];
+                slope = new double[size];
+                constant = new double[size];
+                stamp = 0;
+            }
+            stamp++;
+            if(stamp == 0){
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+        }
+    }
+    /**
+     * Line by slope and constant. 0 and -0 are the same.
+    */
+    private static class Line{
+        final double slope;
+        final double constant;
+        Line(double slope, double constant){
+            this.slope = slope == 0 ? 0 : slope;
+            this.constant = constant == 0 ? 0 : constant;
+        }
+        @Override
+        public int hashCode(){
+            return Double.hashCode(slope)*31+Double.hashCode(constant);
+        }
+        @Override
+        public boolean equals(Object ob){
+            if(!(ob instanceof Line)){
+                return false;
+            }
+            Line other = (Line) ob;
+            return slope == other.slope && constant == other.constant;
+        }
+    }
+}
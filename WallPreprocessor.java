@@ -0,0 +1,383 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * WallPreprocessor cleans up walls before an ObstacleCourse stores them. Walls shorter than the
+ * tolerance are dropped, walls on the same line that touch or overlap are merged into one and
+ * duplicates disappear in the merge. Optionally walls that do not border any region reachable from
+ * a set of seed points are dropped too. Every wall left covers at least what it covered before.
+ * The counts of the last call to process are kept.
+*/
+public class WallPreprocessor{
+    private final double tolerance;
+    private final ArrayList<ArrayList<Double>> seeds;
+    private final double cellSize;
+    private int degenerate;
+    private int merged;
+    private int unreachable;
+    /**
+     * Constructs a preprocessor that drops degenerate walls and merges collinear ones using a
+     * tolerance of 1e-9 times the size of the map.
+    */
+    public WallPreprocessor(){
+        this(0, null, 0);
+    }
+    /**
+     * Constructs a preprocessor that also drops walls far from every seed. The area is split into
+     * square cells of size 'cellSize' and flooded from the cells of the seeds. A wall is kept iff
+     * it touches a flooded cell or one next to it. Gaps narrower than a cell count as closed so
+     * 'cellSize' should be smaller than the narrowest gap an agent can pass.
+     *
+     * @param tolerance walls whose ends are this close to a line are on it and walls this short are
+     * degenerate. 0 for 1e-9 times the size of the map.
+     * @param seeds points agents can reach, usually the graph nodes. null to keep unreachable walls.
+     * @param cellSize size of the flood cells. Ignored if 'seeds' is null.
+     * @throws IllegalArgumentException tolerance < 0 or seeds != null and cellSize <= 0
+     * @spec.requires no null seeds and seeds have length 2
+    */
+    public WallPreprocessor(double tolerance, ArrayList<ArrayList<Double>> seeds, double cellSize){
+        if(!(tolerance >= 0)){
+            throw new IllegalArgumentException("Tolerance must not be negative");
+        }
+        if(seeds != null && !(cellSize > 0)){
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.tolerance = tolerance;
+        this.seeds = seeds == null ? null : new ArrayList<>(seeds);
+        this.cellSize = cellSize;
+    }
+    /**
+     * Returns the cleaned up walls. Walls that were not merged are returned as they were and
+     * merged walls are head inclusive and tail exclusive.
+     *
+     * @param walls walls to clean up
+     * @spec.requires walls != null, no null walls
+     * @spec.modifies this
+     * @return new list of walls, at most walls.size() long
+    */
+    public synchronized ArrayList<LineSegment> process(Collection<LineSegment> walls){
+        degenerate = 0;
+        merged = 0;
+        unreachable = 0;
+        int n = walls.size();
+        // Each wall is stored with its ends ordered so its direction is in [0, pi)
+        double[] ax = new double[n];
+        double[] ay = new double[n];
+        double[] bx = new double[n];
+        double[] by = new double[n];
+        LineSegment[] input = walls.toArray(new LineSegment[n]);
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        double highX = Double.NEGATIVE_INFINITY;
+        double highY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i != n; i++){
+            double x1 = input[i].tailX();
+            double y1 = input[i].tailY();
+            double x2 = input[i].headX();
+            double y2 = input[i].headY();
+            if(y2 < y1 || (y2 == y1 && x2 < x1)){
+                ax[i] = x2;
+                ay[i] = y2;
+                bx[i] = x1;
+                by[i] = y1;
+            }else{
+                ax[i] = x1;
+                ay[i] = y1;
+                bx[i] = x2;
+                by[i] = y2;
+            }
+            lowX = Math.min(lowX, Math.min(ax[i], bx[i]));
+            highX = Math.max(highX, Math.max(ax[i], bx[i]));
+            lowY = Math.min(lowY, ay[i]);
+            highY = Math.max(highY, by[i]);
+        }
+        double extent = n == 0 ? 0 : Math.max(highX-lowX, highY-lowY);
+        double epsilon = tolerance > 0 ? tolerance : extent*1e-9;
+        ArrayList<Integer> kept = new ArrayList<>();
+        for(int i = 0; i != n; i++){
+            if(Math.hypot(bx[i]-ax[i], by[i]-ay[i]) <= epsilon){
+                degenerate++;
+            }else{
+                kept.add(i);
+            }
+        }
+        // Sort by direction, then by distance of the line from the origin, then along the line.
+        // Directions within epsilon/extent stray at most epsilon across the whole map.
+        double[] angle = new double[n];
+        double[] offset = new double[n];
+        for(int i: kept){
+            angle[i] = Math.atan2(by[i]-ay[i], bx[i]-ax[i]);
+        }
+        kept.sort(Comparator.comparingDouble(i -> angle[i]));
+        double angleTolerance = extent == 0 ? 0 : epsilon/extent;
+        // Directions near pi are the same lines as directions near 0. If the two ends are close,
+        // turn the walls after the last wide gap around so they come just before the first.
+        int cut = 0;
+        if(!kept.isEmpty() && angle[kept.get(0)]+Math.PI-angle[kept.get(kept.size()-1)] <= angleTolerance){
+            for(int k = kept.size()-1; k > 0 && cut == 0; k--){
+                if(angle[kept.get(k)]-angle[kept.get(k-1)] > angleTolerance){
+                    cut = k;
+                }
+            }
+        }
+        if(cut > 0){
+            for(int i: kept.subList(cut, kept.size())){
+                angle[i] -= Math.PI;
+                double x = ax[i];
+                double y = ay[i];
+                ax[i] = bx[i];
+                ay[i] = by[i];
+                bx[i] = x;
+                by[i] = y;
+            }
+            Collections.rotate(kept, kept.size()-cut);
+        }
+        ArrayList<LineSegment> result = new ArrayList<>();
+        int start = 0;
+        while(start != kept.size()){
+            int end = start+1;
+            while(end != kept.size() && angle[kept.get(end)]-angle[kept.get(end-1)] <= angleTolerance){
+                end++;
+            }
+            // Lines in this run share a direction so distance along the normal tells them apart
+            double theta = angle[kept.get(start)];
+            double nx = -Math.sin(theta);
+            double ny = Math.cos(theta);
+            ArrayList<Integer> run = new ArrayList<>(kept.subList(start, end));
+            for(int i: run){
+                offset[i] = nx*ax[i]+ny*ay[i];
+            }
+            run.sort(Comparator.comparingDouble(i -> offset[i]));
+            int first = 0;
+            while(first != run.size()){
+                int last = first+1;
+                while(last != run.size() && offset[run.get(last)]-offset[run.get(last-1)] <= epsilon){
+                    last++;
+                }
+                mergeLine(run.subList(first, last), theta, input, ax, ay, bx, by, epsilon, result);
+                first = last;
+            }
+            start = end;
+        }
+        merged = kept.size()-result.size();
+        if(seeds != null && !result.isEmpty()){
+            result = reachable(result);
+        }
+        return result;
+    }
+    /**
+     * Returns the number of walls shorter than the tolerance dropped by the last process call.
+     *
+     * @return degenerate walls dropped
+    */
+    public synchronized int degenerate(){
+        return degenerate;
+    }
+    /**
+     * Returns the number of walls merged into others, duplicates included, by the last process call.
+     *
+     * @return walls removed by merging
+    */
+    public synchronized int merged(){
+        return merged;
+    }
+    /**
+     * Returns the number of walls dropped as unreachable by the last process call.
+     *
+     * @return unreachable walls dropped
+    */
+    public synchronized int unreachable(){
+        return unreachable;
+    }
+    /**
+     * Returns the total number of walls removed by the last process call.
+     *
+     * @return walls removed
+    */
+    public synchronized int removed(){
+        return degenerate+merged+unreachable;
+    }
+    /**
+     * Merge walls on one line whose spans touch or overlap. Ends of merged walls are original ends.
+     * A wall that covers the whole span is kept as it was.
+    */
+    private static void mergeLine(List<Integer> line, double theta, LineSegment[] input, double[] ax,
+     double[] ay, double[] bx, double[] by, double epsilon, ArrayList<LineSegment> result){
+        double dx = Math.cos(theta);
+        double dy = Math.sin(theta);
+        ArrayList<Integer> order = new ArrayList<>(line);
+        order.sort(Comparator.comparingDouble(i -> dx*ax[i]+dy*ay[i]));
+        int low = order.get(0);
+        int high = low;
+        double reach = dx*bx[high]+dy*by[high];
+        for(int k = 1; k != order.size(); k++){
+            int i = order.get(k);
+            if(dx*ax[i]+dy*ay[i] > reach+epsilon){
+                result.add(low == high ? input[low] : wall(ax[low], ay[low], bx[high], by[high]));
+                low = i;
+                high = i;
+                reach = dx*bx[i]+dy*by[i];
+            }else if(dx*bx[i]+dy*by[i] > reach){
+                high = i;
+                reach = dx*bx[i]+dy*by[i];
+            }
+        }
+        result.add(low == high ? input[low] : wall(ax[low], ay[low], bx[high], by[high]));
+    }
+    /**
+     * Keep the walls that touch a cell reachable from a seed or next to one.
+    */
+    private ArrayList<LineSegment> reachable(ArrayList<LineSegment> walls){
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        double highX = Double.NEGATIVE_INFINITY;
+        double highY = Double.NEGATIVE_INFINITY;
+        for(LineSegment wall: walls){
+            lowX = Math.min(lowX, Math.min(wall.headX(), wall.tailX()));
+            lowY = Math.min(lowY, Math.min(wall.headY(), wall.tailY()));
+            highX = Math.max(highX, Math.max(wall.headX(), wall.tailX()));
+            highY = Math.max(highY, Math.max(wall.headY(), wall.tailY()));
+        }
+        for(ArrayList<Double> seed: seeds){
+            lowX = Math.min(lowX, seed.get(0));
+            lowY = Math.min(lowY, seed.get(1));
+            highX = Math.max(highX, seed.get(0));
+            highY = Math.max(highY, seed.get(1));
+        }
+        // One free cell all around so the outside is connected
+        Grid grid = new Grid(lowX-cellSize, lowY-cellSize, highX+cellSize, highY+cellSize, cellSize);
+        boolean[] blocked = new boolean[grid.columns*grid.rows];
+        for(LineSegment wall: walls){
+            grid.cells(wall, cell -> {
+                blocked[cell] = true;
+                return false;
+            });
+        }
+        boolean[] reached = new boolean[blocked.length];
+        int[] queue = new int[blocked.length];
+        int size = 0;
+        for(ArrayList<Double> seed: seeds){
+            int cell = grid.cell(seed.get(0), seed.get(1));
+            if(!reached[cell]){
+                reached[cell] = true;
+                queue[size++] = cell;
+            }
+        }
+        for(int head = 0; head != size; head++){
+            int cell = queue[head];
+            int c = cell%grid.columns;
+            int r = cell/grid.columns;
+            int[] next = {c > 0 ? cell-1 : -1, c < grid.columns-1 ? cell+1 : -1,
+             r > 0 ? cell-grid.columns : -1, r < grid.rows-1 ? cell+grid.columns : -1};
+            for(int other: next){
+                if(other >= 0 && !reached[other] && !blocked[other]){
+                    reached[other] = true;
+                    queue[size++] = other;
+                }
+            }
+        }
+        ArrayList<LineSegment> kept = new ArrayList<>();
+        for(LineSegment wall: walls){
+            boolean near = grid.cells(wall, cell -> {
+                int c = cell%grid.columns;
+                int r = cell/grid.columns;
+                for(int y = Math.max(0, r-1); y <= Math.min(grid.rows-1, r+1); y++){
+                    for(int x = Math.max(0, c-1); x <= Math.min(grid.columns-1, c+1); x++){
+                        if(reached[y*grid.columns+x]){
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            });
+            if(near){
+                kept.add(wall);
+            }else{
+                unreachable++;
+            }
+        }
+        return kept;
+    }
+    /**
+     * Wall from 'a' to 'b' stored the way ObstacleCourse stores a coordinate pair.
+    */
+    private static LineSegment wall(double ax, double ay, double bx, double by){
+        Double[] tail = {ax, ay};
+        Double[] head = {bx, by};
+        return new LineSegment(head, tail);
+    }
+    /**
+     * Square cells over a rectangle.
+    */
+    private static class Grid{
+        final double minX;
+        final double minY;
+        final double cellSize;
+        final double pad;
+        final int columns;
+        final int rows;
+        Grid(double minX, double minY, double maxX, double maxY, double cellSize){
+            this.minX = minX;
+            this.minY = minY;
+            this.cellSize = cellSize;
+            pad = cellSize*1e-9;
+            columns = (int) Math.ceil((maxX-minX)/cellSize)+1;
+            rows = (int) Math.ceil((maxY-minY)/cellSize)+1;
+            if((long) columns*rows > Integer.MAX_VALUE-8){
+                throw new IllegalArgumentException("Too many cells");
+            }
+        }
+        int cell(double x, double y){
+            return row(y)*columns+column(x);
+        }
+        int column(double x){
+            return Math.max(0, Math.min(columns-1, (int) Math.floor((x-minX)/cellSize)));
+        }
+        int row(double y){
+            return Math.max(0, Math.min(rows-1, (int) Math.floor((y-minY)/cellSize)));
+        }
+        /**
+         * Visit every cell 'wall' touches one column at a time until 'visit' returns true.
+         *
+         * @return true iff 'visit' returned true
+        */
+        boolean cells(LineSegment wall, CellVisitor visit){
+            double ax = wall.tailX();
+            double ay = wall.tailY();
+            double bx = wall.headX();
+            double by = wall.headY();
+            int c0 = column(Math.min(ax, bx)-pad);
+            int c1 = column(Math.max(ax, bx)+pad);
+            for(int c = c0; c <= c1; c++){
+                double y0 = yAt(ax, ay, bx, by, c);
+                double y1 = yAt(ax, ay, bx, by, c+1);
+                int r0 = row(Math.min(y0, y1)-pad);
+                int r1 = row(Math.max(y0, y1)+pad);
+                for(int r = r0; r <= r1; r++){
+                    if(visit.visit(r*columns+c)){
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        /**
+         * y coordinate of the segment at the left edge of column 'c', clipped to the segment.
+        */
+        private double yAt(double ax, double ay, double bx, double by, int c){
+            double x = minX+c*cellSize;
+            if(ax == bx){
+                return x <= ax ? Math.max(ay, by) : Math.min(ay, by);
+            }
+            double t = (x-ax)/(bx-ax);
+            t = Math.max(0, Math.min(1, t));
+            return ay+(by-ay)*t;
+        }
+    }
+    private interface CellVisitor{
+        boolean visit(int cell);
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A WaypointPath is an immutable path of 2d points kept in one double[] as x0, y0, x1, y1, ...
+ * It holds no object per point and is never consumed, so one path can be shared by any number of
+ * agents, each keeping its own place in it with a PathFollower. An ArrayList copy is only built
+ * when toList is called.
+*/
+public class WaypointPath{
+    private final double[] points;
+    private final double length;
+    /**
+     * Constructs a path over 'points', which it takes over.
+     *
+     * @param points coordinates of the points as x0, y0, x1, y1, ...
+     * @spec.requires points != null, points.length is even and > 0, points is not modified after
+    */
+    WaypointPath(double[] points){
+        this.points = points;
+        double length = 0;
+        for(int i = 2; i < points.length; i += 2){
+            double x = points[i]-points[i-2];
+            double y = points[i+1]-points[i-1];
+            length += Math.sqrt(x*x+y*y);
+        }
+        this.length = length;
+    }
+    /**
+     * Returns a path through the points of 'path'.
+     *
+     * @param path list of 2d coordinates
+     * @spec.requires no null coordinates, every coordinate has length 2
+     * @throws IllegalArgumentException path is empty
+     * @return path through the same points in order, null if 'path' is null
+    */
+    public static WaypointPath of(ArrayList<ArrayList<Double>> path){
+        if(path == null){
+            return null;
+        }
+        if(path.isEmpty()){
+            throw new IllegalArgumentException("Path must have one or more points");
+        }
+        double[] points = new double[2*path.size()];
+        for(int i = 0; i != path.size(); i++){
+            points[2*i] = path.get(i).get(0);
+            points[2*i+1] = path.get(i).get(1);
+        }
+        return new WaypointPath(points);
+    }
+    /**
+     * Returns the number of points.
+     *
+     * @return number of points, at least 1
+    */
+    public int size(){
+        return points.length/2;
+    }
+    /**
+     * Returns the x coordinate of point 'i'.
+     *
+     * @param i index of the point
+     * @spec.requires 0 <= i < size()
+     * @return x coordinate of point 'i'
+    */
+    public double x(int i){
+        return points[2*i];
+    }
+    /**
+     * Returns the y coordinate of point 'i'.
+     *
+     * @param i index of the point
+     * @spec.requires 0 <= i < size()
+     * @return y coordinate of point 'i'
+    */
+    public double y(int i){
+        return points[2*i+1];
+    }
+    /**
+     * Returns the length of the path.
+     *
+     * @return sum of the distances between consecutive points
+    */
+    public double length(){
+        return length;
+    }
+    /**
+     * Returns the points from 'from' on as a new list.
+     *
+     * @param from index of the first point to include
+     * @spec.requires 0 <= from <= size()
+     * @return new list of new 2d coordinates
+    */
+    public ArrayList<ArrayList<Double>> toList(int from){
+        ArrayList<ArrayList<Double>> goal = new ArrayList<>();
+        for(int i = from; i != size(); i++){
+            ArrayList<Double> point = new ArrayList<>();
+            point.add(x(i));
+            point.add(y(i));
+            goal.add(point);
+        }
+        return goal;
+    }
+    /**
+     * Returns the points as a new list.
+     *
+     * @return new list of new 2d coordinates
+    */
+    public ArrayList<ArrayList<Double>> toList(){
+        return toList(0);
+    }
+    /**
+     * Standard equals method. WaypointPaths are equal iff they pass through the same points in the
+     * same order.
+     *
+     * @param o object to compare to
+     * @return true iff 'o' is an equal WaypointPath
+    */
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof WaypointPath)){
+            return false;
+        }
+        return Arrays.equals(points, ((WaypointPath) o).points);
+    }
+    /**
+     * Standard hashCode method
+     *
+     * @return hash code
+    */
+    @Override
+    public int hashCode(){
+        return Arrays.hashCode(points);
+    }
+}
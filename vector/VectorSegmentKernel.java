@@ -0,0 +1,103 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorSegmentKernel is the SegmentKernel built on the incubating Vector API. Each lane runs the
+ * test of ScalarSegmentKernel.mayCollide with the same operations, so both kernels give the same
+ * answers. It is kept apart because it needs the jdk.incubator.vector module:
+ * compile it after the other classes with
+ * javac --add-modules jdk.incubator.vector -cp OUT -d OUT vector/VectorSegmentKernel.java
+ * and run with --add-modules jdk.incubator.vector. Otherwise ScalarSegmentKernel is used.
+*/
+public class VectorSegmentKernel implements SegmentKernel{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    @Override
+    public int oneToMany(double qhx, double qhy, double qtx, double qty, double qs, double qc,
+     double[] hx, double[] hy, double[] tx, double[] ty, double[] slope, double[] constant,
+     int from, int to, int[] out){
+        int lanes = SPECIES.length();
+        DoubleVector bhx = DoubleVector.broadcast(SPECIES, qhx);
+        DoubleVector bhy = DoubleVector.broadcast(SPECIES, qhy);
+        DoubleVector btx = DoubleVector.broadcast(SPECIES, qtx);
+        DoubleVector bty = DoubleVector.broadcast(SPECIES, qty);
+        DoubleVector bs = DoubleVector.broadcast(SPECIES, qs);
+        DoubleVector bc = DoubleVector.broadcast(SPECIES, qc);
+        int found = 0;
+        int i = from;
+        for(; i+lanes <= to; i += lanes){
+            VectorMask<Double> maybe = mayCollide(DoubleVector.fromArray(SPECIES, hx, i),
+             DoubleVector.fromArray(SPECIES, hy, i), DoubleVector.fromArray(SPECIES, tx, i),
+             DoubleVector.fromArray(SPECIES, ty, i), DoubleVector.fromArray(SPECIES, slope, i),
+             DoubleVector.fromArray(SPECIES, constant, i), bhx, bhy, btx, bty, bs, bc);
+            if(maybe.anyTrue()){
+                for(long bits = maybe.toLong(); bits != 0; bits &= bits-1){
+                    out[found++] = i+Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+        for(; i != to; i++){
+            if(ScalarSegmentKernel.mayCollide(hx[i], hy[i], tx[i], ty[i], slope[i], constant[i],
+             qhx, qhy, qtx, qty, qs, qc)){
+                out[found++] = i;
+            }
+        }
+        return found;
+    }
+    @Override
+    public int manyToOne(double whx, double why, double wtx, double wty, double ws, double wc,
+     double[] hx, double[] hy, double[] tx, double[] ty, double[] slope, double[] constant,
+     int from, int to, int[] out){
+        int lanes = SPECIES.length();
+        DoubleVector ahx = DoubleVector.broadcast(SPECIES, whx);
+        DoubleVector ahy = DoubleVector.broadcast(SPECIES, why);
+        DoubleVector atx = DoubleVector.broadcast(SPECIES, wtx);
+        DoubleVector aty = DoubleVector.broadcast(SPECIES, wty);
+        DoubleVector as = DoubleVector.broadcast(SPECIES, ws);
+        DoubleVector ac = DoubleVector.broadcast(SPECIES, wc);
+        int found = 0;
+        int i = from;
+        for(; i+lanes <= to; i += lanes){
+            VectorMask<Double> maybe = mayCollide(ahx, ahy, atx, aty, as, ac,
+             DoubleVector.fromArray(SPECIES, hx, i), DoubleVector.fromArray(SPECIES, hy, i),
+             DoubleVector.fromArray(SPECIES, tx, i), DoubleVector.fromArray(SPECIES, ty, i),
+             DoubleVector.fromArray(SPECIES, slope, i), DoubleVector.fromArray(SPECIES, constant, i));
+            if(maybe.anyTrue()){
+                for(long bits = maybe.toLong(); bits != 0; bits &= bits-1){
+                    out[found++] = i+Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+        for(; i != to; i++){
+            if(ScalarSegmentKernel.mayCollide(whx, why, wtx, wty, ws, wc, hx[i], hy[i], tx[i], ty[i],
+             slope[i], constant[i])){
+                out[found++] = i;
+            }
+        }
+        return found;
+    }
+    /**
+     * ScalarSegmentKernel.mayCollide on every lane.
+    */
+    private static VectorMask<Double> mayCollide(DoubleVector ahx, DoubleVector ahy, DoubleVector atx,
+     DoubleVector aty, DoubleVector as, DoubleVector ac, DoubleVector bhx, DoubleVector bhy,
+     DoubleVector btx, DoubleVector bty, DoubleVector bs, DoubleVector bc){
+        VectorMask<Double> shared = atx.eq(btx).and(aty.eq(bty))
+         .or(ahx.eq(bhx).and(ahy.eq(bhy)))
+         .or(atx.eq(bhx).and(aty.eq(bhy)))
+         .or(ahx.eq(btx).and(ahy.eq(bty)));
+        DoubleVector x = ac.sub(bc).div(bs.sub(as));
+        DoubleVector y = as.mul(x).add(ac);
+        VectorMask<Double> outside = outside(ahx, atx, x).or(outside(ahy, aty, y))
+         .or(outside(bhx, btx, x)).or(outside(bhy, bty, y));
+        return shared.or(outside.not());
+    }
+    /**
+     * Lanes where 'value' is strictly beyond both ends on the same side.
+    */
+    private static VectorMask<Double> outside(DoubleVector end1, DoubleVector end2, DoubleVector value){
+        return end1.lt(value).and(end2.lt(value))
+         .or(end1.compare(VectorOperators.GT, value).and(end2.compare(VectorOperators.GT, value)));
+    }
+}